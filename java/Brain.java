@@ -1,15 +1,22 @@
 package AstroAI.java;
 
+import java.io.IOException;
 import java.lang.Iterable;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Map;
-import java.util.PriorityQueue;
-import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 import AstroAI.java.ActionNeuron;
 import AstroAI.java.Connection;
@@ -28,8 +35,10 @@ public class Brain {
 	private double neuronAdjustment;
 	// fraction by which action neurons approach their ideal output
 	private double actionNeuronAdjustment;
-	private HashMap<String, SensorCell> predictionSensorCells;
-	private HashMap<String, SensorCell> actionSensorCells;
+	// in the order they were given, which is also the order their
+	// neurons were made in
+	private LinkedHashMap<String, SensorCell> predictionSensorCells;
+	private LinkedHashMap<String, SensorCell> actionSensorCells;
 	private ArrayList<Neuron> interNeurons;
 	private ArrayList<MemoryNeuron> memoryNeurons;
 	private ArrayList<PredictionNeuron> predictionNeurons;
@@ -38,10 +47,72 @@ public class Brain {
 	private ArrayList<Neuron> neuronsWithOutputs;
 	private ArrayList<Neuron> allNeurons;
 	private HashSet<Connection> connections;
-	private Random random;
+	private WeightHistory weightHistory;
+	// every random number the brain draws, Gaussian or not
+	private BrainRandom random;
 	private int predictionOffset;
-	private Brain.DFSClock topoOrder;
+	private Brain.TopoOrder topoOrder;
+	// draws the pairs new connections go between
+	private ConnectionSampler sampler;
+	// the neurons other than action neurons in the action neurons'
+	// fanouts, in forward order: all that perturbing the actions can
+	// change. Listed at topoOrder version coneVersion, or -1 if it needs
+	// listing again. Action neurons whose fanouts need working out afresh
+	// are in staleFanouts.
+	private ArrayList<Neuron> actionCone;
+	private long coneVersion;
+	private HashSet<Neuron> staleFanouts;
+	// neurons outside the cone with outputs into it, and what they output
+	// at prediction offset 0, once calcAllNeuralOutputs() has saved it
+	private ArrayList<Neuron> coneInputs;
+	private double coneInputOutputs[];
+	private boolean coneInputsSaved;
+	// The accepted actions' state, which think() rolls rejected
+	// perturbations back to and learn() starts from: the outputs at
+	// prediction offset 0 of the neurons other than memory and action
+	// neurons, outside the cone in coneOutside order and in it in
+	// actionCone order, and every SensorCell's ring, predictions before
+	// actions. Perturbing the actions only changes the cone, so the cone
+	// outputs of the candidate being tried go in candidateConeOutputs
+	// until it is accepted.
+	private ArrayList<Neuron> coneOutside;
+	private double bestOutsideOutputs[];
+	private double bestConeOutputs[];
+	private double candidateConeOutputs[];
+	private double bestRings[][];
+	private boolean checkpointSaved;
+	// whether think() has left the accepted state in place for learn()
+	private boolean checkpointRestored;
 	private double perturbationRadius;
+	// flat image of the neurons that the passes run on instead of the
+	// object graph, or null
+	private CompiledBrain compiled;
+	// whether the brain is a fork still running on the topology its
+	// compiled image shares, without neurons or connections of its own
+	private boolean sharedTopology;
+	// nesting depth of beginEdits() calls, and whether to recompile once
+	// they are committed
+	private int editDepth;
+	private boolean compiledBeforeEdits;
+	// pool to evaluate exploration candidates on, explorationWidth at a
+	// time, or null to explore one perturbation at a time; and how many
+	// candidates compiled passes evaluate together, if more than 1
+	private ForkJoinPool explorationPool;
+	private int explorationWidth;
+	private int explorationBatch;
+	// pool to spread wide levels of the compiled passes over, or null
+	private ForkJoinPool levelPool;
+	// inner loops of the compiled passes
+	private NeuronKernels kernels;
+	// how far a neuron's output must move before sparse passes pass it
+	// on, or negative for dense passes; and the neurons sparse passes of
+	// compiled brains since dropped have calculated and skipped
+	private double propagationEpsilon;
+	private long neuronsEvaluated;
+	private long neuronsSkipped;
+	// where learn() publishes the brain's state for other threads, or
+	// null
+	private BrainMonitor monitor;
 
 	public Brain(
 			Creature myCreature,
@@ -50,26 +121,74 @@ public class Brain {
 			double na,
 			double ana,
 			double perturbationRadius) {
-		this.myCreature = myCreature;
-		this.neuronAdjustment = na;
-		this.actionNeuronAdjustment = ana;
-		this.perturbationRadius = perturbationRadius;
-		this.random = new Random();
+		this(myCreature, senseList, actionList, na, ana,
+		     perturbationRadius, Brain.numInterNeurons,
+		     Brain.numConnections);
+	}
+	
+	// A brain of numInterNeurons interneurons and numConnections
+	// connections instead of the defaults
+	public Brain(
+			Creature myCreature,
+			Map<String, Feeler> senseList,
+			List<String> actionList,
+			double na,
+			double ana,
+			double perturbationRadius,
+			int numInterNeurons,
+			int numConnections) {
+		this(myCreature, senseList, actionList, na, ana,
+		     perturbationRadius, numInterNeurons, numConnections,
+		     BrainRandom.splitRoot());
+	}
+	
+	// A brain drawing its weights, connections and perturbations from
+	// random, which it keeps
+	public Brain(
+			Creature myCreature,
+			Map<String, Feeler> senseList,
+			List<String> actionList,
+			double na,
+			double ana,
+			double perturbationRadius,
+			int numInterNeurons,
+			int numConnections,
+			BrainRandom random) {
+		this(myCreature, senseList, actionList, na, ana,
+		     perturbationRadius, numInterNeurons, random);
 		
-		// initialize neuron lists
-		this.memoryNeurons = new ArrayList<MemoryNeuron>();
-		this.predictionNeurons = new ArrayList<PredictionNeuron>();
-		this.actionNeurons = new ArrayList<ActionNeuron>();
+		// generate connections between neurons
+		this.weightHistory = new WeightHistory(numConnections);
+		// build the initial topological order so that tryAddConnection
+		// works. From here on it is only repaired locally.
+		this.initTopoOrder();
+		this.sampler = new ConnectionSampler(this.topoOrder);
+		// all neurons with outputs should have at least ONE output
+		for(Neuron n : this.neuronsWithOutputs) {
+			this.addConnectionFrom(n, 0.0);
+		}
+		// Now start adding connections randomly
+		while(this.connections.size() < numConnections) {
+			this.addRandomConnection(this.random.nextGaussian()
+				*Brain.initialConnectionWeightVariance);
+		}
+	}
+	
+	// A brain with all its neurons, but no connections yet
+	private Brain(
+			Creature myCreature,
+			Map<String, Feeler> senseList,
+			List<String> actionList,
+			double na,
+			double ana,
+			double perturbationRadius,
+			int numInterNeurons,
+			BrainRandom random) {
+		this(myCreature, senseList, actionList, na, ana,
+		     perturbationRadius, random);
 		
-		// initialize sense SensorCells
-		this.predictionSensorCells = new HashMap<String, SensorCell>();
-		for(String sense : senseList.keySet()) {
-			Feeler f = senseList.get(sense);
-			// create sensor cell
-			SensorCell nsc =
-				new SensorCell(this, f);
-			this.predictionSensorCells.put(sense, nsc);
-			// create neurons
+		// create the neurons of each SensorCell, then the interneurons
+		for(SensorCell nsc : this.predictionSensorCells.values()) {
 			for(int i = 1; i <= Brain.memoryDepth; ++i) {
 				this.memoryNeurons.add(
 					new MemoryNeuron(this, nsc, i));
@@ -77,15 +196,7 @@ public class Brain {
 			this.predictionNeurons.add(
 				new PredictionNeuron(this, nsc));
 		}
-		
-		// initialize action SensorCells
-		this.actionSensorCells = new HashMap<String, SensorCell>();
-		for(String action : actionList) {
-			// create sensor cell
-			SensorCell nsc =
-				new SensorCell(this, null);
-			this.actionSensorCells.put(action, nsc);
-			// create neurons
+		for(SensorCell nsc : this.actionSensorCells.values()) {
 			for(int i = 1; i <= Brain.memoryDepth; ++i) {
 				this.memoryNeurons.add(
 					new MemoryNeuron(this, nsc, i));
@@ -93,14 +204,74 @@ public class Brain {
 			this.actionNeurons.add(
 				new ActionNeuron(this, nsc));
 		}
-		
-		// Initialize Interneurons
-		this.interNeurons =
-			new ArrayList<Neuron>(Brain.numInterNeurons);
-		for(int i = 0; i < Brain.numInterNeurons; ++i) {
+		for(int i = 0; i < numInterNeurons; ++i) {
 			this.interNeurons.add(new Neuron(this));
 		}
+		this.listNeurons();
+	}
+	
+	// A brain with its SensorCells, but no neurons yet
+	private Brain(
+			Creature myCreature,
+			Map<String, Feeler> senseList,
+			List<String> actionList,
+			double na,
+			double ana,
+			double perturbationRadius,
+			BrainRandom random) {
+		this.myCreature = myCreature;
+		this.neuronAdjustment = na;
+		this.actionNeuronAdjustment = ana;
+		this.perturbationRadius = perturbationRadius;
+		this.random = random;
+		this.kernels = NeuronKernels.scalar();
+		this.propagationEpsilon = -1.0;
+		
+		// initialize neuron lists
+		this.memoryNeurons = new ArrayList<MemoryNeuron>();
+		this.predictionNeurons = new ArrayList<PredictionNeuron>();
+		this.actionNeurons = new ArrayList<ActionNeuron>();
+		this.interNeurons = new ArrayList<Neuron>();
+		this.neuronsWithInputs = new ArrayList<Neuron>();
+		this.neuronsWithOutputs = new ArrayList<Neuron>();
+		this.allNeurons = new ArrayList<Neuron>();
+		
+		// initialize sense SensorCells
+		this.predictionSensorCells =
+			new LinkedHashMap<String, SensorCell>();
+		for(String sense : senseList.keySet()) {
+			Feeler f = senseList.get(sense);
+			this.predictionSensorCells.put(sense,
+						       new SensorCell(this, f));
+		}
+		
+		// initialize action SensorCells
+		this.actionSensorCells =
+			new LinkedHashMap<String, SensorCell>();
+		for(String action : actionList) {
+			this.actionSensorCells.put(action,
+						   new SensorCell(this, null));
+		}
 		
+		this.connections = new HashSet<Connection>();
+		this.actionCone = new ArrayList<Neuron>();
+		this.coneVersion = -1;
+		this.staleFanouts = new HashSet<Neuron>();
+		this.coneInputs = new ArrayList<Neuron>();
+		this.coneInputOutputs = new double[0];
+		this.coneOutside = new ArrayList<Neuron>();
+		this.bestOutsideOutputs = new double[0];
+		this.bestConeOutputs = new double[0];
+		this.candidateConeOutputs = new double[0];
+		this.bestRings = new double[this.predictionSensorCells.size()
+					    + this.actionSensorCells.size()]
+			[Brain.sensorCellDepth];
+	}
+	
+	// Lists the neurons again, in the order a brain with the same senses
+	// and actions makes them in, once memoryNeurons, predictionNeurons,
+	// actionNeurons and interNeurons hold them all
+	private void listNeurons() {
 		// generate list of neurons that can serve as destNeurons in
 		// Connections
 		this.neuronsWithInputs = new ArrayList<Neuron>(
@@ -121,31 +292,12 @@ public class Brain {
 		this.neuronsWithOutputs.addAll(this.actionNeurons);
 		this.neuronsWithOutputs.addAll(this.memoryNeurons);
 		
-		// have a collection of all neurons for DFS purposes
+		// have a collection of all neurons
 		this.allNeurons = new ArrayList<Neuron>(
 			this.neuronsWithOutputs.size() +
 			this.predictionNeurons.size());
 		this.allNeurons.addAll(this.neuronsWithOutputs);
 		this.allNeurons.addAll(this.predictionNeurons);
-		
-		// generate connections between neurons
-		this.connections = new HashSet<Connection>();
-		// set DFS states so that tryAddConnection works
-		this.DFS();
-		// all neurons with outputs should have at least ONE output
-		for(Neuron n : this.neuronsWithOutputs) {
-			// while this neuron has no output...
-			while(!this.tryAddConnection(
-				n, this.getRandomDestNeuron()));
-		}
-		// Now start adding connections randomly
-		while(this.connections.size() < Brain.numConnections) {
-			this.tryAddConnection(
-				this.getRandomSrcNeuron(),
-				this.getRandomDestNeuron(),
-				GaussGetter.getGauss()
-				*Brain.initialConnectionWeightVariance);
-		}
 	}
 	
 	// Given a src neuron and a dest neuron, attempts to add a connection
@@ -154,66 +306,314 @@ public class Brain {
 					 double initialWgt) {
 		
 		// check that src really can have outputs, ie, is not a
-		// prediction neuron
+		// prediction neuron. Memory neurons are PredictionNeurons too,
+		// but they only ever serve as inputs.
 		if(src instanceof PredictionNeuron &&
-		   !(src instanceof ActionNeuron)) {
+		   !(src instanceof ActionNeuron) &&
+		   !(src instanceof MemoryNeuron)) {
+			BrainMetrics.countConnectionRejection();
 			return false;
 		}
 		
 		// check that dest really can have inputs, ie, is not a
 		// memory neuron
 		if(dest instanceof MemoryNeuron) {
+			BrainMetrics.countConnectionRejection();
 			return false;
 		}
 		
-		// check that this is not a back edge
-		if(src.getDFSPre() < dest.getDFSPre() &&
-		   src.getDFSPost() > dest.getDFSPost()) {
+		// check that this would not close a cycle, moving dest after
+		// src in the topological order if need be
+		if(!this.topoOrder.tryOrder(src, dest)) {
+			BrainMetrics.countConnectionRejection();
 			return false;
 		}
 		
 		// ok, we're all good
-		Connection nc = new Connection(src, dest, initialWgt);
-		this.connections.add(nc);
-		src.addOutputConnection(nc);
-		dest.addInputConnection(nc);
-		
-		// update pre/post number assignments
-		this.DFS();
-		
+		this.attachConnection(new Connection(
+			src, dest, initialWgt, this.weightHistory));
 		return true;
 	}
 	
+	private void attachConnection(Connection nc) {
+		this.connections.add(nc);
+		nc.getSrcNeuron().addOutputConnection(nc);
+		nc.getDestNeuron().addInputConnection(nc);
+		for(ActionNeuron a : this.actionNeurons) {
+			if(a.isInFanout(nc.getSrcNeuron())) {
+				a.extendFanout(nc.getDestNeuron());
+			}
+		}
+		this.invalidateActionCone();
+	}
+	
 	private boolean tryAddConnection(Neuron src, Neuron dest) {
 		return this.tryAddConnection(src, dest, 0.0);
 	}
 	
+	// Connects a pair drawn evenly from all pairs that can be connected
+	// without reordering
+	private void addRandomConnection(double initialWgt) {
+		Neuron src = this.sampler.sampleSrc(this.random);
+		if(src == null) {
+			// no such pair; fall back on random pairs
+			while(!this.sampler.countAttempt(this.tryAddConnection(
+				this.getRandomSrcNeuron(),
+				this.getRandomDestNeuron(), initialWgt))) {
+				continue;
+			}
+			return;
+		}
+		this.addConnectionFrom(src, initialWgt);
+	}
+	
+	// Connects src to a dest drawn evenly from those after it
+	private void addConnectionFrom(Neuron src, double initialWgt) {
+		Neuron dest = this.sampler.sampleDest(src, this.random);
+		if(dest == null) {
+			// nothing after src; fall back on random dests, which
+			// may reorder
+			while(!this.sampler.countAttempt(this.tryAddConnection(
+				src, this.getRandomDestNeuron(), initialWgt))) {
+				continue;
+			}
+			return;
+		}
+		// always succeeds, dest being after src
+		this.tryAddConnection(src, dest, initialWgt);
+	}
+	
+	public ConnectionSampler getConnectionSampler() {
+		this.materializeTopology();
+		return this.sampler;
+	}
+	
 	private void removeConnection(Connection c) {
 		// Remove connections from neurons first
 		c.getSrcNeuron().removeOutputConnection(c);
 		c.getDestNeuron().removeInputConnection(c);
 		
-		// remove connection from our set
+		// remove connection from our set. Removing an edge never
+		// invalidates a topological order. The dest may still be
+		// reachable another way, so fanouts through it are worked out
+		// again when next needed.
 		this.connections.remove(c);
-		
-		// update pre/post number assignments
-		this.DFS();
+		c.release();
+		for(ActionNeuron a : this.actionNeurons) {
+			if(a.isInFanout(c.getSrcNeuron())) {
+				this.staleFanouts.add(a);
+			}
+		}
+		this.invalidateActionCone();
 	}
 	
-	// Update the pre- and post- numbers of all neurons and get topological
-	// ordering
-	private void DFS() {
-		
-		// reset neural DFS state
-		for(Neuron n : this.allNeurons) {
-			n.resetDFSState();
+	private void invalidateActionCone() {
+		this.coneVersion = -1;
+		this.coneInputsSaved = false;
+		this.checkpointSaved = false;
+		this.checkpointRestored = false;
+	}
+	
+	// Lists the cone again if connections or the order have changed
+	// since it was last listed. Returns whether it had to.
+	private boolean ensureActionCone() {
+		if(this.coneVersion == this.topoOrder.getVersion()) {
+			return false;
 		}
+		for(Neuron a : this.staleFanouts) {
+			a.rebuildFanout();
+		}
+		this.staleFanouts.clear();
 		
-		// do DFS
-		this.topoOrder = new Brain.DFSClock();
+		HashSet<Neuron> inCone = new HashSet<Neuron>();
+		for(ActionNeuron a : this.actionNeurons) {
+			inCone.addAll(a.fanout);
+		}
+		this.actionCone.clear();
+		this.coneInputs.clear();
+		this.coneOutside.clear();
+		HashSet<Neuron> inputs = new HashSet<Neuron>();
+		for(Neuron n : this.topoOrder.getForwardOrder()) {
+			if(n instanceof MemoryNeuron
+			   || n instanceof ActionNeuron) {
+				continue;
+			}
+			if(!inCone.contains(n)) {
+				this.coneOutside.add(n);
+				continue;
+			}
+			this.actionCone.add(n);
+			// memory and action neurons give their SensorCells'
+			// values, so only other neurons' outputs need saving
+			for(Connection c : n.getInputConnections()) {
+				Neuron src = c.getSrcNeuron();
+				if(!inCone.contains(src)
+				   && !(src instanceof MemoryNeuron)
+				   && inputs.add(src)) {
+					this.coneInputs.add(src);
+				}
+			}
+		}
+		this.coneInputOutputs = new double[this.coneInputs.size()];
+		this.coneInputsSaved = false;
+		this.bestOutsideOutputs = new double[this.coneOutside.size()];
+		this.bestConeOutputs = new double[this.actionCone.size()];
+		this.candidateConeOutputs = new double[this.actionCone.size()];
+		this.checkpointSaved = false;
+		this.coneVersion = this.topoOrder.getVersion();
+		return true;
+	}
+	
+	// The neurons other than action neurons that perturbing the actions
+	// can change, in forward order
+	public List<Neuron> getActionCone() {
+		this.materializeTopology();
+		this.ensureActionCone();
+		return Collections.unmodifiableList(this.actionCone);
+	}
+	
+	// Saves what the neurons feeding the action cone output at
+	// prediction offset 0. Exploration leaves those outputs alone.
+	private void saveConeInputs() {
+		if(this.compiled != null) {
+			this.compiled.saveConeInputs();
+			return;
+		}
+		this.ensureActionCone();
+		for(int i = 0; i < this.coneInputOutputs.length; ++i) {
+			this.coneInputOutputs[i] = this.coneInputs.get(i)
+				.getLastCalculatedOutput();
+		}
+		this.coneInputsSaved = true;
+	}
+	
+	// Saves the outputs at prediction offset 0 as the accepted state's,
+	// once calcAllNeuralOutputs() has calculated them
+	private void saveCheckpointOutputs() {
+		if(this.compiled != null) {
+			this.compiled.saveCheckpointOutputs();
+			return;
+		}
+		this.ensureActionCone();
+		for(int i = 0; i < this.bestOutsideOutputs.length; ++i) {
+			this.bestOutsideOutputs[i] = this.coneOutside.get(i)
+				.getLastCalculatedOutput();
+		}
+		for(int i = 0; i < this.bestConeOutputs.length; ++i) {
+			this.bestConeOutputs[i] = this.actionCone.get(i)
+				.getLastCalculatedOutput();
+		}
+		this.checkpointSaved = true;
+	}
+	
+	// Saves the cone's outputs at prediction offset 0 for the candidate
+	// actions propagateCurrentActions() has just tried
+	private void saveCandidateOutputs() {
+		if(this.compiled != null) {
+			this.compiled.saveCandidateOutputs();
+			return;
+		}
+		for(int i = 0; i < this.candidateConeOutputs.length; ++i) {
+			this.candidateConeOutputs[i] = this.actionCone.get(i)
+				.getLastCalculatedOutput();
+		}
+	}
+	
+	// Makes the candidate just tried the accepted state: its cone
+	// outputs are swapped in, and the rings it predicted saved
+	private void acceptCandidate() {
+		if(this.compiled != null) {
+			this.compiled.acceptCandidateOutputs();
+		} else {
+			double outputs[] = this.bestConeOutputs;
+			this.bestConeOutputs = this.candidateConeOutputs;
+			this.candidateConeOutputs = outputs;
+		}
+		this.copyRings(true);
+	}
+	
+	// Rolls the rings back to the accepted state, undoing the rejected
+	// candidate's actions and its predictions. The neurons are only put
+	// back once think() is done.
+	private void rejectCandidate() {
+		this.copyRings(false);
+	}
+	
+	// Puts the accepted state's outputs at prediction offset 0 back in
+	// place, for learn()
+	private void restoreCheckpoint() {
+		this.predictionOffset = 0;
+		if(this.compiled != null) {
+			this.checkpointRestored =
+				this.compiled.restoreCheckpointOutputs();
+			return;
+		}
+		if(!this.checkpointSaved) {
+			return;
+		}
+		for(int i = 0; i < this.bestOutsideOutputs.length; ++i) {
+			this.coneOutside.get(i).lastCalculatedOutput =
+				this.bestOutsideOutputs[i];
+		}
+		for(int i = 0; i < this.bestConeOutputs.length; ++i) {
+			this.actionCone.get(i).lastCalculatedOutput =
+				this.bestConeOutputs[i];
+		}
+		this.checkpointRestored = true;
+	}
+	
+	// Copies every SensorCell's ring into bestRings if save is set, or
+	// back out of it otherwise
+	private void copyRings(boolean save) {
+		int c = 0;
+		for(SensorCell sc : this.predictionSensorCells.values()) {
+			Brain.copyRing(sc, this.bestRings[c++], save);
+		}
+		for(SensorCell sc : this.actionSensorCells.values()) {
+			Brain.copyRing(sc, this.bestRings[c++], save);
+		}
+	}
+	
+	private static void copyRing(SensorCell sc, double saved[],
+				     boolean save) {
+		if(save) {
+			System.arraycopy(sc.getMemAndPredictions(), 0, saved, 0,
+					 saved.length);
+		} else {
+			System.arraycopy(saved, 0, sc.getMemAndPredictions(), 0,
+					 saved.length);
+		}
+	}
+	
+	// Builds the first topological order, before there are any
+	// connections: memory neurons, which only ever have outputs, first,
+	// prediction neurons, which only ever have inputs, last, and
+	// interneurons and action neurons shuffled in between. That way every
+	// neuron that can have outputs has dests after it.
+	private void initTopoOrder() {
+		ArrayList<Neuron> middle = new ArrayList<Neuron>(
+			this.interNeurons.size() + this.actionNeurons.size());
+		middle.addAll(this.interNeurons);
+		middle.addAll(this.actionNeurons);
+		Collections.shuffle(middle, this.random);
+		ArrayList<Neuron> forward =
+			new ArrayList<Neuron>(this.allNeurons.size());
+		forward.addAll(this.memoryNeurons);
+		forward.addAll(middle);
+		forward.addAll(this.predictionNeurons);
+		this.setTopoOrder(forward);
+	}
+	
+	// Makes the given topological order the brain's
+	private void setTopoOrder(List<Neuron> forward) {
 		for(Neuron n : this.allNeurons) {
-			n.DFS(this.topoOrder);
+			n.resetTopoState();
 		}
+		// versions carry on from the order replaced, so nothing
+		// listed against it is taken to be up to date
+		long version = this.topoOrder == null ? 0
+			: this.topoOrder.getVersion() + 1;
+		this.topoOrder = new Brain.TopoOrder(forward, version);
 	}
 	
 	private Neuron getRandomSrcNeuron() {
@@ -230,6 +630,8 @@ public class Brain {
 	// on last state and current actions, and explore alternate actions
 	// to increase expected future value
 	public void think() {
+		long start = BrainMetrics.begin(BrainMetrics.THINK);
+		
 		// if time, prune connections
 		if(this.getEnvironment().getTime()
 		   % Brain.connectionHistoryDepth
@@ -238,32 +640,324 @@ public class Brain {
 		}
 		
 		// generate outputs and evaluate value function.
-		// This also generates the initial action values.
+		// This also generates the initial action values, and saves
+		// the state as the accepted one.
 		double stateValue = this.calcAllNeuralOutputs();
+		this.copyRings(true);
 		
 		// Explore alternative actions.
-		for(int i = 0; i < Brain.numActionUpdates; ++i) {
-			this.perturbCurrentActions();
-			double tempVal = propagateCurrentActions();
-			tempVal += calcFutureNeuralOutputs();
-			if(tempVal <= stateValue) {
-				this.undoCurrentActionPerturbations();
-			} else {
-				stateValue = tempVal;
+		if(this.compiled != null && (this.explorationPool != null
+					     || this.explorationBatch > 1)) {
+			this.exploreInParallel(stateValue);
+		} else {
+			for(int i = 0; i < Brain.numActionUpdates; ++i) {
+				long roundStart = BrainMetrics.begin(
+					BrainMetrics.EXPLORATION_ROUND);
+				this.perturbCurrentActions();
+				double tempVal = propagateCurrentActions();
+				this.saveCandidateOutputs();
+				tempVal += calcFutureNeuralOutputs();
+				boolean accepted = tempVal > stateValue;
+				if(!accepted) {
+					this.rejectCandidate();
+				} else {
+					stateValue = tempVal;
+					this.acceptCandidate();
+				}
+				BrainMetrics.countPerturbation(accepted);
+				BrainMetrics.end(BrainMetrics.EXPLORATION_ROUND,
+						 roundStart);
 			}
 		}
+		this.restoreCheckpoint();
+		
+		BrainMetrics.end(BrainMetrics.THINK, start);
 	}
 	
-	// Finds the least Brain.connectionsToPrune important connections,
-	// removes them, and replaces them
-	private void shuffleConnections() {
-		Connection.ConnectionComparator connComp =
-			new Connection.ConnectionComparator();
-		PriorityQueue<Connection> connPQ =
-			new PriorityQueue<Connection>(
-				Brain.connectionsToPrune + 1,
-				connComp);
+	// Has think() evaluate up to width exploration candidates at once on
+	// the given pool, or one at a time if pool is null. Only takes
+	// effect while the brain is compiled, since each candidate needs its
+	// own copy of the activations.
+	public void setExplorationPool(ForkJoinPool pool, int width) {
+		this.explorationPool = pool;
+		this.explorationWidth = Math.max(width, 1);
+	}
+	
+	// Has think() evaluate exploration candidates in batches of lanes,
+	// each batch in the same passes, with lanes wide activations: every
+	// weight is loaded once per pass for the whole batch. Rounds then
+	// try at least lanes candidates each, spread over the exploration
+	// pool, if any, a batch at a time. Only takes effect while the brain
+	// is compiled; CompiledBrain.canBatch() says when candidates can be
+	// batched, and otherwise they are evaluated one at a time. Batched
+	// candidates get the same values as unbatched ones. A lanes of 1 or
+	// less turns batching off.
+	public void setExplorationBatch(int lanes) {
+		this.explorationBatch = Math.max(lanes, 1);
+	}
+	
+	public int getExplorationBatch() {
+		return this.explorationBatch;
+	}
+	
+	// Has the compiled passes spread each level of at least
+	// Brain.parallelLevelThreshold neurons over the given pool, or run
+	// serially if pool is null. The results are the same either way.
+	public void setLevelPool(ForkJoinPool pool) {
+		this.levelPool = pool;
+	}
+	
+	public ForkJoinPool getLevelPool() {
+		return this.levelPool;
+	}
+	
+	// Picks the inner loops the compiled passes run, eg,
+	// NeuronKernels.widest(). Anything but the default scalar kernels
+	// may round differently from the object graph.
+	public void setKernels(NeuronKernels kernels) {
+		this.kernels = kernels;
+		this.checkpointRestored = false;
+		if(this.compiled != null) {
+			this.compiled.setKernels(kernels);
+		}
+	}
+	
+	public NeuronKernels getKernels() {
+		return this.kernels;
+	}
+	
+	// Has the compiled forward passes skip neurons none of whose inputs
+	// have changed since they were last calculated, and pass a neuron's
+	// new output on only once it is more than epsilon from what its dests
+	// last saw. An epsilon of 0 only skips work whose result is known,
+	// giving the same values as dense passes; larger ones trade accuracy
+	// for less work. A negative epsilon, the default, calculates every
+	// neuron in every pass. Only takes effect while the brain is
+	// compiled.
+	public void setPropagationEpsilon(double epsilon) {
+		this.propagationEpsilon = epsilon;
+		if(this.compiled != null) {
+			this.compiled.setPropagationEpsilon(epsilon);
+		}
+	}
+	
+	public double getPropagationEpsilon() {
+		return this.propagationEpsilon;
+	}
+	
+	// Fraction of the neurons the sparse passes could have calculated
+	// that they skipped, so far
+	public double getSkippedFraction() {
+		long evaluated = this.neuronsEvaluated;
+		long skipped = this.neuronsSkipped;
+		if(this.compiled != null) {
+			evaluated += this.compiled.getNeuronsEvaluated();
+			skipped += this.compiled.getNeuronsSkipped();
+		}
+		if(evaluated + skipped == 0) {
+			return 0.0;
+		}
+		return skipped / (double) (evaluated + skipped);
+	}
+	
+	// Has learn() publish the brain's state to monitor, for other threads
+	// to read without holding the brain up, or stops publishing if
+	// monitor is null. Publishes the state as it is now, so must be
+	// called between ticks.
+	public void setMonitor(BrainMonitor monitor) {
+		this.monitor = monitor;
+		if(monitor != null) {
+			monitor.publish(this);
+		}
+	}
+	
+	public BrainMonitor getMonitor() {
+		return this.monitor;
+	}
+	
+	// Keeps the connections' weights and weight histories, the bulk of
+	// the brain's state, in arena, eg, BrainArena.offHeap(), which the
+	// brain then owns. The brain's forks keep theirs in arenas of the
+	// same kind.
+	public void setArena(BrainArena arena) {
+		this.weightHistory.moveTo(arena);
+	}
+	
+	public BrainArena getArena() {
+		return this.weightHistory.getArena();
+	}
+	
+	// Frees the brain's arena now rather than whenever the brain is
+	// collected. The brain must not be used afterwards.
+	public void release() {
+		this.monitor = null;
+		this.weightHistory.close();
+	}
+	
+	// Copies what a BrainMonitor publishes into s: every neuron's output
+	// and bias, in the order the passes run them, every connection's src,
+	// dest and weight, and every SensorCell's ring. Reads the brain as
+	// it is, so must be called between ticks, on the brain's thread.
+	public void copyState(BrainMonitor.Snapshot s) {
+		int numSenses = this.predictionSensorCells.size();
+		int numActions = this.actionSensorCells.size();
+		s.setTime(this.getEnvironment().getTime());
+		if(this.compiled != null) {
+			s.resize(this.compiled.getNumNeurons(),
+				 this.compiled.getNumConnections(),
+				 numSenses, numActions);
+			this.compiled.copyState(s.getOutputs(), s.getBiases(),
+						s.getSrcs(), s.getDests(),
+						s.getWeights());
+		} else {
+			s.resize(this.allNeurons.size(),
+				 this.connections.size(), numSenses,
+				 numActions);
+			double outputs[] = s.getOutputs();
+			double biases[] = s.getBiases();
+			for(Neuron n : this.allNeurons) {
+				outputs[n.getTopoRank()] =
+					n.getLastCalculatedOutput();
+				biases[n.getTopoRank()] = n.getBias();
+			}
+			int k = 0;
+			for(Connection c : this.connections) {
+				s.getSrcs()[k] = c.getSrcNeuron().getTopoRank();
+				s.getDests()[k] =
+					c.getDestNeuron().getTopoRank();
+				s.getWeights()[k] = c.getCurrentWeight();
+				++k;
+			}
+		}
+		
+		int c = 0;
+		for(Map.Entry<String, SensorCell> e
+			    : this.predictionSensorCells.entrySet()) {
+			s.getCellNames()[c] = e.getKey();
+			Brain.copyRing(e.getValue(), s.getRing(c++), true);
+		}
+		for(Map.Entry<String, SensorCell> e
+			    : this.actionSensorCells.entrySet()) {
+			s.getCellNames()[c] = e.getKey();
+			Brain.copyRing(e.getValue(), s.getRing(c++), true);
+		}
+	}
+	
+	// Explores Brain.numActionUpdates perturbations in rounds of
+	// explorationWidth, or explorationBatch if that is wider. Every
+	// candidate in a round perturbs the current actions and is evaluated
+	// on its own copy of the activations, or its own lane of a batch. The
+	// best of the round is accepted if it beats the current state value,
+	// just as a lone perturbation would be, and becomes the current
+	// actions for the next round. Perturbations are drawn here, in the
+	// order the sequential loop draws them, so that the outcome does not
+	// depend on the threads. With a width of 1 the same candidates are
+	// accepted as by the sequential loop, and learn() gets the same
+	// outputs.
+	private double exploreInParallel(double stateValue) {
+		int numActions = this.actionSensorCells.size();
+		int roundWidth = Math.max(this.explorationWidth,
+					  this.explorationBatch);
+		for(int done = 0; done < Brain.numActionUpdates;
+		    done += roundWidth) {
+			long roundStart = BrainMetrics.begin(
+				BrainMetrics.EXPLORATION_ROUND);
+			int width = Math.min(roundWidth,
+					     Brain.numActionUpdates - done);
+			double perturbations[][] =
+				new double[width][numActions];
+			for(int j = 0; j < width; ++j) {
+				for(int a = 0; a < numActions; ++a) {
+					perturbations[j][a] =
+						this.random.nextGaussian()
+						* this.perturbationRadius;
+				}
+			}
+			double values[] = new double[width];
+			this.compiled.evaluateCandidates(this.explorationPool,
+							 perturbations, values);
 			
+			int best = 0;
+			for(int j = 1; j < width; ++j) {
+				if(values[j] > values[best]) {
+					best = j;
+				}
+			}
+			boolean accepted = values[best] > stateValue;
+			if(accepted) {
+				this.compiled.acceptCandidate(best);
+				this.copyRings(true);
+				stateValue = values[best];
+			}
+			for(int j = 0; j < width; ++j) {
+				BrainMetrics.countPerturbation(
+					accepted && j == best);
+			}
+			BrainMetrics.end(BrainMetrics.EXPLORATION_ROUND,
+					 roundStart);
+			// the sequential loop leaves the action outputs
+			// of the last candidate it tried for learn()
+			if(done + roundWidth >= Brain.numActionUpdates) {
+				this.compiled.keepCandidateActionOutputs(
+					width - 1);
+			}
+		}
+		return stateValue;
+	}
+	
+	// Switches between running the passes on the Neuron and Connection
+	// objects and running them on a CompiledBrain. Both give the same
+	// values.
+	public void setCompiled(boolean compiled) {
+		this.checkpointRestored = false;
+		if(compiled && this.compiled == null) {
+			this.compiled = new CompiledBrain(
+				this, this.topoOrder.getForwardOrder(),
+				this.weightHistory,
+				this.predictionSensorCells.values(),
+				this.actionSensorCells.values());
+		} else if(!compiled && this.compiled != null) {
+			this.materializeTopology();
+			this.compiled.writeBack();
+			this.checkpointSaved = false;
+			this.neuronsEvaluated +=
+				this.compiled.getNeuronsEvaluated();
+			this.neuronsSkipped +=
+				this.compiled.getNeuronsSkipped();
+			this.compiled = null;
+		}
+	}
+	
+	public boolean isCompiled() {
+		return this.compiled != null;
+	}
+	
+	// Starts a batch of structural edits. Until the matching
+	// commitEdits(), connections are only added to and removed from the
+	// object graph (the topological order is still repaired edge by
+	// edge, which is local). Everything else derived from the topology
+	// is brought up to date once, when the outermost batch commits.
+	private void beginEdits() {
+		if(this.editDepth++ == 0) {
+			this.compiledBeforeEdits = this.isCompiled();
+			this.setCompiled(false);
+		}
+	}
+	
+	private void commitEdits() {
+		if(--this.editDepth == 0) {
+			this.setCompiled(this.compiledBeforeEdits);
+		}
+	}
+	
+	// Finds the least Brain.connectionsToPrune important connections,
+	// removes them, and replaces them. think() does this once every
+	// Brain.connectionHistoryDepth ticks.
+	public void shuffleConnections() {
+		this.materializeTopology();
+		long start = BrainMetrics.begin(BrainMetrics.SHUFFLE);
+		ArrayList<Connection> candidates =
+			new ArrayList<Connection>(this.connections.size());
 		for(Connection conn : this.connections) {
 			// check that connection is eligible for removal
 			if(Math.abs(conn.getAverageWeight())
@@ -275,48 +969,48 @@ public class Brain {
 				// as unimportant
 				continue;
 			}
-			
-			// If connection is sufficiently unimportant, put it
-			// in the queue
-			if(connPQ.size() < Brain.connectionsToPrune
-			   || connComp.compare(conn, connPQ.peek()) > 0) {
-				connPQ.add(conn);
-				if(connPQ.size() > Brain.connectionsToPrune) {
-					connPQ.poll();
-				}
-			}
+			candidates.add(conn);
 		}
+		List<Connection> toPrune = Connection.selectLeastImportant(
+			candidates, Brain.connectionsToPrune);
+		BrainMetrics.countPruned(toPrune.size());
 		
-		// remove and replace the connections
-		for(Connection c : connPQ) {
-			Neuron src = c.getSrcNeuron();
+		this.beginEdits();
+		
+		// remove the connections, then replace them
+		for(Connection c : toPrune) {
 			this.removeConnection(c);
+		}
+		for(Connection c : toPrune) {
+			Neuron src = c.getSrcNeuron();
 			if(src.getNumOutputs() == 0) {
 				// This is a democracy damn it!
-				while(!this.tryAddConnection(src,
-					this.getRandomDestNeuron())) {
-					continue;
-				}
+				this.addConnectionFrom(src, 0.0);
 			} else {
-				while(!this.tryAddConnection(
-					this.getRandomSrcNeuron(),
-					this.getRandomDestNeuron())) {
-					continue;
-				}
+				this.addRandomConnection(0.0);
 			}
 		}
+		
+		this.commitEdits();
+		BrainMetrics.end(BrainMetrics.SHUFFLE, start);
 	}
 	
 	// Chooses current actions based on neural defaults, and uses these
 	// to predict sense and action values at all urrent and future timesteps
 	private double calcAllNeuralOutputs() {
+		long start = BrainMetrics.begin(BrainMetrics.CALC_ALL_OUTPUTS);
 		double value = 0.0;
 		for(this.predictionOffset = 0;
 		    this.predictionOffset <
 		    Brain.sensorCellDepth - Brain.memoryDepth;
 		    ++this.predictionOffset) {
 			value += this.calcNeuralOutputsAtPredictionOffset();
+			if(this.predictionOffset == 0) {
+				this.saveConeInputs();
+				this.saveCheckpointOutputs();
+			}
 		}
+		BrainMetrics.end(BrainMetrics.CALC_ALL_OUTPUTS, start);
 		return value;
 	}
 	
@@ -324,6 +1018,10 @@ public class Brain {
 	// specified by the current value of this.predictionOffset, and
 	// returns the resulting state value.
 	private double calcNeuralOutputsAtPredictionOffset() {
+		if(this.compiled != null) {
+			this.compiled.updateCalculatedOutputs(false);
+			return this.calcStateValue();
+		}
 		for(Neuron n : this.topoOrder.getForwardOrder()) {
 			n.updateCalculatedOutput();
 		}
@@ -346,23 +1044,46 @@ public class Brain {
 		this.predictionOffset = 0;
 		for(SensorCell actionCell : this.actionSensorCells.values()) {
 			actionCell.perturbSenseAtPredictionOffset(
-				GaussGetter.getGauss()
+				this.random.nextGaussian()
 				* this.perturbationRadius);
 		}
 	}
 	
-	// Rolls back each sensorCell's current  
-	private void undoCurrentActionPerturbations() {
+	// Updates neural outputs given current action perturbations. Does
+	// NOT update neural outputs of action neurons. Only the action cone
+	// can have changed since calcAllNeuralOutputs() saved its inputs, so
+	// only the cone is recalculated, from those inputs.
+	private double propagateCurrentActions() {
 		this.predictionOffset = 0;
-		for(SensorCell actionCell : this.actionSensorCells.values()) {
-			actionCell.revertSenseAtPredictionOffset();
+		if(this.compiled != null) {
+			if(this.compiled.hasConeInputs()) {
+				this.compiled.updateConeOutputs();
+			} else {
+				this.compiled.updateCalculatedOutputs(true);
+			}
+			return this.calcStateValue();
+		}
+		if(this.ensureActionCone() || !this.coneInputsSaved) {
+			return this.updateCurrentOutputs();
+		}
+		for(int i = 0; i < this.coneInputOutputs.length; ++i) {
+			this.coneInputs.get(i).lastCalculatedOutput =
+				this.coneInputOutputs[i];
+		}
+		for(Neuron n : this.actionCone) {
+			n.updateCalculatedOutput();
 		}
+		return this.calcStateValue();
 	}
 	
-	// Updates neural outputs given current action perturbations. Does
-	// NOT update neural outputs of action neurons
-	private double propagateCurrentActions() {
+	// Same as propagateCurrentActions(), but recalculates every neuron
+	// other than the action neurons
+	private double updateCurrentOutputs() {
 		this.predictionOffset = 0;
+		if(this.compiled != null) {
+			this.compiled.updateCalculatedOutputs(true);
+			return this.calcStateValue();
+		}
 		for(Neuron n : this.topoOrder.getForwardOrder()) {
 			// skip action neurons
 			if(n instanceof ActionNeuron) {
@@ -389,24 +1110,45 @@ public class Brain {
 	// Given last selected actions and actual inputs values, adjusts neural
 	// biases and weights in the direction of the actual values
 	public void learn() {
+		long start = BrainMetrics.begin(BrainMetrics.LEARN);
+		
+		// think() leaves the outputs for the actions it chose in
+		// place. Otherwise, eg, if the brain has changed since,
 		// re-calculate neural outputs one more time. Don't update the
 		// actions though.
-		// TODO: is this necessary? might be done at end of this.think()
-		this.propagateCurrentActions();
+		if(!this.checkpointRestored) {
+			this.updateCurrentOutputs();
+		}
+		this.checkpointRestored = false;
 		
-		// get inputs
+		// get inputs, all of them drained before any is sensed
+		for(SensorCell sc : this.predictionSensorCells.values()) {
+			sc.getFeeler().drain();
+		}
 		for(SensorCell sc : this.predictionSensorCells.values()) {
 			sc.updateSenseAtPredictionOffset();
 		}
 		
-		// calculate adjustment
-		for(Neuron n : this.topoOrder.getBackwardOrder()) {
-			n.updateErrorAndIdealOutput();
+		if(this.compiled != null) {
+			this.compiled.updateErrorsAndIdealOutputs();
+			this.compiled.updateBiasesAndWeights();
+		} else {
+			// calculate adjustment
+			for(Neuron n : this.topoOrder.getBackwardOrder()) {
+				n.updateErrorAndIdealOutput();
+			}
+			
+			// update weights and biases
+			for(Neuron n : this.topoOrder.getForwardOrder()) {
+				n.updateBiasAndWeights();
+			}
 		}
 		
-		// update weights and biases
-		for(Neuron n : this.topoOrder.getForwardOrder()) {
-			n.updateBiasAndWeights();
+		BrainMetrics.end(BrainMetrics.LEARN, start);
+		
+		// the tick is over, so the state is whole
+		if(this.monitor != null) {
+			this.monitor.tick(this);
 		}
 	}
 
@@ -414,6 +1156,336 @@ public class Brain {
 		return this.myCreature.getEnvironment();
 	}
 	
+	// The current value of the given action, as chosen by the last
+	// think()
+	public double getActionValue(String action) {
+		SensorCell sc = this.actionSensorCells.get(action);
+		if(sc == null) {
+			throw new IllegalArgumentException(
+				"No action called " + action + ".");
+		}
+		this.predictionOffset = 0;
+		return sc.getSenseAtPredictionOffset();
+	}
+	
+	// The current value of the given sense, as sensed by the last
+	// learn()
+	public double getSenseValue(String sense) {
+		SensorCell sc = this.predictionSensorCells.get(sense);
+		if(sc == null) {
+			throw new IllegalArgumentException(
+				"No sense called " + sense + ".");
+		}
+		this.predictionOffset = 0;
+		return sc.getSenseAtPredictionOffset();
+	}
+	
+	public BrainRandom getRandom() {
+		return this.random;
+	}
+	
+	public Set<Connection> getConnections() {
+		this.materializeTopology();
+		return Collections.unmodifiableSet(this.connections);
+	}
+	
+	// Bytes writeState() takes
+	public int getStateSize() throws IOException {
+		this.materializeTopology();
+		int size = 8 * 3 + 1;
+		size += 4;
+		for(String sense : this.predictionSensorCells.keySet()) {
+			size += BrainStore.getStringSize(sense);
+		}
+		size += 4;
+		for(String action : this.actionSensorCells.keySet()) {
+			size += BrainStore.getStringSize(action);
+		}
+		size += 4 + BrainRandom.stateBytes;
+		size += this.allNeurons.size() * (8 * 3 + 4);
+		size += (this.predictionSensorCells.size()
+			 + this.actionSensorCells.size())
+			* SensorCell.stateBytes;
+		size += 4 + this.connections.size()
+			* (4 * 2 + WeightHistory.slotBytes);
+		return size;
+	}
+	
+	// Writes everything the brain has learned and sensed: its settings,
+	// neurons and their order, SensorCell rings, connections with their
+	// weight histories, and the state of its BrainRandom. The creature
+	// and the Feelers are not written; readState() is handed them again.
+	public void writeState(ByteBuffer buf) throws IOException {
+		this.materializeTopology();
+		if(this.compiled != null) {
+			this.compiled.writeBack();
+		}
+		buf.putDouble(this.neuronAdjustment);
+		buf.putDouble(this.actionNeuronAdjustment);
+		buf.putDouble(this.perturbationRadius);
+		buf.put((byte) (this.compiled != null ? 1 : 0));
+		buf.putInt(this.predictionSensorCells.size());
+		for(String sense : this.predictionSensorCells.keySet()) {
+			BrainStore.putString(buf, sense);
+		}
+		buf.putInt(this.actionSensorCells.size());
+		for(String action : this.actionSensorCells.keySet()) {
+			BrainStore.putString(buf, action);
+		}
+		buf.putInt(this.interNeurons.size());
+		this.random.writeState(buf);
+		
+		// neurons, in the order a brain with the same senses and
+		// actions makes them in
+		HashMap<Neuron, Integer> index = new HashMap<Neuron, Integer>();
+		for(Neuron n : this.allNeurons) {
+			index.put(n, Integer.valueOf(index.size()));
+			buf.putDouble(n.bias);
+			buf.putDouble(n.lastCalculatedOutput);
+			buf.putDouble(n.lastIdealOutput);
+			buf.putInt(n.getTopoRank());
+		}
+		for(SensorCell sc : this.predictionSensorCells.values()) {
+			sc.writeState(buf);
+		}
+		for(SensorCell sc : this.actionSensorCells.values()) {
+			sc.writeState(buf);
+		}
+		buf.putInt(this.connections.size());
+		for(Connection c : this.connections) {
+			buf.putInt(index.get(c.getSrcNeuron()).intValue());
+			buf.putInt(index.get(c.getDestNeuron()).intValue());
+			this.weightHistory.writeSlot(c.getSlot(), buf);
+		}
+	}
+	
+	// Rebuilds a brain that writeState() wrote, for the given creature.
+	// The senses and actions must be the ones it was written with,
+	// though in any order.
+	public static Brain readState(ByteBuffer buf, Creature myCreature,
+				      Map<String, Feeler> senseList,
+				      List<String> actionList)
+		throws IOException {
+		double na = buf.getDouble();
+		double ana = buf.getDouble();
+		double perturbationRadius = buf.getDouble();
+		boolean compiled = buf.get() != 0;
+		ArrayList<String> senses = Brain.readNames(buf);
+		ArrayList<String> actions = Brain.readNames(buf);
+		if(!new HashSet<String>(senses).equals(senseList.keySet())
+		   || senses.size() != senseList.size()) {
+			throw new IllegalArgumentException(
+				"The senses given are not the ones the brain " +
+				"was written with.");
+		}
+		if(!new HashSet<String>(actions).equals(
+			   new HashSet<String>(actionList))
+		   || actions.size() != actionList.size()) {
+			throw new IllegalArgumentException(
+				"The actions given are not the ones the " +
+				"brain was written with.");
+		}
+		// make the neurons in the order they were written in
+		LinkedHashMap<String, Feeler> feelers =
+			new LinkedHashMap<String, Feeler>();
+		for(String sense : senses) {
+			feelers.put(sense, senseList.get(sense));
+		}
+		int numInterNeurons = buf.getInt();
+		BrainRandom random;
+		try {
+			random = BrainRandom.readState(buf);
+		} catch(IllegalArgumentException e) {
+			throw new IOException(
+				"Snapshot holds a bad random state.", e);
+		}
+		// the neurons' biases are read below, so they are drawn from a
+		// throwaway generator rather than the one restored
+		Brain b = new Brain(myCreature, feelers, actions, na, ana,
+				    perturbationRadius, numInterNeurons,
+				    new BrainRandom(0));
+		b.random = random;
+		
+		int numNeurons = b.allNeurons.size();
+		Neuron forward[] = new Neuron[numNeurons];
+		for(Neuron n : b.allNeurons) {
+			n.setState(buf.getDouble(), buf.getDouble(),
+				   buf.getDouble());
+			int rank = buf.getInt();
+			if(rank < 0 || rank >= numNeurons
+			   || forward[rank] != null) {
+				throw new IOException(
+					"Snapshot holds a bad neuron order.");
+			}
+			forward[rank] = n;
+		}
+		for(SensorCell sc : b.predictionSensorCells.values()) {
+			sc.readState(buf);
+		}
+		for(SensorCell sc : b.actionSensorCells.values()) {
+			sc.readState(buf);
+		}
+		int numConnections = buf.getInt();
+		b.weightHistory = new WeightHistory(numConnections);
+		for(int i = 0; i < numConnections; ++i) {
+			int src = buf.getInt();
+			int dest = buf.getInt();
+			if(src < 0 || src >= numNeurons
+			   || dest < 0 || dest >= numNeurons) {
+				throw new IOException(
+					"Snapshot holds a bad connection.");
+			}
+			b.attachConnection(new Connection(
+				b.allNeurons.get(src), b.allNeurons.get(dest),
+				b.weightHistory,
+				b.weightHistory.readSlot(buf)));
+		}
+		
+		b.setTopoOrder(Arrays.asList(forward));
+		for(Connection c : b.connections) {
+			Neuron src = c.getSrcNeuron();
+			Neuron dest = c.getDestNeuron();
+			if(!ConnectionSampler.canHaveOutputs(src)
+			   || !ConnectionSampler.canHaveInputs(dest)
+			   || src.getTopoRank() >= dest.getTopoRank()) {
+				throw new IOException(
+					"Snapshot holds a bad connection.");
+			}
+		}
+		b.sampler = new ConnectionSampler(b.topoOrder);
+		b.setCompiled(compiled);
+		return b;
+	}
+	
+	private static ArrayList<String> readNames(ByteBuffer buf) {
+		int n = buf.getInt();
+		ArrayList<String> names = new ArrayList<String>(n);
+		for(int i = 0; i < n; ++i) {
+			names.add(BrainStore.getString(buf));
+		}
+		return names;
+	}
+	
+	// A child of this brain for the given creature, sensing the given
+	// Feelers, which must have this brain's sense names, and drawing from
+	// random. The child starts out where this brain is: the same
+	// settings, weights, weight histories, biases, outputs and SensorCell
+	// rings, all copied. Its topology is not: the child runs compiled, on
+	// an image sharing the topology of this brain's, and only makes
+	// neurons and connections of its own once it needs an object graph,
+	// eg, to shuffle its connections. A fork therefore costs a few array
+	// copies, and forks that have not yet edited their topology take no
+	// memory for it. Forks of the same compiled brain, and their forks,
+	// all share one topology; each fork of a brain not compiled compiles
+	// a topology for itself. Fork between a learn() and the next think().
+	public Brain fork(Creature child, Map<String, Feeler> senseList,
+			  BrainRandom random) {
+		if(!senseList.keySet().equals(
+			   this.predictionSensorCells.keySet())) {
+			throw new IllegalArgumentException(
+				"The senses given are not the brain's.");
+		}
+		// make the SensorCells in this brain's order
+		LinkedHashMap<String, Feeler> feelers =
+			new LinkedHashMap<String, Feeler>();
+		for(String sense : this.predictionSensorCells.keySet()) {
+			feelers.put(sense, senseList.get(sense));
+		}
+		Brain b = new Brain(child, feelers,
+				    new ArrayList<String>(
+					    this.actionSensorCells.keySet()),
+				    this.neuronAdjustment,
+				    this.actionNeuronAdjustment,
+				    this.perturbationRadius, random);
+		b.kernels = this.kernels;
+		b.propagationEpsilon = this.propagationEpsilon;
+		b.explorationWidth = this.explorationWidth;
+		b.explorationBatch = this.explorationBatch;
+		
+		CompiledBrain parent = this.compiled;
+		if(parent == null) {
+			parent = new CompiledBrain(
+				this, this.topoOrder.getForwardOrder(),
+				this.weightHistory,
+				this.predictionSensorCells.values(),
+				this.actionSensorCells.values());
+		}
+		b.weightHistory = this.weightHistory.copy();
+		b.compiled = new CompiledBrain(b, parent, b.weightHistory,
+					       b.predictionSensorCells.values(),
+					       b.actionSensorCells.values());
+		b.sharedTopology = true;
+		return b;
+	}
+	
+	// Gives a fork neurons and connections of its own, as its compiled
+	// image lays them out, so its topology can be edited or walked. Does
+	// nothing for a brain that has them.
+	private void materializeTopology() {
+		if(!this.sharedTopology) {
+			return;
+		}
+		long start = BrainMetrics.begin(BrainMetrics.MATERIALIZE);
+		// the neurons' biases are the image's, so they are drawn from a
+		// throwaway generator rather than the brain's
+		BrainRandom random = this.random;
+		this.random = new BrainRandom(0);
+		Neuron forward[] = this.compiled.makeNeurons(
+			this.predictionSensorCells.values(),
+			this.actionSensorCells.values());
+		this.random = random;
+		this.compiled.writeBack();
+		
+		// list them in the order they would have been made in
+		HashMap<SensorCell, MemoryNeuron[]> memories =
+			new HashMap<SensorCell, MemoryNeuron[]>();
+		HashMap<SensorCell, PredictionNeuron> predictions =
+			new HashMap<SensorCell, PredictionNeuron>();
+		for(Neuron n : forward) {
+			if(n instanceof MemoryNeuron) {
+				MemoryNeuron m = (MemoryNeuron) n;
+				SensorCell sc = m.getSensorCell();
+				if(!memories.containsKey(sc)) {
+					memories.put(sc, new MemoryNeuron[
+						Brain.memoryDepth]);
+				}
+				memories.get(sc)[m.getTimePassed() - 1] = m;
+			} else if(n instanceof PredictionNeuron) {
+				predictions.put(((PredictionNeuron) n)
+						.getSensorCell(),
+						(PredictionNeuron) n);
+			} else {
+				this.interNeurons.add(n);
+			}
+		}
+		for(SensorCell sc : this.predictionSensorCells.values()) {
+			this.memoryNeurons.addAll(
+				Arrays.asList(memories.get(sc)));
+			this.predictionNeurons.add(predictions.get(sc));
+		}
+		for(SensorCell sc : this.actionSensorCells.values()) {
+			this.memoryNeurons.addAll(
+				Arrays.asList(memories.get(sc)));
+			this.actionNeurons.add(
+				(ActionNeuron) predictions.get(sc));
+		}
+		this.listNeurons();
+		
+		for(Connection c : this.compiled.makeConnections()) {
+			this.attachConnection(c);
+		}
+		this.setTopoOrder(Arrays.asList(forward));
+		this.sampler = new ConnectionSampler(this.topoOrder);
+		this.sharedTopology = false;
+		BrainMetrics.end(BrainMetrics.MATERIALIZE, start);
+	}
+	
+	// whether the brain is a fork that has no neurons or connections of
+	// its own yet
+	public boolean hasSharedTopology() {
+		return this.sharedTopology;
+	}
+	
 	// Amount by which ordinary neurons adjust in the direction of their
 	// ideal output.
 	public double getNeuronAdjustment() {
@@ -443,32 +1515,191 @@ public class Brain {
 	public static final double averageWeightImportanceThreshold = 0.05;
 	public static final double weightRangeImportanceThreshold = 0.1;
 	public static final double initialConnectionWeightVariance = 0.5;
+	// narrowest level of the compiled passes worth running in parallel
+	public static final int parallelLevelThreshold = 256;
 	
-	public static class DFSClock {
-		private int time;
-		private LinkedList<Neuron> forwardTopoOrder;
-		private LinkedList<Neuron> backwardTopoOrder;
-		public DFSClock() {
-			this.time = 0;
-			this.forwardTopoOrder = new LinkedList<Neuron>();
-			this.backwardTopoOrder = new LinkedList<Neuron>();
+	// A topological ordering of all neurons. It is laid out once, by
+	// initTopoOrder() before there are any connections, and from then on
+	// repaired locally whenever a connection is added against it,
+	// following Pearce and Kelly's dynamic topological sort: only
+	// neurons whose rank lies between the new dest and src are searched
+	// and reshuffled.
+	public static class TopoOrder {
+		// forward topological order. A neuron's rank is its index here.
+		private ArrayList<Neuron> order;
+		// bumped whenever ranks change
+		private long version;
+		
+		// The given neurons, in forward topological order, ranked by
+		// their place in it
+		public TopoOrder(List<Neuron> forward, long version) {
+			this.order = new ArrayList<Neuron>(forward);
+			this.version = version;
+			for(int i = 0; i < this.order.size(); ++i) {
+				Neuron n = this.order.get(i);
+				n.setTopoRank(i);
+				n.setTopoMark(false);
+			}
+		}
+		
+		public List<Neuron> getForwardOrder() {
+			return this.order;
+		}
+		
+		public long getVersion() {
+			return this.version;
+		}
+		
+		public Iterable<Neuron> getBackwardOrder() {
+			return new Iterable<Neuron>() {
+				public Iterator<Neuron> iterator() {
+					return new Brain.TopoOrder
+						.BackwardIterator(
+						TopoOrder.this.order);
+				}
+			};
+		}
+		
+		// Makes room for a connection from src to dest. Returns false,
+		// leaving the order untouched, if dest already reaches src,
+		// ie, the connection would close a cycle.
+		public boolean tryOrder(Neuron src, Neuron dest) {
+			int lb = dest.getTopoRank();
+			int ub = src.getTopoRank();
+			if(lb > ub) {
+				// already in order
+				return true;
+			}
+			if(lb == ub) {
+				// connection to itself
+				return false;
+			}
+			
+			// everything dest reaches that sits at or before src
+			ArrayList<Neuron> deltaF = new ArrayList<Neuron>();
+			if(!this.searchForward(dest, ub, deltaF)) {
+				for(Neuron n : deltaF) {
+					n.setTopoMark(false);
+				}
+				return false;
+			}
+			
+			// everything reaching src that sits at or after dest
+			ArrayList<Neuron> deltaB = new ArrayList<Neuron>();
+			this.searchBackward(src, lb, deltaB);
+			
+			this.reorder(deltaB, deltaF);
+			return true;
 		}
 		
-		public int getTime() {
-			return this.time++;
+		// Marks and collects the neurons reachable from start whose
+		// rank is below ub. Returns false if the neuron ranked ub is
+		// reached.
+		private boolean searchForward(Neuron start, int ub,
+					      ArrayList<Neuron> found) {
+			ArrayDeque<Neuron> stack = new ArrayDeque<Neuron>();
+			start.setTopoMark(true);
+			found.add(start);
+			stack.push(start);
+			while(!stack.isEmpty()) {
+				Neuron n = stack.pop();
+				for(Connection c : n.getOutputConnections()) {
+					Neuron w = c.getDestNeuron();
+					if(w.getTopoRank() == ub) {
+						return false;
+					}
+					if(!w.isTopoMarked()
+					   && w.getTopoRank() < ub) {
+						w.setTopoMark(true);
+						found.add(w);
+						stack.push(w);
+					}
+				}
+			}
+			return true;
 		}
 		
-		public void addToTopo(Neuron n) {
-			this.forwardTopoOrder.addFirst(n);
-			this.backwardTopoOrder.add(n);
+		// Marks and collects the neurons reaching start whose rank is
+		// above lb
+		private void searchBackward(Neuron start, int lb,
+					    ArrayList<Neuron> found) {
+			ArrayDeque<Neuron> stack = new ArrayDeque<Neuron>();
+			start.setTopoMark(true);
+			found.add(start);
+			stack.push(start);
+			while(!stack.isEmpty()) {
+				Neuron n = stack.pop();
+				for(Connection c : n.getInputConnections()) {
+					Neuron w = c.getSrcNeuron();
+					if(!w.isTopoMarked()
+					   && w.getTopoRank() > lb) {
+						w.setTopoMark(true);
+						found.add(w);
+						stack.push(w);
+					}
+				}
+			}
 		}
 		
-		public LinkedList<Neuron> getForwardOrder() {
-			return this.forwardTopoOrder;
+		// Hands the ranks held by both sets back out so that every
+		// neuron in deltaB comes before every neuron in deltaF, keeping
+		// the relative order within each set
+		private void reorder(ArrayList<Neuron> deltaB,
+				     ArrayList<Neuron> deltaF) {
+			Brain.TopoOrder.sortByRank(deltaB);
+			Brain.TopoOrder.sortByRank(deltaF);
+			int ranks[] = new int[deltaB.size() + deltaF.size()];
+			int i = 0;
+			for(Neuron n : deltaB) {
+				ranks[i++] = n.getTopoRank();
+			}
+			for(Neuron n : deltaF) {
+				ranks[i++] = n.getTopoRank();
+			}
+			Arrays.sort(ranks);
+			++this.version;
+			
+			i = 0;
+			for(Neuron n : deltaB) {
+				this.place(n, ranks[i++]);
+			}
+			for(Neuron n : deltaF) {
+				this.place(n, ranks[i++]);
+			}
 		}
 		
-		public LinkedList<Neuron> getBackwardOrder() {
-			return this.backwardTopoOrder;
+		private void place(Neuron n, int rank) {
+			n.setTopoRank(rank);
+			n.setTopoMark(false);
+			this.order.set(rank, n);
+		}
+		
+		private static void sortByRank(ArrayList<Neuron> neurons) {
+			Collections.sort(neurons, new Comparator<Neuron>() {
+				public int compare(Neuron n1, Neuron n2) {
+					return Integer.compare(
+						n1.getTopoRank(),
+						n2.getTopoRank());
+				}
+			});
+		}
+		
+		private static class BackwardIterator
+			implements Iterator<Neuron> {
+			
+			private ListIterator<Neuron> it;
+			
+			public BackwardIterator(List<Neuron> order) {
+				this.it = order.listIterator(order.size());
+			}
+			
+			public boolean hasNext() {
+				return this.it.hasPrevious();
+			}
+			
+			public Neuron next() {
+				return this.it.previous();
+			}
 		}
 	}
 }
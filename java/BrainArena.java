@@ -0,0 +1,239 @@
+package AstroAI.java;
+
+import java.util.Arrays;
+
+// Where a brain keeps its bulk primitive state: flat blocks of doubles and
+// ints, handed out by an arena the brain owns and freed together when the
+// brain is released. The heap arena, the default, keeps them in ordinary
+// arrays. The off-heap one keeps them in native memory, outside the
+// garbage collected heap, so that thousands of brains leave little for
+// the collector to trace or copy, and frees it the moment the brain is
+// released rather than when it is collected.
+//
+// A block is read and written an element at a time, through get() and
+// set(), and freed either on its own or with the rest of the arena. Once
+// freed, a block must not be used again; once the arena is closed, using
+// any of its blocks throws, ArenaClosedException on the heap.
+//
+// Only the weight histories live in an arena: at
+// Brain.connectionHistoryDepth samples a connection they outweigh the
+// rest of a brain's primitive state by orders of magnitude, and the
+// compiled brain's per-neuron arrays stay plain arrays for its kernels.
+// A process does best to keep to one kind of arena: once blocks of both
+// kinds have been through a history's record(), its get() and set() calls
+// are no longer inlined as one class's, and recording costs about twice
+// what it does in plain arrays rather than a fifth more.
+public abstract class BrainArena {
+
+	// A block of n doubles, all 0
+	public abstract BrainArena.Doubles newDoubles(int n);
+
+	// A block of n ints, all 0
+	public abstract BrainArena.Ints newInts(int n);
+
+	// Frees one block of this arena's before the rest
+	public abstract void free(BrainArena.Block block);
+
+	// Frees every block still in use. The arena must not be used
+	// afterwards.
+	public abstract void close();
+
+	public abstract boolean isClosed();
+
+	// An empty arena of the same kind, eg, for a forked brain's state
+	public abstract BrainArena newArena();
+
+	// Bytes held by the blocks in use
+	public abstract long getBytes();
+
+	// A block of n doubles of this arena's holding the first n of d's,
+	// which may be another arena's, followed by 0s
+	public BrainArena.Doubles copyOf(BrainArena.Doubles d, int n) {
+		BrainArena.Doubles c = this.newDoubles(n);
+		for(int i = 0; i < Math.min(n, d.length()); ++i) {
+			c.set(i, d.get(i));
+		}
+		return c;
+	}
+
+	public BrainArena.Ints copyOf(BrainArena.Ints d, int n) {
+		BrainArena.Ints c = this.newInts(n);
+		for(int i = 0; i < Math.min(n, d.length()); ++i) {
+			c.set(i, d.get(i));
+		}
+		return c;
+	}
+
+	public static BrainArena heap() {
+		return new BrainArena.Heap();
+	}
+
+	// A new off-heap arena if the jdk.incubator.foreign module has been
+	// added to the JVM (--add-modules jdk.incubator.foreign) and the
+	// arena was compiled in, otherwise a heap one
+	public static BrainArena offHeap() {
+		if(!ModuleLayer.boot().findModule("jdk.incubator.foreign")
+		   .isPresent()) {
+			return BrainArena.heap();
+		}
+		try {
+			return (BrainArena) Class.forName(
+				"AstroAI.java.foreign.ForeignBrainArena")
+				.getDeclaredConstructor().newInstance();
+		} catch(ReflectiveOperationException | LinkageError e) {
+			return BrainArena.heap();
+		}
+	}
+
+	public abstract static class Block {
+		public abstract int length();
+	}
+
+	public abstract static class Doubles extends BrainArena.Block {
+		public abstract double get(int i);
+		public abstract void set(int i, double value);
+	}
+
+	public abstract static class Ints extends BrainArena.Block {
+		public abstract int get(int i);
+		public abstract void set(int i, int value);
+	}
+
+	public static class ArenaClosedException extends RuntimeException {
+		public ArenaClosedException(String msg) {
+			super(msg);
+		}
+	}
+
+	// Blocks in arrays, left to the garbage collector once freed
+	private static class Heap extends BrainArena {
+		private long bytes;
+		private boolean closed;
+
+		@Override
+		public BrainArena.Doubles newDoubles(int n) {
+			this.checkOpen();
+			this.bytes += 8L * n;
+			return new BrainArena.HeapDoubles(this, new double[n]);
+		}
+
+		@Override
+		public BrainArena.Ints newInts(int n) {
+			this.checkOpen();
+			this.bytes += 4L * n;
+			return new BrainArena.HeapInts(this, new int[n]);
+		}
+
+		@Override
+		public void free(BrainArena.Block block) {
+			this.bytes -= (block instanceof BrainArena.Doubles
+				       ? 8L : 4L) * block.length();
+		}
+
+		@Override
+		public void close() {
+			this.closed = true;
+			this.bytes = 0;
+		}
+
+		@Override
+		public boolean isClosed() {
+			return this.closed;
+		}
+
+		@Override
+		public BrainArena newArena() {
+			return new BrainArena.Heap();
+		}
+
+		@Override
+		public long getBytes() {
+			return this.bytes;
+		}
+
+		@Override
+		public BrainArena.Doubles copyOf(BrainArena.Doubles d, int n) {
+			if(!(d instanceof BrainArena.HeapDoubles)) {
+				return super.copyOf(d, n);
+			}
+			this.checkOpen();
+			this.bytes += 8L * n;
+			return new BrainArena.HeapDoubles(this, Arrays.copyOf(
+				((BrainArena.HeapDoubles) d).values, n));
+		}
+
+		@Override
+		public BrainArena.Ints copyOf(BrainArena.Ints d, int n) {
+			if(!(d instanceof BrainArena.HeapInts)) {
+				return super.copyOf(d, n);
+			}
+			this.checkOpen();
+			this.bytes += 4L * n;
+			return new BrainArena.HeapInts(this, Arrays.copyOf(
+				((BrainArena.HeapInts) d).values, n));
+		}
+
+		private void checkOpen() {
+			if(this.closed) {
+				throw new BrainArena.ArenaClosedException(
+					"The arena has been closed.");
+			}
+		}
+	}
+
+	// Checks its arena is open on every access, as a native block
+	// would, rather than carrying on with an array no longer counted
+	private static class HeapDoubles extends BrainArena.Doubles {
+		private final BrainArena.Heap arena;
+		private final double values[];
+
+		public HeapDoubles(BrainArena.Heap arena, double values[]) {
+			this.arena = arena;
+			this.values = values;
+		}
+
+		@Override
+		public int length() {
+			return this.values.length;
+		}
+
+		@Override
+		public double get(int i) {
+			this.arena.checkOpen();
+			return this.values[i];
+		}
+
+		@Override
+		public void set(int i, double value) {
+			this.arena.checkOpen();
+			this.values[i] = value;
+		}
+	}
+
+	private static class HeapInts extends BrainArena.Ints {
+		private final BrainArena.Heap arena;
+		private final int values[];
+
+		public HeapInts(BrainArena.Heap arena, int values[]) {
+			this.arena = arena;
+			this.values = values;
+		}
+
+		@Override
+		public int length() {
+			return this.values.length;
+		}
+
+		@Override
+		public int get(int i) {
+			this.arena.checkOpen();
+			return this.values[i];
+		}
+
+		@Override
+		public void set(int i, int value) {
+			this.arena.checkOpen();
+			this.values[i] = value;
+		}
+	}
+}
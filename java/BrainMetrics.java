@@ -0,0 +1,448 @@
+package AstroAI.java;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+// Where the time of every brain in the process goes. Brains time their
+// phases (think, calcAllNeuralOutputs, each exploration round, learn,
+// shuffleConnections, and a fork making its own topology) and count
+// perturbations, rejected connections and pruned connections here. The
+// totals are kept in LongAdders, so brains on different threads do not
+// contend, and are exposed through JMX as AstroAI:type=BrainMetrics. Every
+// timed phase is also a PhaseEvent for JDK Flight Recorder, spanning the
+// phase, so recordings' thresholds apply to the phase's duration.
+//
+// Metrics are off unless -DAstroAI.metrics=true is given or they are
+// switched on, eg, over JMX. While they are off and nothing is recording,
+// begin() returns 0 without reading the clock and everything else returns
+// at once, so the calls can stay in place.
+public class BrainMetrics {
+
+	// Starts timing a phase: the time to hand to end(), or 0 if nobody is
+	// listening. While a flight recording is running, also begins the
+	// phase's PhaseEvent, which end() commits.
+	public static long begin(int phase) {
+		if(!BrainMetrics.enabled && !BrainMetrics.recording) {
+			return 0;
+		}
+		BrainMetrics.PhaseEvent event = null;
+		if(BrainMetrics.recording) {
+			event = new BrainMetrics.PhaseEvent();
+			if(event.isEnabled()) {
+				event.phase = BrainMetrics.phaseNames[phase];
+				event.begin();
+			} else {
+				event = null;
+			}
+		}
+		// pushed even if null, so that every end() pops what its own
+		// begin() pushed
+		BrainMetrics.openEvents.get().push(phase, event);
+		return System.nanoTime();
+	}
+
+	public static void end(int phase, long start) {
+		if(start == 0) {
+			return;
+		}
+		if(BrainMetrics.enabled) {
+			BrainMetrics.latencies[phase].record(
+				System.nanoTime() - start);
+		}
+		BrainMetrics.PhaseEvent event =
+			BrainMetrics.openEvents.get().pop(phase);
+		if(event != null) {
+			// ends the event and commits it if it is over the
+			// recording's threshold
+			event.commit();
+		}
+	}
+
+	public static void countPerturbation(boolean accepted) {
+		if(!BrainMetrics.enabled) {
+			return;
+		}
+		BrainMetrics.perturbationsTried.increment();
+		if(accepted) {
+			BrainMetrics.perturbationsAccepted.increment();
+		}
+	}
+
+	// a tryAddConnection() that found the pair could not be connected
+	public static void countConnectionRejection() {
+		if(BrainMetrics.enabled) {
+			BrainMetrics.connectionRejections.increment();
+		}
+	}
+
+	public static void countPruned(int n) {
+		if(BrainMetrics.enabled) {
+			BrainMetrics.connectionsPruned.add(n);
+		}
+	}
+
+	public static boolean isEnabled() {
+		return BrainMetrics.enabled;
+	}
+
+	public static void setEnabled(boolean enabled) {
+		BrainMetrics.enabled = enabled;
+	}
+
+	public static BrainMetrics.StatsMXBean getStats() {
+		return BrainMetrics.stats;
+	}
+
+	// the phases brains time
+	public static final int THINK = 0;
+	public static final int CALC_ALL_OUTPUTS = 1;
+	public static final int EXPLORATION_ROUND = 2;
+	public static final int LEARN = 3;
+	public static final int SHUFFLE = 4;
+	public static final int MATERIALIZE = 5;
+	private static final String phaseNames[] = {
+		"think", "calcAllNeuralOutputs", "explorationRound", "learn",
+		"shuffleConnections", "materializeTopology"
+	};
+
+	private static volatile boolean enabled =
+		Boolean.getBoolean("AstroAI.metrics");
+	// whether a flight recording is running
+	private static volatile boolean recording;
+
+	private static final LongAdder perturbationsTried = new LongAdder();
+	private static final LongAdder perturbationsAccepted = new LongAdder();
+	private static final LongAdder connectionRejections = new LongAdder();
+	private static final LongAdder connectionsPruned = new LongAdder();
+	private static final BrainMetrics.Histogram latencies[] =
+		new BrainMetrics.Histogram[BrainMetrics.phaseNames.length];
+	private static final BrainMetrics.Stats stats =
+		new BrainMetrics.Stats();
+	// each thread's PhaseEvents begun and not yet ended
+	private static final ThreadLocal<BrainMetrics.OpenEvents> openEvents =
+		new ThreadLocal<BrainMetrics.OpenEvents>() {
+			@Override
+			protected BrainMetrics.OpenEvents initialValue() {
+				return new BrainMetrics.OpenEvents();
+			}
+		};
+
+	static {
+		for(int i = 0; i < BrainMetrics.latencies.length; ++i) {
+			BrainMetrics.latencies[i] =
+				new BrainMetrics.Histogram();
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer()
+				.registerMBean(BrainMetrics.stats,
+				new ObjectName("AstroAI:type=BrainMetrics"));
+		} catch(JMException e) {
+			// eg, already registered by another copy of this class;
+			// the metrics still work, just not over JMX
+		}
+		if(FlightRecorder.isAvailable()) {
+			FlightRecorder.addListener(
+				new FlightRecorderListener() {
+					@Override
+					public void recordingStateChanged(
+						Recording r) {
+						BrainMetrics.recording =
+							BrainMetrics
+							.isRecording();
+					}
+				});
+			BrainMetrics.recording = BrainMetrics.isRecording();
+		}
+	}
+
+	private static boolean isRecording() {
+		for(Recording r : FlightRecorder.getFlightRecorder()
+			    .getRecordings()) {
+			if(r.getState() == RecordingState.RUNNING) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// A thread's PhaseEvents begun and not yet ended, a stack per phase. A
+	// phase can run inside itself on a thread, eg, when a pool worker
+	// waiting on its own brain's think() steals another brain's, and
+	// phases end in the reverse of the order they began in. Entries are
+	// null for phases begun while no PhaseEvent was enabled.
+	private static class OpenEvents {
+		private BrainMetrics.PhaseEvent events[][];
+		private int depth[];
+
+		public OpenEvents() {
+			int n = BrainMetrics.phaseNames.length;
+			this.events = new BrainMetrics.PhaseEvent[n][4];
+			this.depth = new int[n];
+		}
+
+		public void push(int phase, BrainMetrics.PhaseEvent event) {
+			int d = this.depth[phase];
+			if(d == this.events[phase].length) {
+				this.events[phase] = Arrays.copyOf(
+					this.events[phase], 2 * d);
+			}
+			this.events[phase][d] = event;
+			this.depth[phase] = d + 1;
+		}
+
+		public BrainMetrics.PhaseEvent pop(int phase) {
+			int d = this.depth[phase] - 1;
+			BrainMetrics.PhaseEvent event = this.events[phase][d];
+			this.events[phase][d] = null;
+			this.depth[phase] = d;
+			return event;
+		}
+	}
+
+	// Latencies in power of two buckets: bucket b holds those of at
+	// least 2^(b-1) and less than 2^b nanoseconds
+	public static class Histogram {
+		private LongAdder buckets[];
+		private LongAdder count;
+		private LongAdder totalNanos;
+		private LongAccumulator maxNanos;
+
+		public Histogram() {
+			this.buckets = new LongAdder[64];
+			for(int b = 0; b < this.buckets.length; ++b) {
+				this.buckets[b] = new LongAdder();
+			}
+			this.count = new LongAdder();
+			this.totalNanos = new LongAdder();
+			this.maxNanos = new LongAccumulator(Math::max, 0);
+		}
+
+		public void record(long nanos) {
+			nanos = Math.max(nanos, 0);
+			int b = 64 - Long.numberOfLeadingZeros(nanos);
+			this.buckets[Math.min(b, 63)].increment();
+			this.count.increment();
+			this.totalNanos.add(nanos);
+			this.maxNanos.accumulate(nanos);
+		}
+
+		public long getCount() {
+			return this.count.sum();
+		}
+
+		public double getMeanNanos() {
+			long n = this.count.sum();
+			return n == 0 ? 0.0
+				: this.totalNanos.sum() / (double) n;
+		}
+
+		public long getMaxNanos() {
+			return this.maxNanos.get();
+		}
+
+		// Upper bound of the bucket holding the given quantile; the
+		// last bucket has none, so Long.MAX_VALUE for it
+		public long getQuantileNanos(double q) {
+			long counts[] = this.getBuckets();
+			long total = 0;
+			for(long c : counts) {
+				total += c;
+			}
+			long seen = 0;
+			for(int b = 0; b < counts.length; ++b) {
+				seen += counts[b];
+				if(seen > 0 && seen >= q * total) {
+					if(b == 0) {
+						return 0;
+					}
+					return b < 63 ? 1L << b
+						: Long.MAX_VALUE;
+				}
+			}
+			return 0;
+		}
+
+		public long[] getBuckets() {
+			long counts[] = new long[this.buckets.length];
+			for(int b = 0; b < counts.length; ++b) {
+				counts[b] = this.buckets[b].sum();
+			}
+			return counts;
+		}
+
+		public void reset() {
+			for(LongAdder b : this.buckets) {
+				b.reset();
+			}
+			this.count.reset();
+			this.totalNanos.reset();
+			this.maxNanos.reset();
+		}
+	}
+
+	// What JMX sees. Per phase maps are keyed by phase name.
+	public interface StatsMXBean {
+		public boolean isEnabled();
+		public void setEnabled(boolean enabled);
+		public long getPerturbationsTried();
+		public long getPerturbationsAccepted();
+		public double getPerturbationAcceptanceRate();
+		public long getConnectionRejections();
+		public long getConnectionsPruned();
+		public Map<String, Long> getPhaseCounts();
+		public Map<String, Double> getPhaseMeanNanos();
+		public Map<String, Long> getPhaseMedianNanos();
+		public Map<String, Long> getPhaseP99Nanos();
+		public Map<String, Long> getPhaseMaxNanos();
+		public long[] getLatencyHistogram(String phase);
+		public void reset();
+	}
+
+	public static class Stats implements BrainMetrics.StatsMXBean {
+
+		@Override
+		public boolean isEnabled() {
+			return BrainMetrics.isEnabled();
+		}
+
+		@Override
+		public void setEnabled(boolean enabled) {
+			BrainMetrics.setEnabled(enabled);
+		}
+
+		@Override
+		public long getPerturbationsTried() {
+			return BrainMetrics.perturbationsTried.sum();
+		}
+
+		@Override
+		public long getPerturbationsAccepted() {
+			return BrainMetrics.perturbationsAccepted.sum();
+		}
+
+		@Override
+		public double getPerturbationAcceptanceRate() {
+			long tried = this.getPerturbationsTried();
+			return tried == 0 ? 0.0
+				: this.getPerturbationsAccepted()
+				/ (double) tried;
+		}
+
+		@Override
+		public long getConnectionRejections() {
+			return BrainMetrics.connectionRejections.sum();
+		}
+
+		@Override
+		public long getConnectionsPruned() {
+			return BrainMetrics.connectionsPruned.sum();
+		}
+
+		@Override
+		public Map<String, Long> getPhaseCounts() {
+			Map<String, Long> m = new LinkedHashMap<String, Long>();
+			for(int p = 0; p < BrainMetrics.phaseNames.length;
+			    ++p) {
+				m.put(BrainMetrics.phaseNames[p], Long.valueOf(
+					BrainMetrics.latencies[p].getCount()));
+			}
+			return m;
+		}
+
+		@Override
+		public Map<String, Double> getPhaseMeanNanos() {
+			Map<String, Double> m =
+				new LinkedHashMap<String, Double>();
+			for(int p = 0; p < BrainMetrics.phaseNames.length;
+			    ++p) {
+				m.put(BrainMetrics.phaseNames[p],
+				      Double.valueOf(BrainMetrics.latencies[p]
+						     .getMeanNanos()));
+			}
+			return m;
+		}
+
+		@Override
+		public Map<String, Long> getPhaseMedianNanos() {
+			return this.getQuantiles(0.5);
+		}
+
+		@Override
+		public Map<String, Long> getPhaseP99Nanos() {
+			return this.getQuantiles(0.99);
+		}
+
+		@Override
+		public Map<String, Long> getPhaseMaxNanos() {
+			Map<String, Long> m = new LinkedHashMap<String, Long>();
+			for(int p = 0; p < BrainMetrics.phaseNames.length;
+			    ++p) {
+				m.put(BrainMetrics.phaseNames[p],
+				      Long.valueOf(BrainMetrics.latencies[p]
+						   .getMaxNanos()));
+			}
+			return m;
+		}
+
+		@Override
+		public long[] getLatencyHistogram(String phase) {
+			for(int p = 0; p < BrainMetrics.phaseNames.length;
+			    ++p) {
+				if(BrainMetrics.phaseNames[p].equals(phase)) {
+					return BrainMetrics.latencies[p]
+						.getBuckets();
+				}
+			}
+			throw new IllegalArgumentException(
+				"No phase called " + phase + ".");
+		}
+
+		@Override
+		public void reset() {
+			BrainMetrics.perturbationsTried.reset();
+			BrainMetrics.perturbationsAccepted.reset();
+			BrainMetrics.connectionRejections.reset();
+			BrainMetrics.connectionsPruned.reset();
+			for(BrainMetrics.Histogram h : BrainMetrics.latencies) {
+				h.reset();
+			}
+		}
+
+		private Map<String, Long> getQuantiles(double q) {
+			Map<String, Long> m = new LinkedHashMap<String, Long>();
+			for(int p = 0; p < BrainMetrics.phaseNames.length;
+			    ++p) {
+				m.put(BrainMetrics.phaseNames[p], Long.valueOf(
+					BrainMetrics.latencies[p]
+					.getQuantileNanos(q)));
+			}
+			return m;
+		}
+	}
+
+	@Name("AstroAI.BrainPhase")
+	@Label("Brain Phase")
+	@Category("AstroAI")
+	@Description("One timed phase of a brain's tick")
+	public static class PhaseEvent extends Event {
+		@Label("Phase")
+		public String phase;
+	}
+}
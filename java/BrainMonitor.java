@@ -0,0 +1,346 @@
+package AstroAI.java;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import AstroAI.java.Brain;
+
+// Publishes a running brain's state for other threads to look at, eg,
+// dashboards: every neuron's output and bias, every SensorCell's ring of
+// senses and predictions, and every connection's weight. Reading those off
+// the brain itself from another thread would race with think() and
+// learn(), and locking the brain would hold its ticks up.
+//
+// Instead, once every interval ticks, at the end of learn(), the brain
+// copies its state into the monitor's frame, under a sequence lock: the
+// sequence is odd while the frame is being written and moves on to the
+// next even number once it is written. A reader copies the frame into a
+// Snapshot of its own and keeps the copy only if the sequence was even
+// and still the same afterwards; otherwise it tries again. The brain never
+// waits for readers and readers never wait on each other, and each
+// snapshot is of a single tick. A reader only waits when it meets the
+// brain mid-copy, which takes microseconds.
+//
+//     BrainMonitor monitor = new BrainMonitor(10);
+//     brain.setMonitor(monitor);
+//     ...
+//     // on the dashboard's thread
+//     BrainMonitor.Snapshot s = new BrainMonitor.Snapshot();
+//     if(monitor.read(s)) { ... s.getOutput(i) ... }
+public class BrainMonitor {
+
+	private final int interval;
+	// even when the frame holds a whole tick's state; publications so
+	// far is half of it
+	private final AtomicLong sequence;
+	// written by the brain only, read by anyone
+	private final BrainMonitor.Snapshot frame;
+	private final LongAdder retries;
+
+	// A monitor the brain publishes to at every interval-th tick
+	public BrainMonitor(int interval) {
+		if(interval < 1) {
+			throw new BrainMonitor.MonitorException(
+				"Monitor interval must be at least 1.");
+		}
+		this.interval = interval;
+		this.sequence = new AtomicLong(0);
+		this.frame = new BrainMonitor.Snapshot();
+		this.retries = new LongAdder();
+	}
+
+	public int getInterval() {
+		return this.interval;
+	}
+
+	// Publishes b's state if this is a tick to publish on. Called by the
+	// brain at the end of learn(), on its thread: a monitor must only be
+	// published to by one brain.
+	public void tick(Brain b) {
+		if(b.getEnvironment().getTime() % this.interval == 0) {
+			this.publish(b);
+		}
+	}
+
+	// Publishes b's state now. Must be called between ticks, on the
+	// brain's thread.
+	public void publish(Brain b) {
+		long s = this.sequence.getPlain();
+		this.sequence.setOpaque(s + 1);
+		// readers must see the odd sequence before any of the frame
+		// changes
+		VarHandle.storeStoreFence();
+		try {
+			b.copyState(this.frame);
+		} finally {
+			this.sequence.setRelease(s + 2);
+		}
+	}
+
+	// Copies the last state published into out. Returns false, leaving
+	// out alone, if nothing has been published yet. May be called from
+	// any thread, any number at a time, and never holds the brain up.
+	public boolean read(BrainMonitor.Snapshot out) {
+		int spins = 0;
+		while(true) {
+			long s = this.sequence.getAcquire();
+			if(s == 0) {
+				return false;
+			}
+			if((s & 1) == 0) {
+				out.copyFrom(this.frame);
+				// the copy must be done reading the frame
+				// before the sequence is checked again
+				VarHandle.loadLoadFence();
+				if(this.sequence.getOpaque() == s) {
+					out.sequence = s;
+					return true;
+				}
+			}
+			this.retries.increment();
+			if(++spins < BrainMonitor.spinLimit) {
+				Thread.onSpinWait();
+			} else {
+				LockSupport.parkNanos(BrainMonitor.parkNanos);
+			}
+		}
+	}
+
+	// A new snapshot of the last state published, or null if nothing has
+	// been published yet
+	public BrainMonitor.Snapshot read() {
+		BrainMonitor.Snapshot s = new BrainMonitor.Snapshot();
+		return this.read(s) ? s : null;
+	}
+
+	public long getPublished() {
+		return this.sequence.getAcquire() >>> 1;
+	}
+
+	// Times readers found the brain mid-copy, or lost the race with it,
+	// and had to read again
+	public long getRetries() {
+		return this.retries.sum();
+	}
+
+	// A brain's state at the end of one tick. Neurons are numbered in the
+	// forward order the brain last ran its passes in, which may change
+	// when the connections are shuffled; the connections' src and dest
+	// are given by those numbers, so each snapshot stands on its own.
+	// SensorCells are numbered in the brain's order, senses before
+	// actions.
+	//
+	// The getters returning arrays return the snapshot's own, which the
+	// next read() into it overwrites.
+	public static class Snapshot {
+		// BrainMonitor.publish()'s sequence number, which grows with
+		// every publication
+		private long sequence;
+		private int time;
+		private double outputs[];
+		private double biases[];
+		private String cellNames[];
+		private int numSenses;
+		private double rings[][];
+		private int src[];
+		private int dest[];
+		private double weights[];
+
+		public Snapshot() {
+			this.sequence = 0;
+			this.time = 0;
+			this.outputs = new double[0];
+			this.biases = new double[0];
+			this.cellNames = new String[0];
+			this.numSenses = 0;
+			this.rings = new double[0][];
+			this.src = new int[0];
+			this.dest = new int[0];
+			this.weights = new double[0];
+		}
+
+		// Makes room for the given numbers of neurons, connections,
+		// senses and actions, keeping the arrays already the right
+		// size. For Brain.copyState().
+		public void resize(int numNeurons, int numConnections,
+				   int numSenses, int numActions) {
+			if(this.outputs.length != numNeurons) {
+				this.outputs = new double[numNeurons];
+				this.biases = new double[numNeurons];
+			}
+			if(this.weights.length != numConnections) {
+				this.src = new int[numConnections];
+				this.dest = new int[numConnections];
+				this.weights = new double[numConnections];
+			}
+			int numCells = numSenses + numActions;
+			if(this.rings.length != numCells) {
+				// filled in before readers can see it
+				double rings[][] = new double[numCells][];
+				for(int c = 0; c < numCells; ++c) {
+					rings[c] = new double[
+						Brain.sensorCellDepth];
+				}
+				this.cellNames = new String[numCells];
+				this.rings = rings;
+			}
+			this.numSenses = numSenses;
+		}
+
+		// Copies other, which the brain may be writing at the same
+		// time: each array is read once, and copied at the length it
+		// has, so a torn copy is only wrong, never out of bounds.
+		// BrainMonitor.read() throws wrong copies away.
+		private void copyFrom(BrainMonitor.Snapshot other) {
+			this.time = other.time;
+			this.numSenses = other.numSenses;
+			this.outputs = BrainMonitor.Snapshot.copy(other.outputs,
+								  this.outputs);
+			this.biases = BrainMonitor.Snapshot.copy(other.biases,
+								 this.biases);
+			this.src = BrainMonitor.Snapshot.copy(other.src,
+							      this.src);
+			this.dest = BrainMonitor.Snapshot.copy(other.dest,
+							       this.dest);
+			this.weights = BrainMonitor.Snapshot.copy(other.weights,
+								  this.weights);
+			String names[] = other.cellNames;
+			double rings[][] = other.rings;
+			if(this.rings.length != rings.length) {
+				this.rings = new double[rings.length][0];
+			}
+			if(this.cellNames.length != names.length) {
+				this.cellNames = new String[names.length];
+			}
+			System.arraycopy(names, 0, this.cellNames, 0,
+					 Math.min(names.length,
+						  this.cellNames.length));
+			for(int c = 0; c < this.rings.length; ++c) {
+				this.rings[c] = BrainMonitor.Snapshot.copy(
+					rings[c], this.rings[c]);
+			}
+		}
+
+		private static double[] copy(double from[], double to[]) {
+			if(to.length != from.length) {
+				to = new double[from.length];
+			}
+			System.arraycopy(from, 0, to, 0, from.length);
+			return to;
+		}
+
+		private static int[] copy(int from[], int to[]) {
+			if(to.length != from.length) {
+				to = new int[from.length];
+			}
+			System.arraycopy(from, 0, to, 0, from.length);
+			return to;
+		}
+
+		public long getSequence() {
+			return this.sequence;
+		}
+
+		// the environment's time at the tick the snapshot is of
+		public int getTime() {
+			return this.time;
+		}
+
+		public void setTime(int time) {
+			this.time = time;
+		}
+
+		public int getNumNeurons() {
+			return this.outputs.length;
+		}
+
+		public double getOutput(int neuron) {
+			return this.outputs[neuron];
+		}
+
+		public double getBias(int neuron) {
+			return this.biases[neuron];
+		}
+
+		public double[] getOutputs() {
+			return this.outputs;
+		}
+
+		public double[] getBiases() {
+			return this.biases;
+		}
+
+		public int getNumConnections() {
+			return this.weights.length;
+		}
+
+		public int getSrc(int connection) {
+			return this.src[connection];
+		}
+
+		public int getDest(int connection) {
+			return this.dest[connection];
+		}
+
+		public double getWeight(int connection) {
+			return this.weights[connection];
+		}
+
+		public int[] getSrcs() {
+			return this.src;
+		}
+
+		public int[] getDests() {
+			return this.dest;
+		}
+
+		public double[] getWeights() {
+			return this.weights;
+		}
+
+		// cells 0 up to getNumSenses() are senses, the rest actions
+		public int getNumCells() {
+			return this.rings.length;
+		}
+
+		public int getNumSenses() {
+			return this.numSenses;
+		}
+
+		public String getCellName(int cell) {
+			return this.cellNames[cell];
+		}
+
+		public String[] getCellNames() {
+			return this.cellNames;
+		}
+
+		// The cell's value offset ticks from the snapshot's: 0 for
+		// what was sensed or done then, positive for what the brain
+		// predicted, negative for what it remembers. The ring only
+		// holds Brain.sensorCellDepth ticks, so past and future share
+		// it.
+		public double getValue(int cell, int offset) {
+			int idx = Math.floorMod(this.time + offset,
+						Brain.sensorCellDepth);
+			return this.rings[cell][idx];
+		}
+
+		// the cell's raw ring, indexed like
+		// Brain.getCurrentPredictionIndex()
+		public double[] getRing(int cell) {
+			return this.rings[cell];
+		}
+	}
+
+	public static class MonitorException extends RuntimeException {
+		public MonitorException(String msg) {
+			super(msg);
+		}
+	}
+
+	private static final int spinLimit = 100;
+	private static final long parkNanos = 50000;
+}
@@ -0,0 +1,221 @@
+package AstroAI.java;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+// The random numbers of one brain. The generator is SplitMix64, the
+// algorithm of java.util.SplittableRandom: a 64 bit seed that advances by
+// an odd gamma each draw, and a mixing function of the seed. split()
+// hands out a generator with its own seed and gamma, so brains drawing
+// from generators split off one root never share state, need no locking,
+// and given the root's seed draw the same numbers on every run.
+//
+// Gaussians come from Marsaglia and Tsang's ziggurat rather than the
+// polar method of java.util.Random: one 64 bit draw and a table lookup
+// for all but about one in a hundred, no logarithms or square roots, and
+// nothing boxed or cached between calls.
+//
+// It is a java.util.Random, so that it can be handed to anything that
+// takes one, but none of Random's own state is used.
+public class BrainRandom extends Random {
+
+	private long seed;
+	// odd
+	private long gamma;
+
+	public BrainRandom(long seed) {
+		this(BrainRandom.mix64(seed),
+		     BrainRandom.mixGamma(seed + BrainRandom.goldenGamma));
+	}
+
+	private BrainRandom(long seed, long gamma) {
+		this.seed = seed;
+		this.gamma = gamma;
+	}
+
+	// A generator drawing numbers independent of this one's; this one
+	// moves on by two draws
+	public BrainRandom split() {
+		return new BrainRandom(this.nextLong(),
+				       BrainRandom.mixGamma(this.nextSeed()));
+	}
+
+	// Splits a generator off the root every brain is seeded from unless
+	// it is given a generator. The root is seeded by -DAstroAI.seed, or
+	// by setRootSeed().
+	public static BrainRandom splitRoot() {
+		synchronized(BrainRandom.class) {
+			return BrainRandom.root.split();
+		}
+	}
+
+	public static void setRootSeed(long seed) {
+		synchronized(BrainRandom.class) {
+			BrainRandom.root = new BrainRandom(seed);
+		}
+	}
+
+	@Override
+	public void setSeed(long seed) {
+		// Random's constructor calls this before this.seed is set; the
+		// seed it hands over is ignored
+		this.seed = BrainRandom.mix64(seed);
+		this.gamma = BrainRandom.mixGamma(
+			seed + BrainRandom.goldenGamma);
+	}
+
+	@Override
+	protected int next(int bits) {
+		return (int) (this.nextLong() >>> (64 - bits));
+	}
+
+	@Override
+	public long nextLong() {
+		return BrainRandom.mix64(this.nextSeed());
+	}
+
+	@Override
+	public int nextInt() {
+		return (int) (this.nextLong() >>> 32);
+	}
+
+	@Override
+	public int nextInt(int bound) {
+		if(bound <= 0) {
+			throw new IllegalArgumentException(
+				"Bound must be positive.");
+		}
+		// Lemire's multiply and reject: the high 32 bits of a 32 by 32
+		// bit product are even, but for a sliver of low bits
+		long m = (this.nextLong() >>> 32) * bound;
+		if((m & 0xffffffffL) < bound) {
+			long threshold = (0x100000000L - bound) % bound;
+			while((m & 0xffffffffL) < threshold) {
+				m = (this.nextLong() >>> 32) * bound;
+			}
+		}
+		return (int) (m >>> 32);
+	}
+
+	@Override
+	public double nextDouble() {
+		return (this.nextLong() >>> 11) * BrainRandom.doubleUnit;
+	}
+
+	@Override
+	public boolean nextBoolean() {
+		return this.nextLong() < 0;
+	}
+
+	// A standard normal draw, by the ziggurat. The low 8 bits of a draw
+	// choose a layer and the high 53 a signed point across it; points
+	// inside the layer's rectangle under the curve, which is nearly all
+	// of them, are returned as they are.
+	@Override
+	public double nextGaussian() {
+		while(true) {
+			long bits = this.nextLong();
+			int i = (int) bits & (BrainRandom.layers - 1);
+			double u = 2.0 * ((bits >>> 11)
+					  * BrainRandom.doubleUnit) - 1.0;
+			double x = u * BrainRandom.layerX[i];
+			if(Math.abs(x) < BrainRandom.layerX[i + 1]) {
+				return x;
+			}
+			if(i == 0) {
+				return BrainRandom.nextTail(this, u < 0.0);
+			}
+			// between the rectangle and the curve: accept by height
+			double y = BrainRandom.layerY[i] + this.nextDouble()
+				* (BrainRandom.layerY[i + 1]
+				   - BrainRandom.layerY[i]);
+			if(y < Math.exp(-0.5 * x * x)) {
+				return x;
+			}
+		}
+	}
+
+	public void writeState(ByteBuffer buf) {
+		buf.putLong(this.seed);
+		buf.putLong(this.gamma);
+	}
+
+	public static BrainRandom readState(ByteBuffer buf) {
+		long seed = buf.getLong();
+		long gamma = buf.getLong();
+		if((gamma & 1) == 0) {
+			throw new IllegalArgumentException(
+				"Generator state has an even gamma.");
+		}
+		return new BrainRandom(seed, gamma);
+	}
+
+	private long nextSeed() {
+		return this.seed += this.gamma;
+	}
+
+	// Marsaglia's tail beyond tailStart, by exponential rejection
+	private static double nextTail(BrainRandom r, boolean negative) {
+		double x;
+		double y;
+		do {
+			x = -Math.log(1.0 - r.nextDouble())
+				/ BrainRandom.tailStart;
+			y = -Math.log(1.0 - r.nextDouble());
+		} while(2.0 * y < x * x);
+		return negative ? -(BrainRandom.tailStart + x)
+			: BrainRandom.tailStart + x;
+	}
+
+	// Stafford's variant 13 of the MurmurHash3 finalizer
+	private static long mix64(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	// An odd gamma with enough bit transitions to mix well
+	private static long mixGamma(long z) {
+		z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+		z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		z = (z ^ (z >>> 33)) | 1L;
+		int n = Long.bitCount(z ^ (z >>> 1));
+		return n < 24 ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+	}
+
+	public static final int stateBytes = 8 * 2;
+
+	private static final long goldenGamma = 0x9e3779b97f4a7c15L;
+	private static final double doubleUnit = 0x1.0p-53;
+	private static BrainRandom root = new BrainRandom(Long.getLong(
+		"AstroAI.seed", System.nanoTime()).longValue());
+
+	// The ziggurat of 256 layers of equal area v under
+	// exp(-x * x / 2). Layer i spans heights layerY[i] to layerY[i + 1]
+	// and, where it is a whole rectangle under the curve, x up to
+	// layerX[i + 1]. Layer 0 is the base strip and the tail past
+	// tailStart, given the width layerX[0] that a rectangle of area v
+	// would have.
+	private static final int layers = 256;
+	private static final double tailStart = 3.6541528853610088;
+	private static final double layerArea = 4.92867323399e-3;
+	private static final double layerX[] = new double[layers + 1];
+	private static final double layerY[] = new double[layers + 1];
+
+	static {
+		double f = Math.exp(-0.5 * tailStart * tailStart);
+		BrainRandom.layerX[0] = BrainRandom.layerArea / f;
+		BrainRandom.layerX[1] = BrainRandom.tailStart;
+		BrainRandom.layerY[0] = 0.0;
+		BrainRandom.layerY[1] = f;
+		for(int i = 2; i < BrainRandom.layers; ++i) {
+			double y = BrainRandom.layerY[i - 1]
+				+ BrainRandom.layerArea
+				/ BrainRandom.layerX[i - 1];
+			BrainRandom.layerX[i] = Math.sqrt(-2.0 * Math.log(y));
+			BrainRandom.layerY[i] = y;
+		}
+		BrainRandom.layerX[BrainRandom.layers] = 0.0;
+		BrainRandom.layerY[BrainRandom.layers] = 1.0;
+	}
+}
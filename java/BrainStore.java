@@ -0,0 +1,104 @@
+package AstroAI.java;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+import AstroAI.java.Brain;
+import AstroAI.java.Creature;
+import AstroAI.java.Feeler;
+
+// Snapshots of brains on disk. A snapshot is a header (magic number,
+// format version, the Brain constants its layout depends on, and the
+// length of what follows) and then Brain.writeState(). Both ways go
+// through a mapped file, so restoring a brain is paging its snapshot in
+// and reading it front to back: no connections are drawn and no order is
+// searched for.
+public class BrainStore {
+
+	public static void write(Brain b, Path path) throws IOException {
+		int stateSize = b.getStateSize();
+		try(FileChannel channel = FileChannel.open(path,
+				StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			MappedByteBuffer buf = channel.map(
+				FileChannel.MapMode.READ_WRITE, 0,
+				BrainStore.headerBytes + stateSize);
+			buf.putInt(BrainStore.magic);
+			buf.putInt(BrainStore.version);
+			buf.putInt(Brain.sensorCellDepth);
+			buf.putInt(Brain.memoryDepth);
+			buf.putInt(Brain.connectionHistoryDepth);
+			buf.putInt(stateSize);
+			b.writeState(buf);
+			buf.force();
+		}
+	}
+
+	// Restores the brain in the snapshot at path for the given creature,
+	// which must have the senses and actions the brain was written with
+	public static Brain read(Path path, Creature c,
+				 Map<String, Feeler> senseList,
+				 List<String> actionList) throws IOException {
+		try(FileChannel channel = FileChannel.open(path,
+				StandardOpenOption.READ)) {
+			MappedByteBuffer buf = channel.map(
+				FileChannel.MapMode.READ_ONLY, 0,
+				channel.size());
+			if(buf.remaining() < BrainStore.headerBytes
+			   || buf.getInt() != BrainStore.magic) {
+				throw new IOException(path + " is not a " +
+					"brain snapshot.");
+			}
+			int version = buf.getInt();
+			if(version != BrainStore.version) {
+				throw new IOException(path + " is a version " +
+					version + " snapshot, not version " +
+					BrainStore.version + ".");
+			}
+			if(buf.getInt() != Brain.sensorCellDepth
+			   || buf.getInt() != Brain.memoryDepth
+			   || buf.getInt() != Brain.connectionHistoryDepth) {
+				throw new IOException(path + " was written " +
+					"by brains of a different geometry.");
+			}
+			int stateSize = buf.getInt();
+			if(stateSize != buf.remaining()) {
+				throw new IOException(path + " is truncated.");
+			}
+			return Brain.readState(buf, c, senseList, actionList);
+		} catch(BufferUnderflowException e) {
+			throw new IOException(path + " is truncated.", e);
+		}
+	}
+
+	public static int getStringSize(String s) {
+		return 4 + s.getBytes(StandardCharsets.UTF_8).length;
+	}
+
+	public static void putString(ByteBuffer buf, String s) {
+		byte bytes[] = s.getBytes(StandardCharsets.UTF_8);
+		buf.putInt(bytes.length);
+		buf.put(bytes);
+	}
+
+	public static String getString(ByteBuffer buf) {
+		byte bytes[] = new byte[buf.getInt()];
+		buf.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	// "AIBr"
+	public static final int magic = 0x41494272;
+	public static final int version = 4;
+	public static final int headerBytes = 4 * 6;
+}
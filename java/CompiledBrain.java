@@ -0,0 +1,1482 @@
+package AstroAI.java;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import AstroAI.java.ActionNeuron;
+import AstroAI.java.Brain;
+import AstroAI.java.Connection;
+import AstroAI.java.MemoryNeuron;
+import AstroAI.java.Neuron;
+import AstroAI.java.PredictionNeuron;
+import AstroAI.java.SensorCell;
+import AstroAI.java.WeightHistory;
+
+// A flat image of a Brain's neurons and connections. Neurons are numbered
+// in forward topological order and their input connections are laid out
+// in CSR form: the inputs of neuron i are entries rowStart[i] up to
+// rowStart[i+1]. The order groups the neurons into levels, a neuron's
+// level being one more than the highest level among its src neurons. No
+// neuron depends on another in its own level, so a level wide enough to
+// be worth it is spread over the brain's level pool; since each neuron
+// only writes its own values, the results are the same however the work
+// is split. The forward and learning passes then run as loops over
+// primitive arrays instead of walking Neuron and Connection objects, and
+// with the scalar NeuronKernels produce exactly the same values, since
+// every sum is taken in the same order as the object graph takes it.
+//
+// The values a pass produces live in an Activations object. The brain's
+// own share their rings with its SensorCells; scratch copies let several
+// exploration candidates be evaluated side by side, on different threads.
+//
+// Everything but the weights, biases and activations is fixed once the
+// image is built, so the images of a brain's forks share those arrays
+// with it; see Brain.fork().
+public class CompiledBrain {
+
+	private Brain myBrain;
+	// null in a fork's image until makeNeurons()
+	private Neuron neurons[];
+	private int kind[];
+
+	// index into cellBuf of the neuron's SensorCell, or -1
+	private int cell[];
+	// how far back memory neurons look into their SensorCell
+	private int timePassed[];
+	private int numCells;
+	// cells whose senses make up the state value, in the brain's order,
+	// and their importance
+	private int valueCell[];
+	private double valueImportance[];
+	// cells of the actions, in the brain's order
+	private int actionCell[];
+
+	// input connections, CSR
+	private int rowStart[];
+	private int srcIndex[];
+	private double weight[];
+	// the entries' slots in weightHist
+	private int slot[];
+	private WeightHistory weightHist;
+
+	// output connections, given as indices of the matching input entry.
+	// Kept in the order each neuron iterates its outputs.
+	private int outStart[];
+	private int outEntry[];
+	private int destIndex[];
+
+	// neurons levelStart[l] up to levelStart[l+1] make up level l
+	private int levelStart[];
+	// the brain's action cone, and the action neurons, in order
+	private int cone[];
+	private int actionNeuron[];
+	// neurons outside the cone with outputs into it, and their
+	// activations once saveConeInputs() has saved them
+	private int coneInput[];
+	private double coneInputActivation[];
+	private boolean coneInputsSaved;
+	// the accepted actions' activations and calculated outputs at the
+	// brain's current prediction offset, as Brain keeps them: every
+	// neuron's as saveCheckpointOutputs() saved them, and the cone's,
+	// in cone order, as the last candidate accepted left them
+	private double bestActivation[];
+	private double bestCalculated[];
+	private double bestConeActivation[];
+	private double bestConeCalculated[];
+	private boolean checkpointSaved;
+	// the inner loops over a neuron's inputs
+	private NeuronKernels kernels;
+	// how far a neuron's output must move before its dests see it, or
+	// negative to run every forward pass densely
+	private double epsilon;
+
+	private double bias[];
+	// lastIdealOutput
+	private double ideal[];
+	// the brain's own activations, and scratch ones for exploration
+	private CompiledBrain.Activations live;
+	private ArrayList<CompiledBrain.Activations> scratch;
+	// batches exploration candidates are evaluated in, and how many
+	// lanes wide they were last time, or 0 if the candidates were
+	// evaluated one at a time
+	private ArrayList<CompiledBrain.Batch> batches;
+	private int batchLanes;
+
+	public CompiledBrain(Brain b, List<Neuron> topoOrder,
+			     WeightHistory weightHist,
+			     Collection<SensorCell> valueCells,
+			     Collection<SensorCell> actionCells) {
+		this.myBrain = b;
+		this.weightHist = weightHist;
+		this.kernels = b.getKernels();
+		this.epsilon = b.getPropagationEpsilon();
+		List<Neuron> forwardOrder = this.orderByLevel(topoOrder);
+		int numNeurons = forwardOrder.size();
+		this.neurons = new Neuron[numNeurons];
+		this.kind = new int[numNeurons];
+		this.cell = new int[numNeurons];
+		this.timePassed = new int[numNeurons];
+		this.bias = new double[numNeurons];
+		this.ideal = new double[numNeurons];
+		double activation[] = new double[numNeurons];
+		double calculated[] = new double[numNeurons];
+
+		// number the neurons and their sensor cells
+		HashMap<Neuron, Integer> index = new HashMap<Neuron, Integer>();
+		HashMap<SensorCell, Integer> cellIndex =
+			new HashMap<SensorCell, Integer>();
+		int numConns = 0;
+		for(int i = 0; i < numNeurons; ++i) {
+			Neuron n = forwardOrder.get(i);
+			this.neurons[i] = n;
+			index.put(n, Integer.valueOf(i));
+			this.kind[i] = CompiledBrain.kindOf(n);
+			this.cell[i] = -1;
+			if(n instanceof PredictionNeuron) {
+				SensorCell sc =
+					((PredictionNeuron) n).getSensorCell();
+				if(!cellIndex.containsKey(sc)) {
+					cellIndex.put(sc, Integer.valueOf(
+						cellIndex.size()));
+				}
+				this.cell[i] = cellIndex.get(sc).intValue();
+			}
+			if(n instanceof MemoryNeuron) {
+				this.timePassed[i] =
+					((MemoryNeuron) n).getTimePassed();
+			}
+			this.bias[i] = n.getBias();
+			calculated[i] = n.lastCalculatedOutput;
+			this.ideal[i] = n.lastIdealOutput;
+			activation[i] = calculated[i];
+			numConns += n.getNumInputs();
+		}
+		this.numCells = cellIndex.size();
+		double cellBuf[][] = new double[this.numCells][];
+		for(SensorCell sc : cellIndex.keySet()) {
+			cellBuf[cellIndex.get(sc).intValue()] =
+				sc.getMemAndPredictions();
+		}
+		this.live = new CompiledBrain.Activations(
+			activation, calculated, cellBuf);
+		this.scratch = new ArrayList<CompiledBrain.Activations>();
+		this.batches = new ArrayList<CompiledBrain.Batch>();
+		
+		this.valueCell = new int[valueCells.size()];
+		this.valueImportance = new double[valueCells.size()];
+		int j = 0;
+		for(SensorCell sc : valueCells) {
+			this.valueCell[j] = cellIndex.get(sc).intValue();
+			this.valueImportance[j++] =
+				sc.getFeeler().getStateValueImportance();
+		}
+		this.actionCell = new int[actionCells.size()];
+		j = 0;
+		for(SensorCell sc : actionCells) {
+			this.actionCell[j++] = cellIndex.get(sc).intValue();
+		}
+
+		// lay out the inputs
+		this.rowStart = new int[numNeurons + 1];
+		this.srcIndex = new int[numConns];
+		this.weight = new double[numConns];
+		this.slot = new int[numConns];
+		this.destIndex = new int[numConns];
+		HashMap<Connection, Integer> entry =
+			new HashMap<Connection, Integer>();
+		int k = 0;
+		for(int i = 0; i < numNeurons; ++i) {
+			this.rowStart[i] = k;
+			for(Connection c :
+			    this.neurons[i].getInputConnections()) {
+				this.srcIndex[k] = index.get(
+					c.getSrcNeuron()).intValue();
+				this.weight[k] = c.getCurrentWeight();
+				this.slot[k] = c.getSlot();
+				this.destIndex[k] = i;
+				entry.put(c, Integer.valueOf(k));
+				++k;
+			}
+		}
+		this.rowStart[numNeurons] = k;
+
+		// and the outputs
+		this.outStart = new int[numNeurons + 1];
+		this.outEntry = new int[numConns];
+		k = 0;
+		for(int i = 0; i < numNeurons; ++i) {
+			this.outStart[i] = k;
+			for(Connection c :
+			    this.neurons[i].getOutputConnections()) {
+				this.outEntry[k++] = entry.get(c).intValue();
+			}
+		}
+		this.outStart[numNeurons] = k;
+
+		// and the action cone
+		List<Neuron> actionCone = b.getActionCone();
+		boolean inCone[] = new boolean[numNeurons];
+		this.cone = new int[actionCone.size()];
+		j = 0;
+		for(Neuron n : actionCone) {
+			this.cone[j] = index.get(n).intValue();
+			inCone[this.cone[j++]] = true;
+		}
+		Arrays.sort(this.cone);
+		int numActions = 0;
+		for(int i = 0; i < numNeurons; ++i) {
+			if(this.kind[i] == CompiledBrain.ACTION) {
+				++numActions;
+			}
+		}
+		this.actionNeuron = new int[numActions];
+		j = 0;
+		for(int i = 0; i < numNeurons; ++i) {
+			if(this.kind[i] == CompiledBrain.ACTION) {
+				this.actionNeuron[j++] = i;
+			}
+		}
+		boolean isInput[] = new boolean[numNeurons];
+		int numInputs = 0;
+		for(int i : this.cone) {
+			for(k = this.rowStart[i]; k < this.rowStart[i + 1];
+			    ++k) {
+				int src = this.srcIndex[k];
+				if(!inCone[src] && !isInput[src]
+				   && this.kind[src] != CompiledBrain.ACTION) {
+					isInput[src] = true;
+					++numInputs;
+				}
+			}
+		}
+		this.coneInput = new int[numInputs];
+		this.coneInputActivation = new double[numInputs];
+		j = 0;
+		for(int i = 0; i < numNeurons; ++i) {
+			if(isInput[i]) {
+				this.coneInput[j++] = i;
+			}
+		}
+		this.bestActivation = new double[numNeurons];
+		this.bestCalculated = new double[numNeurons];
+		this.bestConeActivation = new double[this.cone.length];
+		this.bestConeCalculated = new double[this.cone.length];
+	}
+
+	// An image of b, a fork of parent's brain, that shares parent's
+	// topology and copies its weights, biases and activations: the rings
+	// into b's SensorCells, given in the same order as parent's were. The
+	// arrays describing the topology are never written once built, so
+	// any number of forks can share them. Until makeNeurons() is called
+	// the image has no neurons to write back to.
+	public CompiledBrain(Brain b, CompiledBrain parent,
+			     WeightHistory weightHist,
+			     Collection<SensorCell> valueCells,
+			     Collection<SensorCell> actionCells) {
+		this.myBrain = b;
+		this.weightHist = weightHist;
+		this.kernels = b.getKernels();
+		this.epsilon = b.getPropagationEpsilon();
+		this.kind = parent.kind;
+		this.cell = parent.cell;
+		this.timePassed = parent.timePassed;
+		this.numCells = parent.numCells;
+		this.valueCell = parent.valueCell;
+		this.actionCell = parent.actionCell;
+		this.rowStart = parent.rowStart;
+		this.srcIndex = parent.srcIndex;
+		this.slot = parent.slot;
+		this.outStart = parent.outStart;
+		this.outEntry = parent.outEntry;
+		this.destIndex = parent.destIndex;
+		this.levelStart = parent.levelStart;
+		this.cone = parent.cone;
+		this.actionNeuron = parent.actionNeuron;
+		this.coneInput = parent.coneInput;
+
+		this.weight = parent.weight.clone();
+		this.bias = parent.bias.clone();
+		this.ideal = parent.ideal.clone();
+
+		int numNeurons = this.kind.length;
+		double cellBuf[][] = new double[this.numCells][];
+		this.valueImportance = new double[valueCells.size()];
+		int j = 0;
+		for(SensorCell sc : valueCells) {
+			cellBuf[this.valueCell[j]] = sc.getMemAndPredictions();
+			this.valueImportance[j++] =
+				sc.getFeeler().getStateValueImportance();
+		}
+		j = 0;
+		for(SensorCell sc : actionCells) {
+			cellBuf[this.actionCell[j++]] =
+				sc.getMemAndPredictions();
+		}
+		this.live = new CompiledBrain.Activations(
+			new double[numNeurons], new double[numNeurons],
+			cellBuf);
+		this.live.copyFrom(parent.live);
+		this.scratch = new ArrayList<CompiledBrain.Activations>();
+		this.batches = new ArrayList<CompiledBrain.Batch>();
+
+		this.coneInputActivation = new double[this.coneInput.length];
+		this.bestActivation = new double[numNeurons];
+		this.bestCalculated = new double[numNeurons];
+		this.bestConeActivation = new double[this.cone.length];
+		this.bestConeCalculated = new double[this.cone.length];
+	}
+
+	// Makes a neuron of b's for every neuron of the image, of the same
+	// kind and on the SensorCell matching its own, with valueCells and
+	// actionCells given as to the constructor, and returns them in
+	// forward order. From then on the image writes back to them. Their
+	// biases and outputs are the image's once writeBack() is called.
+	public Neuron[] makeNeurons(Collection<SensorCell> valueCells,
+				    Collection<SensorCell> actionCells) {
+		SensorCell cells[] = new SensorCell[this.numCells];
+		int j = 0;
+		for(SensorCell sc : valueCells) {
+			cells[this.valueCell[j++]] = sc;
+		}
+		j = 0;
+		for(SensorCell sc : actionCells) {
+			cells[this.actionCell[j++]] = sc;
+		}
+		Neuron made[] = new Neuron[this.kind.length];
+		for(int i = 0; i < made.length; ++i) {
+			switch(this.kind[i]) {
+			case CompiledBrain.MEMORY:
+				made[i] = new MemoryNeuron(this.myBrain,
+					cells[this.cell[i]],
+					this.timePassed[i]);
+				break;
+			case CompiledBrain.PREDICTION:
+				made[i] = new PredictionNeuron(this.myBrain,
+					cells[this.cell[i]]);
+				break;
+			case CompiledBrain.ACTION:
+				made[i] = new ActionNeuron(this.myBrain,
+					cells[this.cell[i]]);
+				break;
+			default:
+				made[i] = new Neuron(this.myBrain);
+			}
+		}
+		this.neurons = made;
+		return made.clone();
+	}
+
+	// A connection between the neurons makeNeurons() made for every input
+	// entry, in the weight history's slot the entry uses, in CSR order
+	public List<Connection> makeConnections() {
+		ArrayList<Connection> made =
+			new ArrayList<Connection>(this.srcIndex.length);
+		for(int k = 0; k < this.srcIndex.length; ++k) {
+			made.add(new Connection(this.neurons[this.srcIndex[k]],
+						this.neurons[this.destIndex[k]],
+						this.weightHist, this.slot[k]));
+		}
+		return made;
+	}
+
+	// Stably sorts the neurons of a topological order by level, filling
+	// in levelStart. The result is still a topological order.
+	private List<Neuron> orderByLevel(List<Neuron> topoOrder) {
+		HashMap<Neuron, Integer> level = new HashMap<Neuron, Integer>();
+		int numLevels = 0;
+		for(Neuron n : topoOrder) {
+			int l = 0;
+			for(Connection c : n.getInputConnections()) {
+				Integer src = level.get(c.getSrcNeuron());
+				l = Math.max(l, src.intValue() + 1);
+			}
+			level.put(n, Integer.valueOf(l));
+			numLevels = Math.max(numLevels, l + 1);
+		}
+		
+		this.levelStart = new int[numLevels + 1];
+		for(Neuron n : topoOrder) {
+			++this.levelStart[level.get(n).intValue() + 1];
+		}
+		for(int l = 0; l < numLevels; ++l) {
+			this.levelStart[l + 1] += this.levelStart[l];
+		}
+		Neuron ordered[] = new Neuron[topoOrder.size()];
+		int next[] = Arrays.copyOf(this.levelStart, numLevels);
+		for(Neuron n : topoOrder) {
+			ordered[next[level.get(n).intValue()]++] = n;
+		}
+		return Arrays.asList(ordered);
+	}
+	
+	public int getNumLevels() {
+		return this.levelStart.length - 1;
+	}
+	
+	public int getNumNeurons() {
+		return this.kind.length;
+	}
+	
+	public int getNumConnections() {
+		return this.srcIndex.length;
+	}
+	
+	// Copies every neuron's output and bias, in forward order, and every
+	// input entry's src, dest and current weight, eg, for a BrainMonitor
+	public void copyState(double outputs[], double biases[], int src[],
+			      int dest[], double weights[]) {
+		System.arraycopy(this.live.calculated, 0, outputs, 0,
+				 this.kind.length);
+		System.arraycopy(this.bias, 0, biases, 0, this.kind.length);
+		for(int k = 0; k < this.srcIndex.length; ++k) {
+			src[k] = this.srcIndex[k];
+			dest[k] = this.destIndex[k];
+			weights[k] = this.weightHist.getCurrentWeight(
+				this.slot[k]);
+		}
+	}
+	
+	public void setKernels(NeuronKernels kernels) {
+		this.kernels = kernels;
+		this.markAllDirty();
+	}
+
+	public void setPropagationEpsilon(double epsilon) {
+		this.epsilon = epsilon;
+		this.markAllDirty();
+	}
+
+	// Neurons the sparse passes have calculated, and those they have
+	// skipped, on the brain's activations and the scratch ones
+	public long getNeuronsEvaluated() {
+		long n = this.live.evaluated;
+		for(CompiledBrain.Activations a : this.scratch) {
+			n += a.evaluated;
+		}
+		return n;
+	}
+
+	public long getNeuronsSkipped() {
+		long n = this.live.skipped;
+		for(CompiledBrain.Activations a : this.scratch) {
+			n += a.skipped;
+		}
+		return n;
+	}
+
+	// Has the next sparse pass calculate every neuron, eg, once the
+	// weights have changed
+	private void markAllDirty() {
+		this.live.markAllDirty();
+		for(CompiledBrain.Activations a : this.scratch) {
+			a.markAllDirty();
+		}
+	}
+
+	// Hands biases and outputs back to the neurons, eg, before the object
+	// graph is edited or used again. Weights are kept current in the
+	// WeightHistory all along.
+	public void writeBack() {
+		for(int i = 0; i < this.kind.length; ++i) {
+			this.neurons[i].setState(
+				this.bias[i], this.live.calculated[i],
+				this.ideal[i]);
+		}
+	}
+
+	// The forward pass at the brain's current prediction offset, ie,
+	// updateCalculatedOutput() on every neuron in topological order.
+	// If skipActions is set, action neurons keep their (possibly
+	// perturbed) SensorCell values instead.
+	public void updateCalculatedOutputs(boolean skipActions) {
+		this.updateCalculatedOutputs(this.live,
+			this.myBrain.getCurrentPredictionIndex(), skipActions);
+	}
+
+	private void updateCalculatedOutputs(CompiledBrain.Activations a,
+					     int idx, boolean skipActions) {
+		if(this.epsilon >= 0.0) {
+			this.updateChangedOutputs(a, idx, skipActions);
+			return;
+		}
+		ForkJoinPool pool = this.myBrain.getLevelPool();
+		for(int l = 0; l < this.levelStart.length - 1; ++l) {
+			int lo = this.levelStart[l];
+			int hi = this.levelStart[l + 1];
+			if(pool != null
+			   && hi - lo >= Brain.parallelLevelThreshold) {
+				pool.invoke(new CompiledBrain.LevelTask(
+					CompiledBrain.FORWARD, a, idx,
+					skipActions, lo, hi));
+			} else {
+				this.updateCalculatedOutputs(
+					a, idx, skipActions, lo, hi);
+			}
+		}
+	}
+
+	private void updateCalculatedOutputs(CompiledBrain.Activations a,
+					     int idx, boolean skipActions,
+					     int lo, int hi) {
+		for(int i = lo; i < hi; ++i) {
+			switch(this.kind[i]) {
+			case CompiledBrain.MEMORY:
+				a.setActivation(i,
+					a.cellBuf[this.cell[i]][Math.floorMod(
+						idx - this.timePassed[i],
+						Brain.sensorCellDepth)]);
+				break;
+			case CompiledBrain.ACTION:
+				if(skipActions) {
+					a.setActivation(i,
+						a.cellBuf[this.cell[i]][idx]);
+					break;
+				}
+				this.updateCalculatedOutput(a, i, idx);
+				break;
+			default:
+				this.updateCalculatedOutput(a, i, idx);
+			}
+		}
+	}
+
+	// Same as updateCalculatedOutputs(), but in the manner of delta
+	// networks, against the last pass at the same time, idx: that is,
+	// for the passes at future times, the same offset in the previous
+	// exploration round. A neuron none of whose inputs have changed since
+	// keeps its output, and a neuron passes a new output on to its dests
+	// only once it is more than this.epsilon away from what they last
+	// saw. Action neurons, being few, are calculated whenever actions are
+	// not skipped. Skipping makes the levels too uneven to be worth
+	// spreading over the level pool, so this runs serially.
+	private void updateChangedOutputs(CompiledBrain.Activations a,
+					  int idx, boolean skipActions) {
+		a.selectSlot(idx);
+		boolean all = a.slotDirty[idx];
+		a.slotDirty[idx] = false;
+		for(int i = 0; i < this.kind.length; ++i) {
+			int kind = this.kind[i];
+			if(kind == CompiledBrain.MEMORY) {
+				double ring[] = a.cellBuf[this.cell[i]];
+				this.emit(a, i, ring[Math.floorMod(
+					idx - this.timePassed[i],
+					Brain.sensorCellDepth)],
+					  all, this.epsilon);
+				continue;
+			}
+			if(kind == CompiledBrain.ACTION) {
+				if(skipActions) {
+					a.calculated[i] = a.actionOutput[i];
+					this.emit(a, i,
+						  a.cellBuf[this.cell[i]][idx],
+						  all, this.epsilon);
+					continue;
+				}
+			} else if(!all && !a.dirty[i]) {
+				++a.skipped;
+				if(this.cell[i] >= 0) {
+					a.cellBuf[this.cell[i]][idx] =
+						a.calculated[i];
+				}
+				continue;
+			}
+			++a.evaluated;
+			a.dirty[i] = false;
+			double out = this.calculateOutput(a, i);
+			a.calculated[i] = out;
+			if(kind == CompiledBrain.ACTION) {
+				a.actionOutput[i] = out;
+			}
+			this.emit(a, i, out, all, this.epsilon);
+			if(this.cell[i] >= 0) {
+				a.cellBuf[this.cell[i]][idx] = out;
+			}
+		}
+	}
+
+	// Passes a neuron's new output on to its dests if it is more than
+	// threshold away from what they last saw, or at once if every neuron
+	// is being calculated anyway
+	private void emit(CompiledBrain.Activations a, int i, double value,
+			  boolean all, double threshold) {
+		if(all) {
+			a.setActivation(i, value);
+			return;
+		}
+		if(!(Math.abs(value - a.activation[i]) > threshold)) {
+			return;
+		}
+		a.setActivation(i, value);
+		int end = this.outStart[i + 1];
+		for(int k = this.outStart[i]; k < end; ++k) {
+			a.dirty[this.destIndex[this.outEntry[k]]] = true;
+		}
+	}
+
+	// Saves the activations of the neurons feeding the action cone, at
+	// the brain's current prediction offset
+	public void saveConeInputs() {
+		for(int j = 0; j < this.coneInput.length; ++j) {
+			this.coneInputActivation[j] =
+				this.live.activation[this.coneInput[j]];
+		}
+		this.coneInputsSaved = true;
+	}
+
+	public boolean hasConeInputs() {
+		return this.coneInputsSaved;
+	}
+
+	// Saves every neuron's output at the brain's current prediction
+	// offset as the accepted state's
+	public void saveCheckpointOutputs() {
+		CompiledBrain.Activations a = this.live;
+		System.arraycopy(a.activation, 0, this.bestActivation, 0,
+				 this.bestActivation.length);
+		System.arraycopy(a.calculated, 0, this.bestCalculated, 0,
+				 this.bestCalculated.length);
+		a.saveConeOutputs(this.cone);
+		this.takeConeOutputs(a);
+		this.checkpointSaved = true;
+	}
+
+	// Saves the cone's outputs for the candidate actions just tried
+	public void saveCandidateOutputs() {
+		this.live.saveConeOutputs(this.cone);
+	}
+
+	// Makes the cone outputs saveCandidateOutputs() saved the accepted
+	// state's
+	public void acceptCandidateOutputs() {
+		this.takeConeOutputs(this.live);
+	}
+
+	// Swaps the cone outputs a has saved with the accepted ones
+	private void takeConeOutputs(CompiledBrain.Activations a) {
+		double activation[] = this.bestConeActivation;
+		double calculated[] = this.bestConeCalculated;
+		this.bestConeActivation = a.coneActivation;
+		this.bestConeCalculated = a.coneCalculated;
+		a.coneActivation = activation;
+		a.coneCalculated = calculated;
+	}
+
+	// Puts the accepted state's outputs back in place at the brain's
+	// current prediction offset, leaving the activations as
+	// updateCalculatedOutputs(true) would there: memory and action
+	// neurons give their SensorCells' values, and action neurons keep the
+	// calculated outputs of the last pass that did not skip them. Returns
+	// whether there was a state to put back.
+	public boolean restoreCheckpointOutputs() {
+		if(!this.checkpointSaved) {
+			return false;
+		}
+		CompiledBrain.Activations a = this.live;
+		int idx = this.myBrain.getCurrentPredictionIndex();
+		if(this.epsilon >= 0.0) {
+			a.selectSlot(idx);
+		}
+		for(int i = 0; i < this.kind.length; ++i) {
+			switch(this.kind[i]) {
+			case CompiledBrain.MEMORY:
+				a.setActivation(i,
+					a.cellBuf[this.cell[i]][Math.floorMod(
+						idx - this.timePassed[i],
+						Brain.sensorCellDepth)]);
+				break;
+			case CompiledBrain.ACTION:
+				a.calculated[i] = a.actionOutput[i];
+				a.setActivation(i,
+					a.cellBuf[this.cell[i]][idx]);
+				break;
+			default:
+				a.calculated[i] = this.bestCalculated[i];
+				a.setActivation(i, this.bestActivation[i]);
+			}
+		}
+		for(int j = 0; j < this.cone.length; ++j) {
+			int i = this.cone[j];
+			a.calculated[i] = this.bestConeCalculated[j];
+			a.setActivation(i, this.bestConeActivation[j]);
+		}
+		return true;
+	}
+
+	// Same as updateCalculatedOutputs(true) at the offset
+	// saveConeInputs() was called at, as long as only the actions have
+	// changed since
+	public void updateConeOutputs() {
+		this.updateConeOutputs(this.live,
+			this.myBrain.getCurrentPredictionIndex());
+	}
+
+	private void updateConeOutputs(CompiledBrain.Activations a, int idx) {
+		if(this.epsilon >= 0.0) {
+			this.updateChangedConeOutputs(a, idx);
+			return;
+		}
+		for(int j = 0; j < this.coneInput.length; ++j) {
+			a.setActivation(this.coneInput[j],
+					this.coneInputActivation[j]);
+		}
+		for(int i : this.actionNeuron) {
+			a.setActivation(i, a.cellBuf[this.cell[i]][idx]);
+		}
+		for(int i : this.cone) {
+			this.updateCalculatedOutput(a, i, idx);
+		}
+	}
+
+	// Same, keeping track of what changes for the sparse passes
+	private void updateChangedConeOutputs(CompiledBrain.Activations a,
+					      int idx) {
+		a.selectSlot(idx);
+		boolean all = a.slotDirty[idx];
+		for(int j = 0; j < this.coneInput.length; ++j) {
+			this.emit(a, this.coneInput[j],
+				  this.coneInputActivation[j], all, 0.0);
+		}
+		for(int i : this.actionNeuron) {
+			a.calculated[i] = a.actionOutput[i];
+			this.emit(a, i, a.cellBuf[this.cell[i]][idx], all,
+				  this.epsilon);
+		}
+		for(int i : this.cone) {
+			++a.evaluated;
+			a.dirty[i] = false;
+			double out = this.calculateOutput(a, i);
+			a.calculated[i] = out;
+			this.emit(a, i, out, all, this.epsilon);
+			if(this.cell[i] >= 0) {
+				a.cellBuf[this.cell[i]][idx] = out;
+			}
+		}
+	}
+
+	// Same as Neuron.updateCalculatedOutput, including PredictionNeuron's
+	// write to its SensorCell
+	private void updateCalculatedOutput(CompiledBrain.Activations a,
+					    int i, int idx) {
+		double out = this.calculateOutput(a, i);
+		a.calculated[i] = out;
+		if(this.kind[i] == CompiledBrain.ACTION) {
+			a.actionOutput[i] = out;
+		}
+		a.setActivation(i, out);
+		if(this.cell[i] >= 0) {
+			a.cellBuf[this.cell[i]][idx] = out;
+		}
+	}
+
+	// sig(weighted input sum + bias) of neuron i
+	private double calculateOutput(CompiledBrain.Activations a, int i) {
+		return Neuron.sigmoid(this.kernels.weightedSum(this.bias[i],
+			this.weight, this.srcIndex, a.activation,
+			this.rowStart[i], this.rowStart[i + 1]));
+	}
+
+	// Same as Brain.calcStateValue, summing in the same order
+	private double calcStateValue(CompiledBrain.Activations a, int idx) {
+		double retval = 0.0;
+		for(int j = 0; j < this.valueCell.length; ++j) {
+			retval += a.cellBuf[this.valueCell[j]][idx]
+				* this.valueImportance[j];
+		}
+		return retval;
+	}
+
+	// Evaluates one exploration candidate per row of perturbations,
+	// spread over the pool, or on this thread if pool is null. A
+	// candidate perturbs the current actions the way
+	// Brain.perturbCurrentActions does, and its value is what
+	// propagateCurrentActions() plus calcFutureNeuralOutputs() would
+	// return for it. Candidates are evaluated Brain.getExplorationBatch()
+	// at a time in batches, if canBatch(), or otherwise each on its own
+	// scratch copy of the brain's activations. The brain's own
+	// activations are left alone.
+	public void evaluateCandidates(ForkJoinPool pool,
+				       double perturbations[][],
+				       double values[]) {
+		int lanes = this.myBrain.getExplorationBatch();
+		int n = perturbations.length;
+		CompiledBrain.EvaluateTask task;
+		if(lanes > 1 && this.canBatch()) {
+			if(!this.batches.isEmpty()
+			   && this.batches.get(0).lanes != lanes) {
+				this.batches.clear();
+			}
+			int numBatches = (n + lanes - 1) / lanes;
+			while(this.batches.size() < numBatches) {
+				this.batches.add(new CompiledBrain.Batch(
+					this.kind.length, this.numCells,
+					this.cone.length, lanes));
+			}
+			this.batchLanes = lanes;
+			task = new CompiledBrain.EvaluateTask(
+				perturbations, values, lanes, 0, numBatches);
+		} else {
+			while(this.scratch.size() < n) {
+				this.scratch.add(new CompiledBrain.Activations(
+					this.kind.length, this.numCells));
+			}
+			this.batchLanes = 0;
+			task = new CompiledBrain.EvaluateTask(
+				perturbations, values, 1, 0, n);
+		}
+		if(pool != null) {
+			pool.invoke(task);
+		} else {
+			task.evaluate(task.lo, task.hi);
+		}
+	}
+
+	// Whether candidates can be evaluated in batches: the batched passes
+	// are dense
+	public boolean canBatch() {
+		return this.epsilon < 0.0;
+	}
+
+	// Makes the given candidate's activations, and its cone outputs at
+	// the current prediction offset, the brain's own
+	public void acceptCandidate(int candidate) {
+		if(this.batchLanes > 0) {
+			this.acceptBatched(candidate);
+			return;
+		}
+		CompiledBrain.Activations a = this.scratch.get(candidate);
+		this.live.copyFrom(a);
+		this.takeConeOutputs(a);
+	}
+
+	// Same as acceptCandidate(), from the candidate's lane of its batch.
+	// After the last dense pass every neuron but the memory neurons
+	// outputs what it calculated.
+	private void acceptBatched(int candidate) {
+		CompiledBrain.Batch batch =
+			this.batches.get(candidate / this.batchLanes);
+		int b = candidate % this.batchLanes;
+		int lanes = batch.width;
+		CompiledBrain.Activations a = this.live;
+		for(int i = 0; i < this.kind.length; ++i) {
+			double v = batch.activation[i * lanes + b];
+			a.setActivation(i, v);
+			if(this.kind[i] != CompiledBrain.MEMORY) {
+				a.calculated[i] = v;
+			}
+			if(this.kind[i] == CompiledBrain.ACTION) {
+				a.actionOutput[i] = v;
+			}
+		}
+		for(int c = 0; c < this.numCells; ++c) {
+			double ring[] = a.cellBuf[c];
+			for(int t = 0; t < ring.length; ++t) {
+				ring[t] = batch.cellBuf[c][t * lanes + b];
+			}
+		}
+		for(int j = 0; j < this.cone.length; ++j) {
+			double v = batch.coneOutput[j * lanes + b];
+			this.bestConeActivation[j] = v;
+			this.bestConeCalculated[j] = v;
+		}
+	}
+
+	// Makes the action outputs the given candidate's last pass
+	// calculated the brain's own, as they would be had its passes run on
+	// the brain's activations, as the sequential exploration's do.
+	// restoreCheckpointOutputs() hands them to learn().
+	public void keepCandidateActionOutputs(int candidate) {
+		CompiledBrain.Activations a = this.live;
+		if(this.batchLanes > 0) {
+			CompiledBrain.Batch batch =
+				this.batches.get(candidate / this.batchLanes);
+			int b = candidate % this.batchLanes;
+			for(int i : this.actionNeuron) {
+				a.actionOutput[i] =
+					batch.activation[i * batch.width + b];
+			}
+			return;
+		}
+		CompiledBrain.Activations c = this.scratch.get(candidate);
+		for(int i : this.actionNeuron) {
+			a.actionOutput[i] = c.actionOutput[i];
+		}
+	}
+
+	private double evaluateCandidate(CompiledBrain.Activations a,
+					 double perturbation[]) {
+		a.copyFrom(this.live);
+		int time = this.myBrain.getEnvironment().getTime();
+		int idx = time % Brain.sensorCellDepth;
+		for(int j = 0; j < this.actionCell.length; ++j) {
+			double ring[] = a.cellBuf[this.actionCell[j]];
+			ring[idx] = Neuron.sigmoid(ring[idx] + perturbation[j]);
+		}
+		
+		if(this.coneInputsSaved) {
+			this.updateConeOutputs(a, idx);
+		} else {
+			this.updateCalculatedOutputs(a, idx, true);
+		}
+		a.saveConeOutputs(this.cone);
+		double value = this.calcStateValue(a, idx);
+		double future = 0.0;
+		for(int offset = 1;
+		    offset < Brain.sensorCellDepth - Brain.memoryDepth;
+		    ++offset) {
+			idx = (time + offset) % Brain.sensorCellDepth;
+			this.updateCalculatedOutputs(a, idx, false);
+			future += this.calcStateValue(a, idx);
+		}
+		return value + future;
+	}
+
+	// Same as evaluateCandidate() on every candidate from first to
+	// first + count, in the lanes of batch. Each weight is loaded once
+	// per pass for all of them.
+	private void evaluateBatch(CompiledBrain.Batch batch,
+				   double perturbations[][], double values[],
+				   int first, int count) {
+		int lanes = count;
+		batch.width = lanes;
+		for(int c = 0; c < this.numCells; ++c) {
+			double ring[] = this.live.cellBuf[c];
+			double lane[] = batch.cellBuf[c];
+			for(int t = 0; t < ring.length; ++t) {
+				for(int b = 0; b < lanes; ++b) {
+					lane[t * lanes + b] = ring[t];
+				}
+			}
+		}
+		int time = this.myBrain.getEnvironment().getTime();
+		int idx = time % Brain.sensorCellDepth;
+		for(int j = 0; j < this.actionCell.length; ++j) {
+			double ring[] = batch.cellBuf[this.actionCell[j]];
+			for(int b = 0; b < lanes; ++b) {
+				int t = idx * lanes + b;
+				ring[t] = Neuron.sigmoid(
+					ring[t] + perturbations[first + b][j]);
+			}
+		}
+
+		double act[] = batch.activation;
+		if(this.coneInputsSaved) {
+			for(int j = 0; j < this.coneInput.length; ++j) {
+				int base = this.coneInput[j] * lanes;
+				for(int b = 0; b < lanes; ++b) {
+					act[base + b] =
+						this.coneInputActivation[j];
+				}
+			}
+			for(int i : this.actionNeuron) {
+				double ring[] = batch.cellBuf[this.cell[i]];
+				for(int b = 0; b < lanes; ++b) {
+					act[i * lanes + b] =
+						ring[idx * lanes + b];
+				}
+			}
+			for(int i : this.cone) {
+				this.updateBatchedOutput(batch, lanes, i, idx);
+			}
+		} else {
+			this.updateBatchedOutputs(batch, lanes, idx, true);
+		}
+		for(int j = 0; j < this.cone.length; ++j) {
+			int base = this.cone[j] * lanes;
+			for(int b = 0; b < lanes; ++b) {
+				batch.coneOutput[j * lanes + b] = act[base + b];
+			}
+		}
+		double value[] = batch.value;
+		double future[] = batch.future;
+		for(int b = 0; b < lanes; ++b) {
+			value[b] = this.calcStateValue(batch, lanes, b, idx);
+			future[b] = 0.0;
+		}
+		for(int offset = 1;
+		    offset < Brain.sensorCellDepth - Brain.memoryDepth;
+		    ++offset) {
+			idx = (time + offset) % Brain.sensorCellDepth;
+			this.updateBatchedOutputs(batch, lanes, idx, false);
+			for(int b = 0; b < lanes; ++b) {
+				future[b] += this.calcStateValue(
+					batch, lanes, b, idx);
+			}
+		}
+		for(int b = 0; b < lanes; ++b) {
+			values[first + b] = value[b] + future[b];
+		}
+	}
+
+	// updateCalculatedOutputs() on every lane of a batch
+	private void updateBatchedOutputs(CompiledBrain.Batch batch,
+					  int lanes, int idx,
+					  boolean skipActions) {
+		double act[] = batch.activation;
+		for(int i = 0; i < this.kind.length; ++i) {
+			switch(this.kind[i]) {
+			case CompiledBrain.MEMORY:
+				double memory[] = batch.cellBuf[this.cell[i]];
+				int t = Math.floorMod(idx - this.timePassed[i],
+						      Brain.sensorCellDepth);
+				for(int b = 0; b < lanes; ++b) {
+					act[i * lanes + b] =
+						memory[t * lanes + b];
+				}
+				break;
+			case CompiledBrain.ACTION:
+				if(skipActions) {
+					double ring[] =
+						batch.cellBuf[this.cell[i]];
+					for(int b = 0; b < lanes; ++b) {
+						act[i * lanes + b] =
+							ring[idx * lanes + b];
+					}
+					break;
+				}
+				this.updateBatchedOutput(batch, lanes, i, idx);
+				break;
+			default:
+				this.updateBatchedOutput(batch, lanes, i, idx);
+			}
+		}
+	}
+
+	// updateCalculatedOutput() on every lane of a batch
+	private void updateBatchedOutput(CompiledBrain.Batch batch, int lanes,
+					 int i, int idx) {
+		int from = this.rowStart[i];
+		int to = this.rowStart[i + 1];
+		double sums[] = batch.sums;
+		this.kernels.batchedWeightedSum(this.bias[i], this.weight,
+			this.srcIndex, batch.activation, lanes, from, to, sums);
+		int base = i * lanes;
+		for(int b = 0; b < lanes; ++b) {
+			batch.activation[base + b] = Neuron.sigmoid(sums[b]);
+		}
+		if(this.cell[i] >= 0) {
+			double ring[] = batch.cellBuf[this.cell[i]];
+			for(int b = 0; b < lanes; ++b) {
+				ring[idx * lanes + b] =
+					batch.activation[base + b];
+			}
+		}
+	}
+
+	// calcStateValue() on lane b of a batch
+	private double calcStateValue(CompiledBrain.Batch batch, int lanes,
+				      int b, int idx) {
+		double retval = 0.0;
+		for(int j = 0; j < this.valueCell.length; ++j) {
+			retval += batch.cellBuf[this.valueCell[j]]
+				[idx * lanes + b] * this.valueImportance[j];
+		}
+		return retval;
+	}
+
+	// Same as Neuron.updateErrorAndIdealOutput on every neuron in
+	// backward topological order
+	public void updateErrorsAndIdealOutputs() {
+		int idx = this.myBrain.getCurrentPredictionIndex();
+		ForkJoinPool pool = this.myBrain.getLevelPool();
+		for(int l = this.levelStart.length - 2; l >= 0; --l) {
+			int lo = this.levelStart[l];
+			int hi = this.levelStart[l + 1];
+			if(pool != null
+			   && hi - lo >= Brain.parallelLevelThreshold) {
+				pool.invoke(new CompiledBrain.LevelTask(
+					CompiledBrain.ERRORS, this.live, idx,
+					false, lo, hi));
+			} else {
+				this.updateErrorsAndIdealOutputs(idx, lo, hi);
+			}
+		}
+	}
+
+	private void updateErrorsAndIdealOutputs(int idx, int lo, int hi) {
+		CompiledBrain.Activations a = this.live;
+		for(int i = hi - 1; i >= lo; --i) {
+			switch(this.kind[i]) {
+			case CompiledBrain.MEMORY:
+				break;
+			case CompiledBrain.PREDICTION:
+			case CompiledBrain.ACTION:
+				this.ideal[i] = a.cellBuf[this.cell[i]][idx];
+				break;
+			default:
+				double adjustment = 0.0;
+				int end = this.outStart[i + 1];
+				for(int k = this.outStart[i]; k < end; ++k) {
+					int e = this.outEntry[k];
+					int d = this.destIndex[e];
+					adjustment += this.weight[e]
+						* (this.ideal[d]
+						   - a.calculated[d]);
+				}
+				this.ideal[i] = Neuron.sigmoid(
+					a.calculated[i] + adjustment);
+			}
+		}
+	}
+
+	// Same as Neuron.updateBiasAndWeights on every neuron in forward
+	// topological order. New weights are recorded in the connections'
+	// weight histories too.
+	public void updateBiasesAndWeights() {
+		int idx = this.myBrain.getCurrentPredictionIndex();
+		ForkJoinPool pool = this.myBrain.getLevelPool();
+		for(int l = 0; l < this.levelStart.length - 1; ++l) {
+			int lo = this.levelStart[l];
+			int hi = this.levelStart[l + 1];
+			if(pool != null
+			   && hi - lo >= Brain.parallelLevelThreshold) {
+				pool.invoke(new CompiledBrain.LevelTask(
+					CompiledBrain.BIASES_AND_WEIGHTS,
+					this.live, idx, false, lo, hi));
+			} else {
+				this.updateBiasesAndWeights(idx, lo, hi);
+			}
+		}
+		this.live.markAllDirty();
+	}
+
+	private void updateBiasesAndWeights(int idx, int lo, int hi) {
+		double neuronAdj = this.myBrain.getNeuronAdjustment();
+		double actionAdj = this.myBrain.getActionNeuronAdjustment();
+		CompiledBrain.Activations a = this.live;
+		for(int i = lo; i < hi; ++i) {
+			if(this.kind[i] == CompiledBrain.MEMORY) {
+				continue;
+			}
+			this.updateCalculatedOutput(a, i, idx);
+
+			int start = this.rowStart[i];
+			int end = this.rowStart[i + 1];
+			double grad_mag = Math.sqrt(
+				this.kernels.gradientMagnitudeSquared(
+					this.srcIndex, a.activation, start,
+					end));
+			double grad_frac =
+				(this.kind[i] == CompiledBrain.ACTION
+				 ? actionAdj : neuronAdj) / grad_mag;
+			if(this.ideal[i] - a.calculated[i] < 0.0) {
+				grad_frac = -grad_frac;
+			}
+
+			this.bias[i] += grad_frac;
+			this.kernels.adjustWeights(this.weight, this.srcIndex,
+				a.activation, grad_frac, start, end);
+			for(int k = start; k < end; ++k) {
+				this.weightHist.record(
+					this.slot[k], this.weight[k]);
+			}
+
+			this.updateCalculatedOutput(a, i, idx);
+			if(this.cell[i] >= 0) {
+				// PredictionNeuron leaves its ideal output in
+				// its SensorCell, which is also what an action
+				// neuron's dest neurons then see
+				a.cellBuf[this.cell[i]][idx] = this.ideal[i];
+				a.activation[i] = this.ideal[i];
+			}
+		}
+	}
+
+	private static int kindOf(Neuron n) {
+		if(n instanceof MemoryNeuron) {
+			return CompiledBrain.MEMORY;
+		}
+		if(n instanceof ActionNeuron) {
+			return CompiledBrain.ACTION;
+		}
+		if(n instanceof PredictionNeuron) {
+			return CompiledBrain.PREDICTION;
+		}
+		return CompiledBrain.INTER;
+	}
+
+	public static final int INTER = 0;
+	public static final int MEMORY = 1;
+	public static final int PREDICTION = 2;
+	public static final int ACTION = 3;
+
+	// the passes a LevelTask can run
+	private static final int FORWARD = 0;
+	private static final int ERRORS = 1;
+	private static final int BIASES_AND_WEIGHTS = 2;
+	// number of neurons a LevelTask handles without splitting further
+	private static final int levelChunk = 64;
+
+	// The values a pass produces: what dest neurons see (ie,
+	// getLastCalculatedOutput()), the calculated outputs (ie,
+	// lastCalculatedOutput), and the SensorCell rings.
+	//
+	// Sparse passes compare against the last pass at the same time, so
+	// for them the values are kept for each index into the rings, and
+	// activation and calculated are those at the index last
+	// selected. An action neuron's calculated output, though, is the one
+	// of the last pass that did not skip actions, whatever its index, as
+	// it is for the dense passes, so that is kept aside in actionOutput.
+	// Sparse passes also keep which neurons have inputs that changed
+	// during the pass, which indices every neuron is dirty at, and count
+	// the neurons calculated and skipped.
+	public static class Activations {
+		private double activation[];
+		private double calculated[];
+		private double cellBuf[][];
+		private double slotActivation[][];
+		private double slotCalculated[][];
+		private double actionOutput[];
+		// the cone's outputs, as saveConeOutputs() saved them
+		private double coneActivation[];
+		private double coneCalculated[];
+		private boolean dirty[];
+		private boolean slotDirty[];
+		private long evaluated;
+		private long skipped;
+
+		public Activations(double activation[], double calculated[],
+				   double cellBuf[][]) {
+			this.activation = activation;
+			this.calculated = calculated;
+			this.cellBuf = cellBuf;
+			this.actionOutput = Arrays.copyOf(calculated,
+							  calculated.length);
+			this.dirty = new boolean[activation.length];
+			this.slotDirty = new boolean[Brain.sensorCellDepth];
+			this.markAllDirty();
+		}
+
+		public Activations(int numNeurons, int numCells) {
+			this(new double[numNeurons], new double[numNeurons],
+			     new double[numCells][Brain.sensorCellDepth]);
+		}
+
+		public void setActivation(int i, double value) {
+			this.activation[i] = value;
+		}
+
+		// Switches to the values at index idx into the rings, making
+		// room for them at every index first if need be
+		public void selectSlot(int idx) {
+			if(this.slotActivation == null) {
+				int n = this.activation.length;
+				int depth = Brain.sensorCellDepth;
+				this.slotActivation = new double[depth][];
+				this.slotCalculated = new double[depth][];
+				for(int t = 0; t < depth; ++t) {
+					this.slotActivation[t] = Arrays.copyOf(
+						this.activation, n);
+					this.slotCalculated[t] = Arrays.copyOf(
+						this.calculated, n);
+				}
+			}
+			this.activation = this.slotActivation[idx];
+			this.calculated = this.slotCalculated[idx];
+		}
+
+		// Saves the outputs of the neurons in cone, at the index
+		// selected
+		public void saveConeOutputs(int cone[]) {
+			if(this.coneActivation == null) {
+				this.coneActivation = new double[cone.length];
+				this.coneCalculated = new double[cone.length];
+			}
+			for(int j = 0; j < cone.length; ++j) {
+				int i = cone[j];
+				this.coneActivation[j] = this.activation[i];
+				this.coneCalculated[j] = this.calculated[i];
+			}
+		}
+
+		// Has the next sparse pass at each index calculate every
+		// neuron
+		public void markAllDirty() {
+			Arrays.fill(this.slotDirty, true);
+		}
+
+		// Copies values only, so rings shared with SensorCells stay
+		// shared
+		public void copyFrom(CompiledBrain.Activations other) {
+			if(other.slotActivation != null) {
+				for(int t = 0; t < other.slotActivation.length;
+				    ++t) {
+					this.selectSlot(t);
+					this.copyValuesFrom(
+						other.slotActivation[t],
+						other.slotCalculated[t]);
+				}
+				for(int t = 0; t < other.slotActivation.length;
+				    ++t) {
+					if(other.activation
+					   == other.slotActivation[t]) {
+						this.selectSlot(t);
+					}
+				}
+			} else {
+				this.copyValuesFrom(other.activation,
+						    other.calculated);
+			}
+			for(int c = 0; c < this.cellBuf.length; ++c) {
+				System.arraycopy(other.cellBuf[c], 0,
+						 this.cellBuf[c], 0,
+						 this.cellBuf[c].length);
+			}
+			System.arraycopy(other.actionOutput, 0,
+					 this.actionOutput, 0,
+					 this.actionOutput.length);
+			System.arraycopy(other.dirty, 0, this.dirty, 0,
+					 this.dirty.length);
+			System.arraycopy(other.slotDirty, 0, this.slotDirty, 0,
+					 this.slotDirty.length);
+		}
+
+		private void copyValuesFrom(double activation[],
+					    double calculated[]) {
+			System.arraycopy(activation, 0, this.activation, 0,
+					 this.activation.length);
+			System.arraycopy(calculated, 0, this.calculated, 0,
+					 this.calculated.length);
+		}
+	}
+
+	// Activations lanes wide, for evaluating a batch of candidates in
+	// the same passes: in lane b, neuron i's output is
+	// activation[i * width + b], and index t into ring c is
+	// cellBuf[c][t * width + b], width being the number of candidates
+	// in the batch. coneOutput keeps the cone's outputs at the current
+	// prediction offset the same way.
+	private static class Batch {
+		private int lanes;
+		private int width;
+		private double activation[];
+		private double cellBuf[][];
+		private double coneOutput[];
+		private double sums[];
+		private double value[];
+		private double future[];
+
+		public Batch(int numNeurons, int numCells, int numCone,
+			     int lanes) {
+			this.lanes = lanes;
+			this.activation = new double[numNeurons * lanes];
+			this.cellBuf = new double[numCells]
+				[Brain.sensorCellDepth * lanes];
+			this.coneOutput = new double[numCone * lanes];
+			this.sums = new double[lanes];
+			this.value = new double[lanes];
+			this.future = new double[lanes];
+		}
+	}
+
+	// Evaluates candidates [lo, hi), or if lanes is more than 1 the
+	// batches [lo, hi) of lanes candidates each, splitting the range in
+	// halves so idle workers can steal them
+	private class EvaluateTask extends RecursiveAction {
+		private double perturbations[][];
+		private double values[];
+		private int lanes;
+		private int lo;
+		private int hi;
+
+		public EvaluateTask(double perturbations[][], double values[],
+				    int lanes, int lo, int hi) {
+			this.perturbations = perturbations;
+			this.values = values;
+			this.lanes = lanes;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected void compute() {
+			if(this.hi - this.lo > 1) {
+				int mid = (this.lo + this.hi) >>> 1;
+				RecursiveAction.invokeAll(
+					new CompiledBrain.EvaluateTask(
+						this.perturbations, this.values,
+						this.lanes, this.lo, mid),
+					new CompiledBrain.EvaluateTask(
+						this.perturbations, this.values,
+						this.lanes, mid, this.hi));
+				return;
+			}
+			this.evaluate(this.lo, this.hi);
+		}
+
+		public void evaluate(int lo, int hi) {
+			CompiledBrain brain = CompiledBrain.this;
+			for(int j = lo; j < hi; ++j) {
+				if(this.lanes <= 1) {
+					this.values[j] =
+						brain.evaluateCandidate(
+						brain.scratch.get(j),
+						this.perturbations[j]);
+					continue;
+				}
+				int first = j * this.lanes;
+				brain.evaluateBatch(brain.batches.get(j),
+					this.perturbations, this.values, first,
+					Math.min(this.lanes,
+						 this.perturbations.length
+						 - first));
+			}
+		}
+	}
+
+	// Runs one pass over the neurons [lo, hi) of a level, splitting the
+	// range in halves so idle workers can steal them
+	private class LevelTask extends RecursiveAction {
+		private int pass;
+		private CompiledBrain.Activations a;
+		private int idx;
+		private boolean skipActions;
+		private int lo;
+		private int hi;
+
+		public LevelTask(int pass, CompiledBrain.Activations a, int idx,
+				 boolean skipActions, int lo, int hi) {
+			this.pass = pass;
+			this.a = a;
+			this.idx = idx;
+			this.skipActions = skipActions;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected void compute() {
+			if(this.hi - this.lo > CompiledBrain.levelChunk) {
+				int mid = (this.lo + this.hi) >>> 1;
+				RecursiveAction.invokeAll(
+					new CompiledBrain.LevelTask(this.pass,
+						this.a, this.idx,
+						this.skipActions, this.lo,
+						mid),
+					new CompiledBrain.LevelTask(this.pass,
+						this.a, this.idx,
+						this.skipActions, mid,
+						this.hi));
+				return;
+			}
+			switch(this.pass) {
+			case CompiledBrain.FORWARD:
+				CompiledBrain.this.updateCalculatedOutputs(
+					this.a, this.idx, this.skipActions,
+					this.lo, this.hi);
+				break;
+			case CompiledBrain.ERRORS:
+				CompiledBrain.this.updateErrorsAndIdealOutputs(
+					this.idx, this.lo, this.hi);
+				break;
+			default:
+				CompiledBrain.this.updateBiasesAndWeights(
+					this.idx, this.lo, this.hi);
+			}
+		}
+	}
+}
@@ -2,9 +2,10 @@ package AstroAI.java;
 
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
 
-import AstroAI.java.Brain;
 import AstroAI.java.Neuron;
+import AstroAI.java.WeightHistory;
 
 // A one-way connection between two neurons, srcNeuron and destNeuron.
 // Contributes to destNeuron's output calculation with weight*srcNeuron's
@@ -16,22 +17,31 @@ public class Connection {
 	private Neuron srcNeuron, destNeuron;
 
 	// history of weight values, used to determine whether the
-	// connection should be pruned
-	private ArrayList<Double> weightHist;
+	// connection should be pruned. It lives in the brain's shared
+	// WeightHistory under this connection's slot.
+	private WeightHistory weightHist;
+	private int slot;
 	
-	public Connection(Neuron src, Neuron dest, double weight) {
+	public Connection(Neuron src, Neuron dest, double weight,
+			  WeightHistory weightHist) {
 		
 		// Initialize source and dest neurons
 		this.srcNeuron = src;
 		this.destNeuron = dest;
 
-		// Initialize weight history
-		this.weightHist = new ArrayList<Double>(
-			Brain.connectionHistoryDepth + 1
-		);
-		
-		// set initial weight
-		this.weightHist.set(0, GaussGetter.getGauss());
+		// Initialize weight history with the initial weight
+		this.weightHist = weightHist;
+		this.slot = weightHist.allocate(weight);
+	}
+
+	// A connection whose weight history is already in the given slot,
+	// eg, one read back from a snapshot
+	public Connection(Neuron src, Neuron dest, WeightHistory weightHist,
+			  int slot) {
+		this.srcNeuron = src;
+		this.destNeuron = dest;
+		this.weightHist = weightHist;
+		this.slot = slot;
 	}
 
 	public Neuron getSrcNeuron() {
@@ -42,11 +52,13 @@ public class Connection {
 		return destNeuron;
 	}
 
-	// The current weight is accessed from the weight history at the 
-	// appropriate index
+	public int getSlot() {
+		return this.slot;
+	}
+
+	// The current weight is the last one in the weight history
 	public double getCurrentWeight() {
-		return this.weightHist.get(
-			this.weightHist.size()-1).doubleValue();
+		return this.weightHist.getCurrentWeight(this.slot);
 	}
 
 	// Called by neurons when calculating their output. Calculates this
@@ -70,39 +82,34 @@ public class Connection {
 	// weight is moved by the value frac * srcNeuron's last calculated
 	// output.
 	public void adjustWeightBy(double frac) {
-		this.weightHist.add(new Double(
+		this.setCurrentWeight(
 			this.getCurrentWeight()
-			+ frac*this.srcNeuron.getLastCalculatedOutput()));
+			+ frac*this.srcNeuron.getLastCalculatedOutput());
+	}
+	
+	// Appends a new current weight to the weight history
+	public void setCurrentWeight(double weight) {
+		this.weightHist.record(this.slot, weight);
 	}
 	
+	// Returns the average weight over the last weight history period.
 	public double getAverageWeight() {
-		double sum = 0.0;
-		for(Double w : this.weightHist) {
-			sum += w.doubleValue();
-		}
-		return sum/this.weightHist.size();
+		return this.weightHist.getAverageWeight(this.slot);
 	}
 	
 	// Returns the difference between the maximum weight seen in the last
 	// weight history period and the minimum weight.
 	public double getWeightRange() {
-		double max = this.weightHist.get(0).doubleValue();
-		double min = max;
-		for(Double w : this.weightHist) {
-			if(w.doubleValue() > max) {
-				max = w.doubleValue();
-			} else if (w.doubleValue() < min) {
-				min = w.doubleValue();
-			}
-		}
-		return max - min;
+		return this.weightHist.getWeightRange(this.slot);
 	}
 	
 	public void resetWeightHistory() {
-		double lastWeight = this.getCurrentWeight();
-		this.weightHist = new ArrayList<Double>(
-			Brain.connectionHistoryDepth + 1);
-		this.weightHist.set(0, new Double(lastWeight));
+		this.weightHist.reset(this.slot, this.getCurrentWeight());
+	}
+	
+	// Gives the weight history slot back once the connection is removed
+	public void release() {
+		this.weightHist.release(this.slot);
 	}
 	
 	public static class ConnectionComparator
@@ -140,4 +147,80 @@ public class Connection {
 		}
 	}
 
+	// Picks out the k least important of the given connections, ie, the
+	// k greatest under ConnectionComparator, in no particular order. The
+	// importance keys are computed once per connection, and the
+	// selection is a quickselect, so this takes expected linear time.
+	public static List<Connection> selectLeastImportant(
+		List<Connection> conns, int k) {
+		
+		int n = conns.size();
+		if(k >= n) {
+			return new ArrayList<Connection>(conns);
+		}
+		double absAvg[] = new double[n];
+		double range[] = new double[n];
+		int idx[] = new int[n];
+		for(int i = 0; i < n; ++i) {
+			absAvg[i] = Math.abs(conns.get(i).getAverageWeight());
+			range[i] = conns.get(i).getWeightRange();
+			idx[i] = i;
+		}
+		
+		// partition idx until its first k entries are the least
+		// important, using three-way partitioning so that runs of
+		// equal keys do not degrade it
+		int lo = 0;
+		int hi = n;
+		while(hi - lo > 1) {
+			int p = idx[lo + (hi - lo)/2];
+			int lt = lo;
+			int i = lo;
+			int gt = hi;
+			while(i < gt) {
+				int c = Connection.compareKeys(
+					absAvg, range, idx[i], p);
+				if(c < 0) {
+					Connection.swap(idx, lt++, i++);
+				} else if(c > 0) {
+					Connection.swap(idx, i, --gt);
+				} else {
+					++i;
+				}
+			}
+			if(k < lt) {
+				hi = lt;
+			} else if(k > gt) {
+				lo = gt;
+			} else {
+				break;
+			}
+		}
+		
+		ArrayList<Connection> selected = new ArrayList<Connection>(k);
+		for(int i = 0; i < k; ++i) {
+			selected.add(conns.get(idx[i]));
+		}
+		return selected;
+	}
+	
+	// Orders by importance: smaller absolute average weight first, then
+	// smaller weight range
+	private static int compareKeys(double absAvg[], double range[],
+				       int i, int j) {
+		if(absAvg[i] != absAvg[j]) {
+			return absAvg[i] < absAvg[j] ? -1 : 1;
+		}
+		if(range[i] != range[j]) {
+			return range[i] < range[j] ? -1 : 1;
+		}
+		return 0;
+	}
+	
+	private static void swap(int a[], int i, int j) {
+		int t = a[i];
+		a[i] = a[j];
+		a[j] = t;
+	}
+
 }
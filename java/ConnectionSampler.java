@@ -0,0 +1,191 @@
+package AstroAI.java;
+
+import java.util.List;
+import java.util.Random;
+
+import AstroAI.java.ActionNeuron;
+import AstroAI.java.Brain;
+import AstroAI.java.MemoryNeuron;
+import AstroAI.java.Neuron;
+import AstroAI.java.PredictionNeuron;
+
+// Draws (src, dest) pairs for new connections evenly from every pair that
+// can be connected as the brain's topological order stands: src can have
+// outputs, dest can have inputs, and dest comes after src, so the
+// connection cannot close a cycle. A src is drawn with weight equal to its
+// number of such dests, then one of those dests evenly, so that every
+// pair is equally likely and none is ever rejected. Each draw is a binary
+// search, however dense the brain is.
+//
+// The index is built from the order, and only rebuilt once the order has
+// changed; connections between drawn pairs never change it.
+public class ConnectionSampler {
+
+	private Brain.TopoOrder topoOrder;
+	// version of topoOrder the index was built from, or -1
+	private long builtVersion;
+
+	// neurons that can have inputs, in forward order, and their ranks
+	private Neuron dests[];
+	private int destRank[];
+	// neurons that can have outputs, in forward order, and the number of
+	// pairs whose src is one of srcs[0] up to srcs[s]
+	private Neuron srcs[];
+	private long cumulative[];
+
+	// pairs drawn, and pairs tried without the sampler and how many of
+	// those turned out not to be connectable
+	private long drawn;
+	private long attempts;
+	private long rejections;
+	private long rebuilds;
+
+	public ConnectionSampler(Brain.TopoOrder topoOrder) {
+		this.topoOrder = topoOrder;
+		this.builtVersion = -1;
+	}
+
+	// Draws a src, weighted by its number of dests, or returns null if no
+	// pair can be connected
+	public Neuron sampleSrc(Random random) {
+		this.ensureIndex();
+		int numSrcs = this.srcs.length;
+		if(numSrcs == 0 || this.cumulative[numSrcs - 1] == 0) {
+			return null;
+		}
+		long x = random.nextLong(this.cumulative[numSrcs - 1]);
+		int lo = 0;
+		int hi = numSrcs - 1;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(this.cumulative[mid] > x) {
+				hi = mid;
+			} else {
+				lo = mid + 1;
+			}
+		}
+		return this.srcs[lo];
+	}
+
+	// Draws one of the dests after src evenly, or returns null if there
+	// are none
+	public Neuron sampleDest(Neuron src, Random random) {
+		this.ensureIndex();
+		int first = this.firstDestAfter(src.getTopoRank());
+		int n = this.dests.length - first;
+		if(n == 0) {
+			return null;
+		}
+		++this.drawn;
+		return this.dests[first + random.nextInt(n)];
+	}
+
+	// Counts a pair tried without the sampler, passing on whether it
+	// could be connected
+	public boolean countAttempt(boolean accepted) {
+		++this.attempts;
+		if(!accepted) {
+			++this.rejections;
+		}
+		return accepted;
+	}
+
+	public long getDrawn() {
+		return this.drawn;
+	}
+
+	public long getAttempts() {
+		return this.attempts;
+	}
+
+	public long getRejections() {
+		return this.rejections;
+	}
+
+	public long getRebuilds() {
+		return this.rebuilds;
+	}
+
+	// Fraction of all pairs, drawn or tried, that could be connected
+	public double getAcceptanceRate() {
+		long total = this.drawn + this.attempts;
+		if(total == 0) {
+			return 1.0;
+		}
+		return (total - this.rejections) / (double) total;
+	}
+
+	// The same checks Brain.tryAddConnection makes on either end
+	public static boolean canHaveOutputs(Neuron n) {
+		return !(n instanceof PredictionNeuron)
+			|| n instanceof ActionNeuron
+			|| n instanceof MemoryNeuron;
+	}
+
+	public static boolean canHaveInputs(Neuron n) {
+		return !(n instanceof MemoryNeuron);
+	}
+
+	// index of the first of this.dests ranked after rank
+	private int firstDestAfter(int rank) {
+		int lo = 0;
+		int hi = this.destRank.length;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(this.destRank[mid] > rank) {
+				hi = mid;
+			} else {
+				lo = mid + 1;
+			}
+		}
+		return lo;
+	}
+
+	private void ensureIndex() {
+		if(this.builtVersion == this.topoOrder.getVersion()) {
+			return;
+		}
+		List<Neuron> order = this.topoOrder.getForwardOrder();
+		int numDests = 0;
+		int numSrcs = 0;
+		for(Neuron n : order) {
+			if(ConnectionSampler.canHaveInputs(n)) {
+				++numDests;
+			}
+			if(ConnectionSampler.canHaveOutputs(n)) {
+				++numSrcs;
+			}
+		}
+		this.dests = new Neuron[numDests];
+		this.destRank = new int[numDests];
+		this.srcs = new Neuron[numSrcs];
+		this.cumulative = new long[numSrcs];
+		int d = 0;
+		for(Neuron n : order) {
+			if(ConnectionSampler.canHaveInputs(n)) {
+				this.dests[d] = n;
+				this.destRank[d++] = n.getTopoRank();
+			}
+		}
+
+		// walking forward, the dests after a src are those not yet
+		// passed
+		int passed = 0;
+		int s = 0;
+		long total = 0;
+		for(Neuron n : order) {
+			if(ConnectionSampler.canHaveOutputs(n)) {
+				this.srcs[s] = n;
+				total += numDests - passed
+					- (ConnectionSampler.canHaveInputs(n)
+					   ? 1 : 0);
+				this.cumulative[s++] = total;
+			}
+			if(ConnectionSampler.canHaveInputs(n)) {
+				++passed;
+			}
+		}
+		this.builtVersion = this.topoOrder.getVersion();
+		++this.rebuilds;
+	}
+}
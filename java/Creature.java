@@ -1,6 +1,15 @@
 package AstroAI.java;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import AstroAI.java.Brain;
+import AstroAI.java.BrainRandom;
+import AstroAI.java.BrainStore;
 import AstroAI.java.Environment;
+import AstroAI.java.Feeler;
 import AstroAI.java.Genes;
 
 public class Creature {
@@ -9,19 +18,108 @@ public class Creature {
     private Genes myGenes;
     private Brain myBrain;
     
-    /*
-    public Creature(Environment env, Genes genes) {
+    public Creature(
+            Environment env,
+            Map<String, Feeler> senseList,
+            List<String> actionList,
+            double na,
+            double ana,
+            double perturbationRadius) {
+        this.myEnvironment = env;
+        this.myBrain = new Brain(
+            this, senseList, actionList, na, ana, perturbationRadius);
+    }
+    
+    public Creature(
+            Environment env,
+            Map<String, Feeler> senseList,
+            List<String> actionList,
+            double na,
+            double ana,
+            double perturbationRadius,
+            int numInterNeurons,
+            int numConnections) {
+        this.myEnvironment = env;
+        this.myBrain = new Brain(
+            this, senseList, actionList, na, ana, perturbationRadius,
+            numInterNeurons, numConnections);
+    }
+    
+    public Creature(
+            Environment env,
+            Map<String, Feeler> senseList,
+            List<String> actionList,
+            double na,
+            double ana,
+            double perturbationRadius,
+            int numInterNeurons,
+            int numConnections,
+            BrainRandom random) {
+        this.myEnvironment = env;
+        this.myBrain = new Brain(
+            this, senseList, actionList, na, ana, perturbationRadius,
+            numInterNeurons, numConnections, random);
+    }
+    
+    // A creature whose brain is restored from a snapshot BrainStore
+    // wrote, with the same senses and actions
+    public Creature(
+            Environment env,
+            Path snapshot,
+            Map<String, Feeler> senseList,
+            List<String> actionList) throws IOException {
+        this.myEnvironment = env;
+        this.myBrain = BrainStore.read(
+            snapshot, this, senseList, actionList);
+    }
+    
+    // A creature whose brain's adjustment rates, perturbation radius and
+    // geometry are the given genes
+    public Creature(
+            Environment env,
+            Genes genes,
+            Map<String, Feeler> senseList,
+            List<String> actionList,
+            BrainRandom random) {
         this.myEnvironment = env;
         this.myGenes = genes;
         this.myBrain = new Brain(
-            this,
-            genes.getAttribute("neuronAdjustment").doubleValue(),
-            genes.getAttribute("actionNeuronAdjustment").doubleValue());
+            this, senseList, actionList,
+            genes.get(Genes.NEURON_ADJUSTMENT),
+            genes.get(Genes.ACTION_NEURON_ADJUSTMENT),
+            genes.get(Genes.PERTURBATION_RADIUS),
+            genes.getInt(Genes.NUM_INTER_NEURONS),
+            genes.getNumConnections(senseList.size(), actionList.size()),
+            random);
+    }
+    
+    // An offspring of parent living in env and sensing the given Feelers,
+    // with a copy of parent's genes and a fork of its brain, which starts
+    // out knowing what parent's knows. See Brain.fork().
+    public Creature(
+            Environment env,
+            Creature parent,
+            Map<String, Feeler> senseList,
+            BrainRandom random) {
+        this.myEnvironment = env;
+        if(parent.myGenes != null) {
+            this.myGenes = parent.myGenes.copy();
+        }
+        this.myBrain = parent.myBrain.fork(this, senseList, random);
+    }
+
+    // the genes the creature was made from, or null
+    public Genes getGenes() {
+        return this.myGenes;
     }
-    */
+    
     
     public Environment getEnvironment() {
         return this.myEnvironment;
     }
     
+    public Brain getBrain() {
+        return this.myBrain;
+    }
+    
 }
\ No newline at end of file
@@ -1,15 +1,161 @@
 package AstroAI.java;
 
+import java.util.Arrays;
+
+import AstroAI.java.Creature;
+import AstroAI.java.SpatialGrid;
+
+// The world creatures live in: a clock, and the places of the creatures
+// that have one, in a SpatialGrid so that feelers can find a creature's
+// neighbors without looking at every creature.
+//
+// Places only change between ticks. Creatures may ask to move while they
+// think or learn, each on its own thread, but a move is only staged, in
+// the slot of the place that moves, and advanceTime() applies every
+// staged move to the grid at once. So every creature senses where the
+// others were at the start of the tick, whatever order they are ticked
+// in, and queries never see the grid change under them.
 public class Environment {
 
 	private int time;
-	
+	private SpatialGrid grid;
+	// the creature at each place, if it was given one, and the moves
+	// staged for the next tick
+	private Creature creatures[];
+	private double stagedX[];
+	private double stagedY[];
+	private boolean staged[];
+
 	public Environment() {
+		this(Environment.defaultCellSize);
+	}
+
+	// An environment whose grid has cells cellSize wide, which is best
+	// about the radius feelers sense within
+	public Environment(double cellSize) {
 		this.time = 0;
+		this.grid = new SpatialGrid(cellSize,
+					    Environment.initialPlaces);
+		this.creatures = new Creature[Environment.initialPlaces];
+		this.stagedX = new double[Environment.initialPlaces];
+		this.stagedY = new double[Environment.initialPlaces];
+		this.staged = new boolean[Environment.initialPlaces];
 	}
 
 	public int getTime() {
 		return this.time;
 	}
 
+	// Moves on to the next tick, applying the moves staged during this
+	// one. Must not be called while any creature in this environment is
+	// thinking or learning.
+	public void advanceTime() {
+		int limit = this.grid.getIdLimit();
+		for(int place = 0; place < limit; ++place) {
+			if(this.staged[place]) {
+				this.staged[place] = false;
+				this.grid.move(place, this.stagedX[place],
+					       this.stagedY[place]);
+			}
+		}
+		++this.time;
+	}
+
+	// Gives a place at (x, y) to a creature, or to something that is not
+	// one if creature is null, returning the place's id. Like
+	// advanceTime(), must not be called during a tick.
+	public int place(Creature creature, double x, double y) {
+		int place = this.grid.add(x, y);
+		if(place >= this.creatures.length) {
+			int n = Math.max(this.creatures.length * 2, place + 1);
+			this.creatures = Arrays.copyOf(this.creatures, n);
+			this.stagedX = Arrays.copyOf(this.stagedX, n);
+			this.stagedY = Arrays.copyOf(this.stagedY, n);
+			this.staged = Arrays.copyOf(this.staged, n);
+		}
+		this.creatures[place] = creature;
+		this.staged[place] = false;
+		return place;
+	}
+
+	// Names the creature at a place, eg, once a creature has been made
+	// with feelers sensing around its place
+	public void setCreature(int place, Creature creature) {
+		this.checkPlace(place);
+		this.creatures[place] = creature;
+	}
+
+	// Takes a place away. Must not be called during a tick.
+	public void unplace(int place) {
+		this.checkPlace(place);
+		this.grid.remove(place);
+		this.creatures[place] = null;
+		this.staged[place] = false;
+	}
+
+	// Stages a move of the place to (x, y), which takes effect at the
+	// next advanceTime(). May be called during a tick, but each place
+	// only from one thread.
+	public void move(int place, double x, double y) {
+		this.checkPlace(place);
+		this.stagedX[place] = x;
+		this.stagedY[place] = y;
+		this.staged[place] = true;
+	}
+
+	public double getX(int place) {
+		return this.grid.getX(place);
+	}
+
+	public double getY(int place) {
+		return this.grid.getY(place);
+	}
+
+	// the creature at a place, or null
+	public Creature getCreature(int place) {
+		this.checkPlace(place);
+		return this.creatures[place];
+	}
+
+	public int getNumPlaces() {
+		return this.grid.size();
+	}
+
+	// Finds the places within radius of the given one, other than itself
+	public void findWithin(int place, double radius,
+			       SpatialGrid.Neighbors out) {
+		this.checkPlace(place);
+		this.grid.findWithin(this.grid.getX(place),
+				     this.grid.getY(place), radius, place,
+				     out);
+	}
+
+	// Finds the k places nearest the given one, other than itself, nearest
+	// first
+	public void findNearest(int place, int k, SpatialGrid.Neighbors out) {
+		this.checkPlace(place);
+		this.grid.findNearest(this.grid.getX(place),
+				      this.grid.getY(place), k, place, out);
+	}
+
+	public void findWithin(double x, double y, double radius,
+			       SpatialGrid.Neighbors out) {
+		this.grid.findWithin(x, y, radius, -1, out);
+	}
+
+	public void findNearest(double x, double y, int k,
+				SpatialGrid.Neighbors out) {
+		this.grid.findNearest(x, y, k, -1, out);
+	}
+
+	private void checkPlace(int place) {
+		if(!this.grid.contains(place)) {
+			throw new IllegalArgumentException(
+				"No place has id " + place + ".");
+		}
+	}
+
+	public static final double defaultCellSize = 1.0;
+	public static final int initialPlaces = 16;
+
 }
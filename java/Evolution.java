@@ -0,0 +1,303 @@
+package AstroAI.java;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import AstroAI.java.BrainRandom;
+import AstroAI.java.Genes;
+
+// Searches Genes for the fittest creatures with a generational genetic
+// algorithm. Each generation, every new genome's fitness is evaluated, all
+// of them at once over a work-stealing pool; the fittest few carry over
+// unchanged, and the rest of the next generation are children of parents
+// picked by tournament, crossed and then mutated.
+//
+// What fitness means is up to the Fitness given, which typically builds a
+// Creature from the genes in an Environment of its own, runs it for a
+// while and scores it. Every evaluation is handed a generator split off
+// this engine's before the evaluations start, in genome order, so given
+// the engine's seed a search comes out the same however the evaluations
+// are spread over threads.
+public class Evolution {
+
+	private Evolution.Fitness fitness;
+	private ForkJoinPool pool;
+	private BrainRandom random;
+	private Genes genomes[];
+	// NaN until evaluated
+	private double fitnesses[];
+	private int generation;
+	private int numElite;
+	private int tournamentSize;
+	private double crossoverRate;
+	private double mutationRate;
+	private double mutationScale;
+	// total time spent evaluating fitness, on the wall clock
+	private long evaluationNanos;
+	private long evaluations;
+
+	// size random genomes, evaluated on pool, or on the calling thread if
+	// pool is null
+	public Evolution(int size, Evolution.Fitness fitness,
+			 ForkJoinPool pool, BrainRandom random) {
+		if(size < 2) {
+			throw new Evolution.EvolutionException(
+				"A population of " + size + " genomes cannot " +
+				"evolve; it takes at least 2.");
+		}
+		this.fitness = fitness;
+		this.pool = pool;
+		this.random = random;
+		this.genomes = new Genes[size];
+		this.fitnesses = new double[size];
+		for(int i = 0; i < size; ++i) {
+			this.genomes[i] = Genes.random(random);
+			this.fitnesses[i] = Double.NaN;
+		}
+		this.numElite = Evolution.defaultElite;
+		this.tournamentSize = Evolution.defaultTournamentSize;
+		this.crossoverRate = Evolution.defaultCrossoverRate;
+		this.mutationRate = Evolution.defaultMutationRate;
+		this.mutationScale = Evolution.defaultMutationScale;
+	}
+
+	public void evolve(int generations) {
+		for(int g = 0; g < generations; ++g) {
+			this.step();
+		}
+		this.evaluate();
+	}
+
+	// Evaluates the current generation and breeds the next
+	public void step() {
+		this.evaluate();
+		int size = this.genomes.length;
+		int order[] = this.getRanking();
+		Genes next[] = new Genes[size];
+		double nextFitnesses[] = new double[size];
+		int elite = Math.min(this.numElite, size);
+		for(int i = 0; i < elite; ++i) {
+			next[i] = this.genomes[order[i]];
+			nextFitnesses[i] = this.fitnesses[order[i]];
+		}
+		for(int i = elite; i < size; ++i) {
+			Genes child = this.genomes[this.tournament()];
+			if(this.random.nextDouble() < this.crossoverRate) {
+				child = child.crossover(
+					this.genomes[this.tournament()],
+					this.random);
+			} else {
+				child = child.copy();
+			}
+			child.mutate(this.random, this.mutationRate,
+				     this.mutationScale);
+			next[i] = child;
+			nextFitnesses[i] = Double.NaN;
+		}
+		this.genomes = next;
+		this.fitnesses = nextFitnesses;
+		++this.generation;
+	}
+
+	// Evaluates every genome not yet evaluated
+	public void evaluate() {
+		int size = this.genomes.length;
+		BrainRandom randoms[] = new BrainRandom[size];
+		int pending = 0;
+		for(int i = 0; i < size; ++i) {
+			if(Double.isNaN(this.fitnesses[i])) {
+				randoms[i] = this.random.split();
+				++pending;
+			}
+		}
+		if(pending == 0) {
+			return;
+		}
+		long start = System.nanoTime();
+		Evolution.EvaluateTask task =
+			new Evolution.EvaluateTask(randoms, 0, size);
+		if(this.pool != null) {
+			this.pool.invoke(task);
+		} else {
+			task.evaluate();
+		}
+		this.evaluationNanos += System.nanoTime() - start;
+		this.evaluations += pending;
+	}
+
+	// The index of the fittest of tournamentSize genomes drawn evenly
+	private int tournament() {
+		int best = this.random.nextInt(this.genomes.length);
+		for(int i = 1; i < this.tournamentSize; ++i) {
+			int other = this.random.nextInt(this.genomes.length);
+			if(this.fitnesses[other] > this.fitnesses[best]) {
+				best = other;
+			}
+		}
+		return best;
+	}
+
+	// Genome indices, fittest first; ties keep genome order
+	private int[] getRanking() {
+		Integer order[] = new Integer[this.genomes.length];
+		for(int i = 0; i < order.length; ++i) {
+			order[i] = i;
+		}
+		final double f[] = this.fitnesses;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(f[b], f[a]);
+			}
+		});
+		int ranking[] = new int[order.length];
+		for(int i = 0; i < order.length; ++i) {
+			ranking[i] = order[i];
+		}
+		return ranking;
+	}
+
+	// The fittest genome evaluated in the current generation
+	public Genes getBest() {
+		return this.genomes[this.getBestIndex()];
+	}
+
+	public double getBestFitness() {
+		return this.fitnesses[this.getBestIndex()];
+	}
+
+	private int getBestIndex() {
+		int best = 0;
+		for(int i = 1; i < this.genomes.length; ++i) {
+			if(this.fitnesses[i] > this.fitnesses[best]
+			   || Double.isNaN(this.fitnesses[best])) {
+				best = i;
+			}
+		}
+		return best;
+	}
+
+	// The mean fitness of the current generation's evaluated genomes
+	public double getMeanFitness() {
+		double sum = 0.0;
+		int n = 0;
+		for(double f : this.fitnesses) {
+			if(!Double.isNaN(f)) {
+				sum += f;
+				++n;
+			}
+		}
+		return n == 0 ? Double.NaN : sum / n;
+	}
+
+	public Genes getGenome(int i) {
+		return this.genomes[i];
+	}
+
+	// NaN if genome i has not been evaluated
+	public double getFitness(int i) {
+		return this.fitnesses[i];
+	}
+
+	public int getSize() {
+		return this.genomes.length;
+	}
+
+	public int getGeneration() {
+		return this.generation;
+	}
+
+	// Evaluations per second of wall clock time spent evaluating
+	public double getEvaluationsPerSecond() {
+		if(this.evaluationNanos == 0) {
+			return 0.0;
+		}
+		return this.evaluations / (this.evaluationNanos / 1e9);
+	}
+
+	// how many of the fittest carry over to the next generation as they
+	// are
+	public void setElite(int numElite) {
+		this.numElite = Math.max(numElite, 0);
+	}
+
+	public void setTournamentSize(int tournamentSize) {
+		this.tournamentSize = Math.max(tournamentSize, 1);
+	}
+
+	// the chance a child has two parents rather than one
+	public void setCrossoverRate(double crossoverRate) {
+		this.crossoverRate = crossoverRate;
+	}
+
+	// the chance each gene of a child mutates, and the deviation of a
+	// mutation, as a fraction of the width of the gene's bounds
+	public void setMutation(double rate, double scale) {
+		this.mutationRate = rate;
+		this.mutationScale = scale;
+	}
+
+	// Scores genes: higher is fitter. Called on the pool's threads, with
+	// a generator of the evaluation's own, so it must not share mutable
+	// state between calls.
+	public interface Fitness {
+		public double evaluate(Genes genes, BrainRandom random);
+	}
+
+	public static class EvolutionException extends RuntimeException {
+		public EvolutionException(String msg) {
+			super(msg);
+		}
+	}
+
+	// Evaluates the genomes in [lo, hi) that have generators, splitting
+	// the range in halves so idle workers can steal them
+	private class EvaluateTask extends RecursiveAction {
+		private BrainRandom randoms[];
+		private int lo;
+		private int hi;
+
+		public EvaluateTask(BrainRandom randoms[], int lo, int hi) {
+			this.randoms = randoms;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected void compute() {
+			if(this.hi - this.lo > 1) {
+				int mid = (this.lo + this.hi) >>> 1;
+				RecursiveAction.invokeAll(
+					new Evolution.EvaluateTask(
+						this.randoms, this.lo, mid),
+					new Evolution.EvaluateTask(
+						this.randoms, mid, this.hi));
+				return;
+			}
+			this.evaluate();
+		}
+
+		public void evaluate() {
+			Evolution e = Evolution.this;
+			for(int i = this.lo; i < this.hi; ++i) {
+				if(this.randoms[i] == null) {
+					continue;
+				}
+				double f = e.fitness.evaluate(e.genomes[i],
+							      this.randoms[i]);
+				// a genome that cannot be scored is the least
+				// fit
+				e.fitnesses[i] = Double.isNaN(f)
+					? Double.NEGATIVE_INFINITY : f;
+			}
+		}
+	}
+
+	public static final int defaultElite = 2;
+	public static final int defaultTournamentSize = 3;
+	public static final double defaultCrossoverRate = 0.7;
+	public static final double defaultMutationRate = 0.2;
+	public static final double defaultMutationScale = 0.1;
+}
@@ -12,6 +12,13 @@ public class Feeler {
         return this.stateValueImportance;
     }
 
+    // Called on the brain's thread at the start of every learn(), before
+    // any of the brain's feelers is asked to decodeSense(). Feelers that
+    // take their senses from elsewhere, like IngestFeeler, fetch them
+    // here.
+    public void drain() {
+    }
+    
     // TODO: implement this, or make Feeler an interface
     public double decodeSense() {
         return 0.0;
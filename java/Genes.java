@@ -1,16 +1,154 @@
 package AstroAI.java;
 
-import java.util.HashMap;
+import java.util.Random;
 
+// The heritable parameters of a creature: its brain's adjustment rates and
+// perturbation radius, and its geometry. Genes are doubles in a primitive
+// array, one per gene index, each kept within its bounds; the geometry
+// genes are integral and are kept whole. Copies are independent, so
+// genomes can be mutated and crossed on different threads.
 public class Genes {
 
-	private HashMap<String, Double> attributeValueMap;
+	private double values[];
 
+	// Every gene at the middle of its bounds
 	public Genes() {
-		attributeValueMap = new HashMap<String, Double>();
+		this.values = new double[Genes.numGenes];
+		for(int i = 0; i < Genes.numGenes; ++i) {
+			this.set(i, 0.5 * (Genes.min[i] + Genes.max[i]));
+		}
 	}
 
+	private Genes(double values[]) {
+		this.values = values;
+	}
+
+	// Every gene drawn evenly from its bounds
+	public static Genes random(Random random) {
+		Genes g = new Genes(new double[Genes.numGenes]);
+		for(int i = 0; i < Genes.numGenes; ++i) {
+			g.set(i, Genes.min[i] + random.nextDouble()
+			      * (Genes.max[i] - Genes.min[i]));
+		}
+		return g;
+	}
+
+	public double get(int gene) {
+		return this.values[gene];
+	}
+
+	public int getInt(int gene) {
+		return (int) this.values[gene];
+	}
+
+	// Sets a gene, clamped to its bounds and, if integral, rounded
+	public void set(int gene, double value) {
+		if(Genes.integral[gene]) {
+			value = Math.rint(value);
+		}
+		this.values[gene] = Math.max(Genes.min[gene],
+					     Math.min(Genes.max[gene], value));
+	}
+
+	// The gene of the given name, eg, "neuronAdjustment", or null if
+	// there is none
 	public Double getAttribute(String attrKey) {
-		return this.attributeValueMap.get(attrKey);
+		for(int i = 0; i < Genes.numGenes; ++i) {
+			if(Genes.names[i].equals(attrKey)) {
+				return this.values[i];
+			}
+		}
+		return null;
+	}
+
+	public Genes copy() {
+		return new Genes(this.values.clone());
 	}
+
+	// Moves each gene, with probability rate, by a Gaussian of scale
+	// times the width of its bounds
+	public void mutate(Random random, double rate, double scale) {
+		for(int i = 0; i < Genes.numGenes; ++i) {
+			if(random.nextDouble() < rate) {
+				double width = Genes.max[i] - Genes.min[i];
+				this.set(i, this.values[i] + scale * width
+					 * random.nextGaussian());
+			}
+		}
+	}
+
+	// A child taking each gene evenly from this or other
+	public Genes crossover(Genes other, Random random) {
+		Genes child = new Genes(new double[Genes.numGenes]);
+		for(int i = 0; i < Genes.numGenes; ++i) {
+			child.values[i] = random.nextBoolean()
+				? this.values[i] : other.values[i];
+		}
+		return child;
+	}
+
+	// NUM_CONNECTIONS, or fewer if a brain of the given senses and
+	// actions with NUM_INTER_NEURONS interneurons could not be connected
+	// that densely quickly: at most half the connections its neurons
+	// could have in any acyclic order
+	public int getNumConnections(int numSenses, int numActions) {
+		long numInter = this.getInt(Genes.NUM_INTER_NEURONS);
+		long memory = (long) (numSenses + numActions)
+			* Brain.memoryDepth;
+		long inner = numInter + numActions;
+		long pairs = memory * (inner + numSenses)
+			+ inner * (inner - 1) / 2 + inner * numSenses;
+		return (int) Math.min(this.getInt(Genes.NUM_CONNECTIONS),
+				      pairs / 2);
+	}
+
+	public static String getName(int gene) {
+		return Genes.names[gene];
+	}
+
+	public static double getMin(int gene) {
+		return Genes.min[gene];
+	}
+
+	public static double getMax(int gene) {
+		return Genes.max[gene];
+	}
+
+	public static boolean isIntegral(int gene) {
+		return Genes.integral[gene];
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder s = new StringBuilder("{");
+		for(int i = 0; i < Genes.numGenes; ++i) {
+			s.append(i == 0 ? "" : ", ").append(Genes.names[i])
+				.append('=');
+			if(Genes.integral[i]) {
+				s.append(this.getInt(i));
+			} else {
+				s.append(String.format("%.4g", this.values[i]));
+			}
+		}
+		return s.append('}').toString();
+	}
+
+	// the genes
+	public static final int NEURON_ADJUSTMENT = 0;
+	public static final int ACTION_NEURON_ADJUSTMENT = 1;
+	public static final int PERTURBATION_RADIUS = 2;
+	public static final int NUM_INTER_NEURONS = 3;
+	public static final int NUM_CONNECTIONS = 4;
+	public static final int numGenes = 5;
+	// the genes' names and bounds, by gene index. Private, so that no
+	// caller can move the bounds of every genome at once.
+	private static final String names[] = {
+		"neuronAdjustment", "actionNeuronAdjustment",
+		"perturbationRadius", "numInterNeurons", "numConnections"
+	};
+	private static final double min[] = {0.001, 0.001, 0.01, 10, 100};
+	private static final double max[] = {0.5, 0.5, 1.0, 400, 8000};
+	private static final boolean integral[] = {
+		false, false, false, true, true
+	};
 }
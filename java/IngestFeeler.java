@@ -0,0 +1,260 @@
+package AstroAI.java;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// A Feeler whose senses are decoded ahead of time, on a producer thread of
+// their own, so that decoding is off the brain's thread. The producer
+// publishes one decoded frame at a time into a single producer, single
+// consumer ring; the brain drains it at the start of each learn(), through
+// drain(), and decodeSense() then only returns what was drained.
+//
+// Neither side takes a lock. The producer owns head and the consumer owns
+// tail: a frame is written before head is released past it, and read
+// before tail is released past it, so each only needs to acquire the
+// other's index, and each keeps a stale copy of it to go back to the
+// shared one only when the ring looks full or empty. Only one thread may
+// publish, and only the brain's may drain.
+//
+// What happens when the producer gets ahead of the brain is the policy:
+//
+//   BLOCK   the producer waits for room, so the brain senses every frame,
+//           one per tick, in order: back-pressure
+//   DROP    the producer drops the frames the ring has no room for, and
+//           the brain senses the others, one per tick, in order
+//   LATEST  the producer never waits and the brain senses the newest frame
+//           published; a full ring loses its oldest frame
+//
+// With no frame ready the brain senses the last one again; getStalls()
+// counts the ticks that happens on.
+public class IngestFeeler extends Feeler {
+
+	private final double frames[];
+	private final int mask;
+	private final int policy;
+	// the next frame the producer writes, and the next the brain reads
+	private final AtomicLong head;
+	private final AtomicLong tail;
+	// the producer's last look at tail, and the brain's at head
+	private long cachedTail;
+	private long cachedHead;
+	// the frame the brain drained last
+	private double current;
+	private long stalls;
+	private final LongAdder published;
+	private final LongAdder dropped;
+	private IngestFeeler.Producer producer;
+
+	// capacity is rounded up to a power of 2
+	public IngestFeeler(double importance, int capacity, int policy) {
+		super(importance);
+		if(policy < IngestFeeler.BLOCK
+		   || policy > IngestFeeler.LATEST) {
+			throw new IngestFeeler.IngestException(
+				"Unknown ingest policy " + policy + ".");
+		}
+		int size = Math.max(capacity, 1);
+		size = Integer.highestOneBit(size) == size
+			? size : Integer.highestOneBit(size) << 1;
+		this.frames = new double[size];
+		this.mask = size - 1;
+		this.policy = policy;
+		this.head = new AtomicLong();
+		this.tail = new AtomicLong();
+		this.published = new LongAdder();
+		this.dropped = new LongAdder();
+	}
+
+	// Hands a decoded frame to the brain. Called on the producer's thread
+	// only. False if the frame was dropped. Under BLOCK, waits for room,
+	// and throws InterruptedException if the producer is interrupted
+	// while it waits.
+	public boolean publish(double value) throws InterruptedException {
+		long h = this.head.get();
+		if(h - this.cachedTail > this.mask) {
+			this.cachedTail = this.tail.getAcquire();
+			if(h - this.cachedTail > this.mask
+			   && !this.makeRoom(h)) {
+				this.dropped.increment();
+				return false;
+			}
+		}
+		this.frames[(int) h & this.mask] = value;
+		this.head.setRelease(h + 1);
+		this.published.increment();
+		return true;
+	}
+
+	// On a full ring, before frame h is written: whether there is room
+	// for it now
+	private boolean makeRoom(long h) throws InterruptedException {
+		switch(this.policy) {
+		case IngestFeeler.DROP:
+			return false;
+		case IngestFeeler.LATEST:
+			// The brain may be moving tail too, so only move it
+			// from where it still is.
+			while(h - this.cachedTail > this.mask) {
+				long t = this.cachedTail;
+				if(this.tail.compareAndSet(t, t + 1)) {
+					this.dropped.increment();
+					++this.cachedTail;
+				} else {
+					this.cachedTail = this.tail.get();
+				}
+			}
+			return true;
+		default:
+			int spins = 0;
+			while(h - this.cachedTail > this.mask) {
+				if(Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+				if(++spins < IngestFeeler.spinLimit) {
+					Thread.onSpinWait();
+				} else {
+					LockSupport.parkNanos(
+						IngestFeeler.parkNanos);
+				}
+				this.cachedTail = this.tail.getAcquire();
+			}
+			return true;
+		}
+	}
+
+	// Takes this tick's frame off the ring: the next one, or under LATEST
+	// the newest, discarding the rest. Called on the brain's thread only.
+	@Override
+	public void drain() {
+		long t = this.tail.get();
+		if(t == this.cachedHead) {
+			this.cachedHead = this.head.getAcquire();
+			if(t == this.cachedHead) {
+				++this.stalls;
+				return;
+			}
+		}
+		if(this.policy != IngestFeeler.LATEST) {
+			this.current = this.frames[(int) t & this.mask];
+			this.tail.setRelease(t + 1);
+			return;
+		}
+		// The producer may drop the frame read under us, by moving
+		// tail on, in which case read again.
+		while(true) {
+			long h = this.head.getAcquire();
+			double value = this.frames[(int) (h - 1) & this.mask];
+			if(this.tail.compareAndSet(t, h)) {
+				this.dropped.add(h - t - 1);
+				this.current = value;
+				this.cachedHead = h;
+				return;
+			}
+			t = this.tail.get();
+		}
+	}
+
+	@Override
+	public double decodeSense() {
+		return this.current;
+	}
+
+	// Starts a daemon thread publishing the frames decoder decodes, until
+	// stop() or decoder.decode() throwing InterruptedException. This is
+	// the ring's one producer, so publish() must not be called elsewhere
+	// until it stops.
+	public synchronized void start(IngestFeeler.Decoder decoder) {
+		if(this.producer != null) {
+			throw new IngestFeeler.IngestException(
+				"An IngestFeeler was started while its "
+				+ "producer was still running.");
+		}
+		this.producer = new IngestFeeler.Producer(this, decoder);
+		this.producer.start();
+	}
+
+	// Interrupts the producer start() started, if any, and waits for it
+	// to finish
+	public synchronized void stop() throws InterruptedException {
+		if(this.producer == null) {
+			return;
+		}
+		this.producer.interrupt();
+		this.producer.join();
+		this.producer = null;
+	}
+
+	public int getPolicy() {
+		return this.policy;
+	}
+
+	public int getCapacity() {
+		return this.frames.length;
+	}
+
+	// frames published and not yet drained, as of now
+	public int getBacklog() {
+		return (int) (this.head.get() - this.tail.get());
+	}
+
+	public long getPublished() {
+		return this.published.sum();
+	}
+
+	// frames lost to a full ring, under DROP or LATEST, and under LATEST
+	// also the frames a drain skipped past
+	public long getDropped() {
+		return this.dropped.sum();
+	}
+
+	// ticks drain() found no frame on
+	public long getStalls() {
+		return this.stalls;
+	}
+
+	// Decodes raw sensor data into frames, on the producer's thread
+	public interface Decoder {
+		public double decode() throws InterruptedException;
+	}
+
+	private static class Producer extends Thread {
+		private IngestFeeler feeler;
+		private IngestFeeler.Decoder decoder;
+
+		public Producer(IngestFeeler feeler,
+				IngestFeeler.Decoder decoder) {
+			super("IngestFeeler producer");
+			this.feeler = feeler;
+			this.decoder = decoder;
+			this.setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			try {
+				while(!this.isInterrupted()) {
+					this.feeler.publish(
+						this.decoder.decode());
+				}
+			} catch(InterruptedException e) {
+				// stopped
+			}
+		}
+	}
+
+	public static class IngestException extends RuntimeException {
+		public IngestException(String msg) {
+			super(msg);
+		}
+	}
+
+	// the policies
+	public static final int BLOCK = 0;
+	public static final int DROP = 1;
+	public static final int LATEST = 2;
+	// how long a blocked producer spins before it parks, and for how long
+	// it parks between looks at tail
+	private static final int spinLimit = 100;
+	private static final long parkNanos = 50000;
+}
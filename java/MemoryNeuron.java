@@ -15,6 +15,10 @@ public class MemoryNeuron extends PredictionNeuron {
 		this.timePassed = timePassed;
 	}
 	
+	public int getTimePassed() {
+		return this.timePassed;
+	}
+	
 	// Since the memory neuron only conveys the underlying sensor cell
 	// value, there is no reason to do expensive calculations here
 	@Override
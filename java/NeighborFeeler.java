@@ -0,0 +1,91 @@
+package AstroAI.java;
+
+import AstroAI.java.Environment;
+import AstroAI.java.Feeler;
+import AstroAI.java.SpatialGrid;
+
+// A Feeler sensing the neighbors of a place in its Environment, as the
+// environment's grid finds them. Each feeler keeps the answer to its last
+// query, so a creature's feelers can sense on the creature's thread while
+// other creatures' sense on theirs, and the creature can look at who its
+// neighbors were through getNeighbors().
+//
+// The place is given rather than the creature, as a creature's feelers are
+// made before it is:
+//
+//     int place = env.place(null, x, y);
+//     senses.put("crowd", new NeighborFeeler.Within(env, place, 2.0, 1.0));
+//     env.setCreature(place, new Creature(env, senses, ...));
+public abstract class NeighborFeeler extends Feeler {
+
+	protected Environment env;
+	protected int place;
+	protected SpatialGrid.Neighbors neighbors;
+
+	public NeighborFeeler(Environment env, int place, double importance) {
+		super(importance);
+		this.env = env;
+		this.place = place;
+		this.neighbors = new SpatialGrid.Neighbors();
+	}
+
+	public int getPlace() {
+		return this.place;
+	}
+
+	// the neighbors found when the feeler last sensed
+	public SpatialGrid.Neighbors getNeighbors() {
+		return this.neighbors;
+	}
+
+	// Senses how crowded the place is: n / (n + 1) for the n other places
+	// within radius, so 0 when alone and approaching 1 in a crowd
+	public static class Within extends NeighborFeeler {
+		private double radius;
+
+		public Within(Environment env, int place, double radius,
+			      double importance) {
+			super(env, place, importance);
+			this.radius = radius;
+		}
+
+		@Override
+		public double decodeSense() {
+			this.env.findWithin(this.place, this.radius,
+					    this.neighbors);
+			int n = this.neighbors.getCount();
+			return n / (n + 1.0);
+		}
+	}
+
+	// Senses how close the k nearest other places are: scale / (scale +
+	// d) for their mean distance d, so 1 when they are on top of the
+	// place and approaching 0 as they get farther than scale away; 0 with
+	// no other place
+	public static class Nearest extends NeighborFeeler {
+		private int k;
+		private double scale;
+
+		public Nearest(Environment env, int place, int k, double scale,
+			       double importance) {
+			super(env, place, importance);
+			this.k = k;
+			this.scale = scale;
+		}
+
+		@Override
+		public double decodeSense() {
+			this.env.findNearest(this.place, this.k,
+					     this.neighbors);
+			int n = this.neighbors.getCount();
+			if(n == 0) {
+				return 0.0;
+			}
+			double sum = 0.0;
+			for(int i = 0; i < n; ++i) {
+				sum += this.neighbors.getDistance(i);
+			}
+			return this.scale / (this.scale + sum / n);
+		}
+	}
+}
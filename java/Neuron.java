@@ -4,6 +4,7 @@ import AstroAI.java.Connection;
 
 import java.lang.Math;
 import java.lang.RuntimeException;
+import java.util.ArrayDeque;
 import java.util.HashSet;
 import java.util.Iterator;
 
@@ -15,7 +16,8 @@ public class Neuron {
 	protected HashSet<Connection> inputs;
 	// the outgoing connections from this neuron
 	protected HashSet<Connection> outputs;
-	// all neurons which are reachable from this neuron
+	// all neurons which are reachable from this neuron, itself included.
+	// Only kept up to date for action neurons, by their brain.
 	protected HashSet<Neuron> fanout;
 	// value added to weighted input sum before applying the sigmoid
 	// function
@@ -26,9 +28,9 @@ public class Neuron {
 		this.outputs = new HashSet<Connection>();
 		this.fanout = new HashSet<Neuron>();
 		this.fanout.add(this);
-		this.bias = GaussGetter.getGauss().doubleValue();
+		this.bias = b.getRandom().nextGaussian();
 		this.myBrain = b;
-		this.resetDFSState();
+		this.resetTopoState();
 	}
 
 	// utility variables for tracking outputs derived from NN computations
@@ -121,6 +123,19 @@ public class Neuron {
 		return this.lastIdealOutput;
 	}
 	
+	public double getBias() {
+		return this.bias;
+	}
+	
+	// Overwrites the values a CompiledBrain has been computing on this
+	// neuron's behalf
+	public void setState(double bias, double calculatedOutput,
+			     double idealOutput) {
+		this.bias = bias;
+		this.lastCalculatedOutput = calculatedOutput;
+		this.lastIdealOutput = idealOutput;
+	}
+	
 	public void addInputConnection(Connection c) {
 		// check that c.dest == this neuron
 		if(c.getDestNeuron() != this) {
@@ -153,38 +168,79 @@ public class Neuron {
 		this.outputs.remove(c);
 	}
 	
+	public int getNumInputs() {
+		return this.inputs.size();
+	}
+	
 	public int getNumOutputs() {
 		return this.outputs.size();
 	}
 	
-	// Assigns pre and post numbers to itself
-	protected int dfsPre;
-	protected int dfsPost;
-	public void DFS(Brain.DFSClock clock) {
-		if(this.dfsPre >= 0) {
-			// already visited, do nothing
+	public Iterable<Connection> getInputConnections() {
+		return this.inputs;
+	}
+	
+	public Iterable<Connection> getOutputConnections() {
+		return this.outputs;
+	}
+	
+	// Position of this neuron in its brain's topological order, and a
+	// mark used while that order is being built or repaired
+	protected int topoRank;
+	protected boolean topoMark;
+	
+	// Adds n and every neuron reachable from it to this neuron's fanout,
+	// skipping those already in it, whose dests are in it too
+	public void extendFanout(Neuron n) {
+		if(this.fanout.contains(n)) {
 			return;
 		}
-		
-		this.dfsPre = clock.getTime();
+		ArrayDeque<Neuron> stack = new ArrayDeque<Neuron>();
+		this.fanout.add(n);
+		stack.push(n);
+		while(!stack.isEmpty()) {
+			for(Connection c : stack.pop().outputs) {
+				Neuron dest = c.getDestNeuron();
+				if(this.fanout.add(dest)) {
+					stack.push(dest);
+				}
+			}
+		}
+	}
+	
+	// Works the fanout out afresh, eg, after a connection in it is
+	// removed
+	public void rebuildFanout() {
+		this.fanout.clear();
+		this.fanout.add(this);
 		for(Connection c : this.outputs) {
-			c.getDestNeuron().DFS(clock);
+			this.extendFanout(c.getDestNeuron());
 		}
-		this.dfsPost = clock.getTime();
-		clock.addToTopo(this);
 	}
 	
-	public int getDFSPre() {
-		return this.dfsPre;
+	public boolean isInFanout(Neuron n) {
+		return this.fanout.contains(n);
+	}
+	
+	public int getTopoRank() {
+		return this.topoRank;
+	}
+	
+	public void setTopoRank(int rank) {
+		this.topoRank = rank;
+	}
+	
+	public boolean isTopoMarked() {
+		return this.topoMark;
 	}
 	
-	public int getDFSPost() {
-		return this.dfsPost;
+	public void setTopoMark(boolean mark) {
+		this.topoMark = mark;
 	}
 	
-	public void resetDFSState() {
-		this.dfsPre = -1;
-		this.dfsPost = -1;
+	public void resetTopoState() {
+		this.topoRank = -1;
+		this.topoMark = false;
 	}
 
 	public Environment getEnvironment() {
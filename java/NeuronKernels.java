@@ -0,0 +1,116 @@
+package AstroAI.java;
+
+// The inner loops of the compiled passes, over one neuron's row of input
+// entries [from, to): weight[k] is the entry's weight and
+// activation[srcIndex[k]] its src neuron's output. The batched kernels
+// take a batch of lanes outputs per neuron instead, neuron s's at
+// activation[s * lanes] up to activation[s * lanes + lanes].
+//
+// The scalar kernels sum in entry order, exactly as the object graph does.
+// Wider kernels, such as the Vector API ones in AstroAI.java.vector, sum in
+// several lanes at once, so their results can differ from the scalar ones
+// in the last bits.
+public abstract class NeuronKernels {
+
+	// bias plus the weighted sum of the inputs
+	public abstract double weightedSum(double bias, double weight[],
+					   int srcIndex[], double activation[],
+					   int from, int to);
+
+	// 1.0 plus the sum of the squared inputs
+	public abstract double gradientMagnitudeSquared(int srcIndex[],
+							double activation[],
+							int from, int to);
+
+	// moves every weight by frac times its input
+	public abstract void adjustWeights(double weight[], int srcIndex[],
+					   double activation[], double frac,
+					   int from, int to);
+
+	public abstract String getName();
+
+	// weightedSum() on every lane of a batch at once, into out[0] up to
+	// out[lanes]: each weight is loaded once for the whole batch, and
+	// its src's lanes are contiguous. Each lane sums in entry order, so
+	// gets exactly what weightedSum() would on its own.
+	public void batchedWeightedSum(double bias, double weight[],
+				       int srcIndex[], double activation[],
+				       int lanes, int from, int to,
+				       double out[]) {
+		for(int b = 0; b < lanes; ++b) {
+			out[b] = bias;
+		}
+		for(int k = from; k < to; ++k) {
+			double w = weight[k];
+			int base = srcIndex[k] * lanes;
+			for(int b = 0; b < lanes; ++b) {
+				out[b] += w * activation[base + b];
+			}
+		}
+	}
+
+	public static NeuronKernels scalar() {
+		return NeuronKernels.scalarKernels;
+	}
+
+	// The Vector API kernels if the jdk.incubator.vector module has been
+	// added to the JVM (--add-modules jdk.incubator.vector) and they were
+	// compiled in, otherwise the scalar ones
+	public static NeuronKernels widest() {
+		if(!ModuleLayer.boot().findModule("jdk.incubator.vector")
+		   .isPresent()) {
+			return NeuronKernels.scalar();
+		}
+		try {
+			return (NeuronKernels) Class.forName(
+				"AstroAI.java.vector.VectorNeuronKernels")
+				.getDeclaredConstructor().newInstance();
+		} catch(ReflectiveOperationException | LinkageError e) {
+			return NeuronKernels.scalar();
+		}
+	}
+
+	private static final NeuronKernels scalarKernels =
+		new NeuronKernels.Scalar();
+
+	private static class Scalar extends NeuronKernels {
+
+		@Override
+		public double weightedSum(double bias, double weight[],
+					  int srcIndex[], double activation[],
+					  int from, int to) {
+			double out = bias;
+			for(int k = from; k < to; ++k) {
+				out += weight[k] * activation[srcIndex[k]];
+			}
+			return out;
+		}
+
+		@Override
+		public double gradientMagnitudeSquared(int srcIndex[],
+						       double activation[],
+						       int from, int to) {
+			double grad_mag_squared = 1.0; // from bias
+			for(int k = from; k < to; ++k) {
+				double v = activation[srcIndex[k]];
+				grad_mag_squared += v*v;
+			}
+			return grad_mag_squared;
+		}
+
+		@Override
+		public void adjustWeights(double weight[], int srcIndex[],
+					  double activation[], double frac,
+					  int from, int to) {
+			for(int k = from; k < to; ++k) {
+				weight[k] = weight[k]
+					+ frac * activation[srcIndex[k]];
+			}
+		}
+
+		@Override
+		public String getName() {
+			return "scalar";
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package AstroAI.java;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import AstroAI.java.Brain;
+import AstroAI.java.Creature;
+import AstroAI.java.Environment;
+
+// Runs many Creatures sharing one Environment. Each tick, every creature's
+// brain thinks and then learns, spread over a work-stealing pool; once all
+// of them are done the environment moves on to the next tick. Brains share
+// no mutable state with each other, and the environment only changes
+// between ticks, so the creatures need no locking.
+public class Population {
+
+	private Environment myEnvironment;
+	private ArrayList<Creature> creatures;
+	private ForkJoinPool pool;
+
+	// ticks run so far, and the wall clock time they took; creature
+	// ticks run so far, over all creatures, and for each creature since
+	// it was added and the time spent on it
+	private long ticks;
+	private long wallNanos;
+	private long creatureTicksRun;
+	private long creatureTicks[];
+	private long creatureNanos[];
+
+	public Population(Environment env, int parallelism) {
+		this.myEnvironment = env;
+		this.creatures = new ArrayList<Creature>();
+		this.pool = new ForkJoinPool(parallelism);
+		this.creatureTicks = new long[0];
+		this.creatureNanos = new long[0];
+	}
+
+	// Adds a creature, which must live in this population's environment
+	public void addCreature(Creature c) {
+		if(c.getEnvironment() != this.myEnvironment) {
+			throw new IllegalArgumentException(
+				"Creature does not live in this population's " +
+				"environment.");
+		}
+		this.creatures.add(c);
+		this.creatureTicks = Arrays.copyOf(this.creatureTicks,
+						   this.creatures.size());
+		this.creatureNanos = Arrays.copyOf(this.creatureNanos,
+						   this.creatures.size());
+	}
+
+	public List<Creature> getCreatures() {
+		return this.creatures;
+	}
+
+	public Environment getEnvironment() {
+		return this.myEnvironment;
+	}
+
+	// Runs a single tick for every creature, then advances the
+	// environment's time
+	public void tick() {
+		long start = System.nanoTime();
+		this.pool.invoke(
+			new Population.TickTask(0, this.creatures.size()));
+		this.myEnvironment.advanceTime();
+		this.wallNanos += System.nanoTime() - start;
+		++this.ticks;
+		this.creatureTicksRun += this.creatures.size();
+	}
+
+	public void run(int numTicks) {
+		for(int i = 0; i < numTicks; ++i) {
+			this.tick();
+		}
+	}
+
+	public long getTicks() {
+		return this.ticks;
+	}
+
+	// Creature ticks completed per second of wall clock time, over all
+	// creatures, each counting only the ticks it was in the population
+	// for
+	public double getAggregateTicksPerSecond() {
+		if(this.wallNanos == 0) {
+			return 0.0;
+		}
+		return this.creatureTicksRun / (this.wallNanos / 1e9);
+	}
+
+	// Ticks per second of the time spent on the given creature alone,
+	// since it was added
+	public double getTicksPerSecond(int creature) {
+		long nanos = this.creatureNanos[creature];
+		if(nanos == 0) {
+			return 0.0;
+		}
+		return this.creatureTicks[creature] / (nanos / 1e9);
+	}
+
+	public void shutdown() {
+		this.pool.shutdown();
+	}
+
+	// Ticks the creatures in [lo, hi), splitting the range in halves so
+	// idle workers can steal them
+	private class TickTask extends RecursiveAction {
+		private int lo;
+		private int hi;
+
+		public TickTask(int lo, int hi) {
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected void compute() {
+			if(this.hi - this.lo > 1) {
+				int mid = (this.lo + this.hi) >>> 1;
+				RecursiveAction.invokeAll(
+					new Population.TickTask(this.lo, mid),
+					new Population.TickTask(mid, this.hi));
+				return;
+			}
+			for(int i = this.lo; i < this.hi; ++i) {
+				long start = System.nanoTime();
+				Brain b = Population.this.creatures.get(i)
+					.getBrain();
+				b.think();
+				b.learn();
+				Population.this.creatureNanos[i] +=
+					System.nanoTime() - start;
+				++Population.this.creatureTicks[i];
+			}
+		}
+	}
+}
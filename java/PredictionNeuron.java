@@ -15,6 +15,10 @@ public class PredictionNeuron extends Neuron {
 	this.mySensorCell = sc;
     }
 
+    public SensorCell getSensorCell() {
+        return this.mySensorCell;
+    }
+
     private void updateSensorCellWithIdealOutput() {
         this.mySensorCell.setSenseAtPredictionOffset(this.lastIdealOutput);
     }
@@ -0,0 +1,155 @@
+package AstroAI.java;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+import AstroAI.java.Brain;
+import AstroAI.java.BrainStore;
+import AstroAI.java.Feeler;
+
+// Records what a brain senses and does, tick by tick, for SenseReplay to
+// train brains on later at the speed of the disk. A log is a header
+// (magic number, format version, the block size, the number of ticks, and
+// the name of each column and the importance of each sense) and then
+// blocks of SenseRecorder.blockTicks ticks. A block is columnar: all its
+// ticks of the first sense, then of the next, and after the senses each
+// action likewise, so a column of a block is one run of doubles. The last
+// block is written whole, its unused ticks zero.
+//
+// Ticks are staged in one block buffer and written a block at a time, so
+// append() neither allocates nor touches the disk until a block is full.
+public class SenseRecorder implements Closeable {
+
+	private Path path;
+	private FileChannel channel;
+	private String senses[];
+	private String actions[];
+	private int numColumns;
+	private ByteBuffer block;
+	private int row;
+	private long ticks;
+
+	// Creates or truncates the log at path for a brain with the given
+	// senses and actions, which are recorded in the order given
+	public SenseRecorder(Path path, Map<String, Feeler> senseList,
+			     List<String> actionList) throws IOException {
+		this.path = path;
+		this.senses = senseList.keySet().toArray(new String[0]);
+		this.actions = actionList.toArray(new String[0]);
+		this.numColumns = this.senses.length + this.actions.length;
+		this.block = ByteBuffer.allocateDirect(
+			this.numColumns * SenseRecorder.blockTicks * 8);
+
+		int size = SenseRecorder.headerBytes;
+		for(String sense : this.senses) {
+			size += BrainStore.getStringSize(sense) + 8;
+		}
+		for(String action : this.actions) {
+			size += BrainStore.getStringSize(action);
+		}
+		// blocks start 8 byte aligned
+		size = (size + 7) & ~7;
+		ByteBuffer header = ByteBuffer.allocate(size);
+		header.putInt(SenseRecorder.magic);
+		header.putInt(SenseRecorder.version);
+		header.putInt(SenseRecorder.blockTicks);
+		header.putInt(this.senses.length);
+		header.putInt(this.actions.length);
+		header.putInt(size);
+		header.putLong(0);
+		for(String sense : this.senses) {
+			BrainStore.putString(header, sense);
+			header.putDouble(
+				senseList.get(sense).getStateValueImportance());
+		}
+		for(String action : this.actions) {
+			BrainStore.putString(header, action);
+		}
+		header.clear();
+
+		this.channel = FileChannel.open(path,
+			StandardOpenOption.CREATE,
+			StandardOpenOption.TRUNCATE_EXISTING,
+			StandardOpenOption.WRITE);
+		while(header.hasRemaining()) {
+			this.channel.write(header);
+		}
+	}
+
+	// Appends b's current senses and actions as the next tick: call it
+	// after each learn()
+	public void append(Brain b) throws IOException {
+		for(int c = 0; c < this.senses.length; ++c) {
+			this.put(c, b.getSenseValue(this.senses[c]));
+		}
+		for(int c = 0; c < this.actions.length; ++c) {
+			this.put(this.senses.length + c,
+				 b.getActionValue(this.actions[c]));
+		}
+		++this.ticks;
+		if(++this.row == SenseRecorder.blockTicks) {
+			this.flushBlock();
+		}
+	}
+
+	private void put(int column, double value) {
+		this.block.putDouble(8 * (column * SenseRecorder.blockTicks
+					  + this.row), value);
+	}
+
+	private void flushBlock() throws IOException {
+		this.block.clear();
+		while(this.block.hasRemaining()) {
+			this.channel.write(this.block);
+		}
+		this.block.clear();
+		for(int i = 0; i < this.block.capacity(); i += 8) {
+			this.block.putLong(i, 0);
+		}
+		this.row = 0;
+	}
+
+	public long getTicks() {
+		return this.ticks;
+	}
+
+	public Path getPath() {
+		return this.path;
+	}
+
+	// Writes the last block and the number of ticks
+	@Override
+	public void close() throws IOException {
+		if(this.channel == null) {
+			return;
+		}
+		try {
+			if(this.row > 0) {
+				this.flushBlock();
+			}
+			ByteBuffer ticks = ByteBuffer.allocate(8);
+			ticks.putLong(0, this.ticks);
+			this.channel.write(ticks, SenseRecorder.ticksOffset);
+			this.channel.force(true);
+		} finally {
+			this.channel.close();
+			this.channel = null;
+		}
+	}
+
+	// "AISr"
+	public static final int magic = 0x41495372;
+	public static final int version = 1;
+	// ticks per block
+	public static final int blockTicks = 1024;
+	// magic, version, blockTicks, senses, actions, the offset of the
+	// first block and the number of ticks
+	public static final int headerBytes = 4 * 6 + 8;
+	public static final int ticksOffset = 4 * 6;
+}
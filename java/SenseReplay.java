@@ -0,0 +1,231 @@
+package AstroAI.java;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import AstroAI.java.BrainStore;
+import AstroAI.java.Environment;
+import AstroAI.java.Feeler;
+import AstroAI.java.SenseRecorder;
+
+// Plays back a log SenseRecorder wrote. The log is mapped read only, so
+// its pages are shared with the page cache and reading a sample is an
+// absolute get from a mapped buffer: nothing is copied or allocated. A
+// brain trains on it through getSenseList(), whose feelers sense the
+// recorded column at the replay's tick: the ticks its environment has
+// moved on since the replay started, as live feelers sense at its time.
+//
+//     SenseReplay replay = new SenseReplay(path, env);
+//     Brain b = new Creature(env, replay.getSenseList(),
+//                            replay.getActionList(), ...).getBrain();
+//     while(!replay.isFinished()) {
+//         b.think();
+//         b.learn();
+//         env.advanceTime();
+//     }
+//
+// A brain fed the senses a recorded one was fed learns as it did, as fast
+// as it can think. Past the last tick the feelers sense the last tick.
+public class SenseReplay implements Closeable {
+
+	private Path path;
+	private FileChannel channel;
+	private int blockTicks;
+	private long ticks;
+	private long dataOffset;
+	private String senses[];
+	private double importances[];
+	private String actions[];
+	private int numColumns;
+	private long blockBytes;
+	// the blocks, segmentBlocks of them to a mapping, as a mapping is at
+	// most 2GB
+	private MappedByteBuffer segments[];
+	private int segmentBlocks;
+	private Environment env;
+	// the environment's time at the replay's first tick
+	private int startTime;
+
+	public SenseReplay(Path path, Environment env) throws IOException {
+		this.path = path;
+		this.env = env;
+		this.startTime = env.getTime();
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			this.readHeader();
+			this.mapBlocks();
+		} catch(IOException | RuntimeException e) {
+			this.channel.close();
+			throw e;
+		}
+	}
+
+	private void readHeader() throws IOException {
+		long size = this.channel.size();
+		MappedByteBuffer header = this.channel.map(
+			FileChannel.MapMode.READ_ONLY, 0,
+			Math.min(size, Integer.MAX_VALUE));
+		try {
+			if(header.remaining() < SenseRecorder.headerBytes
+			   || header.getInt() != SenseRecorder.magic) {
+				throw new IOException(this.path + " is not a " +
+						      "sense log.");
+			}
+			int version = header.getInt();
+			if(version != SenseRecorder.version) {
+				throw new IOException(this.path + " is a " +
+					"version " + version + " sense log, " +
+					"not version " + SenseRecorder.version +
+					".");
+			}
+			this.blockTicks = header.getInt();
+			this.senses = new String[header.getInt()];
+			this.importances = new double[this.senses.length];
+			this.actions = new String[header.getInt()];
+			this.dataOffset = header.getInt();
+			this.ticks = header.getLong();
+			for(int c = 0; c < this.senses.length; ++c) {
+				this.senses[c] = BrainStore.getString(header);
+				this.importances[c] = header.getDouble();
+			}
+			for(int c = 0; c < this.actions.length; ++c) {
+				this.actions[c] = BrainStore.getString(header);
+			}
+		} catch(BufferUnderflowException e) {
+			throw new IOException(this.path + " is truncated.", e);
+		}
+		this.numColumns = this.senses.length + this.actions.length;
+		this.blockBytes = 8L * this.numColumns * this.blockTicks;
+		long blocks = (this.ticks + this.blockTicks - 1)
+			/ this.blockTicks;
+		if(this.ticks == 0 || this.blockBytes == 0) {
+			throw new IOException(this.path + " has no ticks; " +
+					      "its recorder may not have " +
+					      "been closed.");
+		}
+		if(this.dataOffset + blocks * this.blockBytes > size) {
+			throw new IOException(this.path + " is truncated.");
+		}
+	}
+
+	private void mapBlocks() throws IOException {
+		long blocks = (this.ticks + this.blockTicks - 1)
+			/ this.blockTicks;
+		this.segmentBlocks = (int) Math.max(1,
+			SenseReplay.segmentBytes / this.blockBytes);
+		int numSegments = (int) ((blocks + this.segmentBlocks - 1)
+					 / this.segmentBlocks);
+		this.segments = new MappedByteBuffer[numSegments];
+		for(int s = 0; s < numSegments; ++s) {
+			long first = (long) s * this.segmentBlocks;
+			long count = Math.min(this.segmentBlocks,
+					      blocks - first);
+			this.segments[s] = this.channel.map(
+				FileChannel.MapMode.READ_ONLY,
+				this.dataOffset + first * this.blockBytes,
+				count * this.blockBytes);
+		}
+	}
+
+	// The recorded value of the given column, senses first and then
+	// actions, at the given tick
+	public double getValue(int column, long tick) {
+		long block = tick / this.blockTicks;
+		int row = (int) (tick - block * this.blockTicks);
+		int segment = (int) (block / this.segmentBlocks);
+		long inSegment = block - (long) segment * this.segmentBlocks;
+		return this.segments[segment].getDouble((int)
+			(inSegment * this.blockBytes
+			 + 8L * ((long) column * this.blockTicks + row)));
+	}
+
+	// Feelers sensing each recorded sense at the replay's tick, by name
+	// and in the recorded order, with the recorded importances
+	public Map<String, Feeler> getSenseList() {
+		LinkedHashMap<String, Feeler> senseList =
+			new LinkedHashMap<String, Feeler>();
+		for(int c = 0; c < this.senses.length; ++c) {
+			senseList.put(this.senses[c],
+				      new SenseReplay.ReplayFeeler(this, c));
+		}
+		return senseList;
+	}
+
+	public List<String> getActionList() {
+		List<String> actionList = new ArrayList<String>();
+		for(String action : this.actions) {
+			actionList.add(action);
+		}
+		return actionList;
+	}
+
+	// The action the recorded brain chose at the replay's tick
+	public double getActionValue(String action) {
+		for(int c = 0; c < this.actions.length; ++c) {
+			if(this.actions[c].equals(action)) {
+				return this.getValue(this.senses.length + c,
+						     this.getTick());
+			}
+		}
+		throw new IllegalArgumentException(
+			"No action called " + action + " was recorded.");
+	}
+
+	// Starts the replay over at the environment's current time
+	public void rewind() {
+		this.startTime = this.env.getTime();
+	}
+
+	// The tick being replayed, which stays at the last one once the
+	// replay is finished
+	public long getTick() {
+		long tick = this.env.getTime() - this.startTime;
+		return Math.max(0, Math.min(tick, this.ticks - 1));
+	}
+
+	// whether the environment has moved past the last tick
+	public boolean isFinished() {
+		return this.env.getTime() - this.startTime >= this.ticks;
+	}
+
+	public long getTicks() {
+		return this.ticks;
+	}
+
+	// The mappings stay valid until they are collected; only the channel
+	// is closed
+	@Override
+	public void close() throws IOException {
+		this.channel.close();
+	}
+
+	// Senses one column of a SenseReplay at its tick
+	public static class ReplayFeeler extends Feeler {
+		private SenseReplay replay;
+		private int column;
+
+		public ReplayFeeler(SenseReplay replay, int column) {
+			super(replay.importances[column]);
+			this.replay = replay;
+			this.column = column;
+		}
+
+		@Override
+		public double decodeSense() {
+			return this.replay.getValue(this.column,
+						    this.replay.getTick());
+		}
+	}
+
+	// how much of the log one mapping covers, in whole blocks
+	public static final long segmentBytes = 1L << 30;
+}
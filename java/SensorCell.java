@@ -1,5 +1,7 @@
 package AstroAI.java;
 
+import java.nio.ByteBuffer;
+
 import AstroAI.java.Brain;
 
 public class SensorCell {
@@ -40,9 +42,38 @@ public class SensorCell {
             this.myBrain.getCurrentPredictionIndex()];
     }
     
+    // offset may reach back past the start of the ring, so wrap it
     public double getSenseAtOffsetFromPredictionOffset(int offset) {
-        return this.memAndPredictions[
-            this.myBrain.getCurrentPredictionIndex() + offset];
+        return this.memAndPredictions[Math.floorMod(
+            this.myBrain.getCurrentPredictionIndex() + offset,
+            Brain.sensorCellDepth)];
+    }
+    
+    public Feeler getFeeler() {
+        return this.feeler;
+    }
+    
+    // The raw ring of past senses and predictions, indexed like
+    // Brain.getCurrentPredictionIndex(). CompiledBrain reads and writes
+    // it directly.
+    public double[] getMemAndPredictions() {
+        return this.memAndPredictions;
+    }
+    
+    // Writes the ring and the value a perturbation would be undone to, in
+    // stateBytes bytes
+    public void writeState(ByteBuffer buf) {
+        for(int i = 0; i < Brain.sensorCellDepth; ++i) {
+            buf.putDouble(this.memAndPredictions[i]);
+        }
+        buf.putDouble(this.storedSenseVal);
+    }
+    
+    public void readState(ByteBuffer buf) {
+        for(int i = 0; i < Brain.sensorCellDepth; ++i) {
+            this.memAndPredictions[i] = buf.getDouble();
+        }
+        this.storedSenseVal = buf.getDouble();
     }
     
     // TODO: incorporate past error uncertainty into this calculation
@@ -76,6 +107,8 @@ public class SensorCell {
             this.feeler.decodeSense());
     }
     
+    public static final int stateBytes = 8 * (Brain.sensorCellDepth + 1);
+    
     public static class StateValueImportanceQueryException
         extends RuntimeException {
         
@@ -0,0 +1,521 @@
+package AstroAI.java;
+
+import java.util.Arrays;
+
+// Points in the plane, hashed into a uniform grid of square cells for
+// neighbor queries. Each point has an id, handed out like WeightHistory
+// slots, and its coordinates are kept in primitive arrays indexed by it.
+// The points in a cell form an intrusive doubly linked list through next[]
+// and prev[], and the occupied cells are found through an open addressing
+// table keyed by the cell's coordinates, so the plane is unbounded and
+// only occupied cells take memory. Moving a point within its cell only
+// updates its coordinates; moving it to another cell unlinks and links it,
+// both in constant time.
+//
+// A query only looks at the cells that can hold an answer: the cells the
+// radius reaches, or, for the nearest points, rings of cells outward from
+// the query's until no unvisited cell can be closer than the kth nearest
+// point found. With cells about as wide as the typical query radius and a
+// bounded density, a query costs a constant, and sensing for every point
+// is linear in the number of points.
+//
+// Queries only read, so any number may run at once, as long as nothing
+// is added, moved or removed meanwhile.
+public class SpatialGrid {
+
+	private double cellSize;
+	private double inverseCellSize;
+
+	// the points, by id
+	private int capacity;
+	private int numIds;
+	private int freeIds[];
+	private int numFree;
+	private int size;
+	private double x[];
+	private double y[];
+	private long cellOf[];
+	private boolean live[];
+	private int next[];
+	private int prev[];
+
+	// the occupied cells: their keys and the first point in each, or
+	// emptyKey where a slot is free. tableMask + 1 slots, a power of 2.
+	private long cellKeys[];
+	private int cellHeads[];
+	private int tableMask;
+	private int numCells;
+
+	public SpatialGrid(double cellSize, int initialCapacity) {
+		if(!(cellSize > 0.0)) {
+			throw new IllegalArgumentException(
+				"Cells must be wider than 0, not " + cellSize +
+				".");
+		}
+		this.cellSize = cellSize;
+		this.inverseCellSize = 1.0 / cellSize;
+		this.capacity = Math.max(initialCapacity, 1);
+		this.freeIds = new int[this.capacity];
+		this.x = new double[this.capacity];
+		this.y = new double[this.capacity];
+		this.cellOf = new long[this.capacity];
+		this.live = new boolean[this.capacity];
+		this.next = new int[this.capacity];
+		this.prev = new int[this.capacity];
+		int slots = Integer.highestOneBit(
+			Math.max(this.capacity, 8) * 2 - 1) << 1;
+		this.cellKeys = new long[slots];
+		Arrays.fill(this.cellKeys, SpatialGrid.emptyKey);
+		this.cellHeads = new int[slots];
+		this.tableMask = slots - 1;
+	}
+
+	// Adds a point, returning its id
+	public int add(double px, double py) {
+		int id;
+		if(this.numFree > 0) {
+			id = this.freeIds[--this.numFree];
+		} else {
+			if(this.numIds == this.capacity) {
+				this.grow();
+			}
+			id = this.numIds++;
+		}
+		this.x[id] = px;
+		this.y[id] = py;
+		this.live[id] = true;
+		this.link(id, this.cellKey(px, py));
+		++this.size;
+		return id;
+	}
+
+	public void remove(int id) {
+		this.checkLive(id);
+		this.unlink(id);
+		this.live[id] = false;
+		this.freeIds[this.numFree++] = id;
+		--this.size;
+	}
+
+	public void move(int id, double px, double py) {
+		this.checkLive(id);
+		this.x[id] = px;
+		this.y[id] = py;
+		long key = this.cellKey(px, py);
+		if(key != this.cellOf[id]) {
+			this.unlink(id);
+			this.link(id, key);
+		}
+	}
+
+	public double getX(int id) {
+		return this.x[id];
+	}
+
+	public double getY(int id) {
+		return this.y[id];
+	}
+
+	public boolean contains(int id) {
+		return id >= 0 && id < this.numIds && this.live[id];
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	// one more than the highest id handed out so far
+	public int getIdLimit() {
+		return this.numIds;
+	}
+
+	public int getNumCells() {
+		return this.numCells;
+	}
+
+	public double getCellSize() {
+		return this.cellSize;
+	}
+
+	// Finds the points within radius of (px, py), other than exclude,
+	// which may be -1, in no particular order
+	public void findWithin(double px, double py, double radius,
+			       int exclude, SpatialGrid.Neighbors out) {
+		out.clear();
+		double r2 = radius * radius;
+		int x0 = this.cellCoord(px - radius);
+		int x1 = this.cellCoord(px + radius);
+		int y0 = this.cellCoord(py - radius);
+		int y1 = this.cellCoord(py + radius);
+		// a radius spanning more cells than are occupied is quicker to
+		// answer from the points themselves
+		if((x1 - (double) x0 + 1) * (y1 - (double) y0 + 1)
+		   > this.numCells) {
+			for(int id = 0; id < this.numIds; ++id) {
+				if(this.live[id] && id != exclude) {
+					this.offerWithin(id, px, py, r2, out);
+				}
+			}
+			return;
+		}
+		for(int cx = x0; cx <= x1; ++cx) {
+			for(int cy = y0; cy <= y1; ++cy) {
+				int id = this.getHead(SpatialGrid.key(cx, cy));
+				for(; id >= 0; id = this.next[id]) {
+					if(id != exclude) {
+						this.offerWithin(id, px, py, r2,
+								 out);
+					}
+				}
+			}
+		}
+	}
+
+	private void offerWithin(int id, double px, double py, double r2,
+				 SpatialGrid.Neighbors out) {
+		double dx = this.x[id] - px;
+		double dy = this.y[id] - py;
+		double d2 = dx * dx + dy * dy;
+		if(d2 <= r2) {
+			out.add(id, d2);
+		}
+	}
+
+	// Finds the k points nearest (px, py), other than exclude, which may
+	// be -1, nearest first; fewer if there are not k others. Ties are
+	// broken arbitrarily.
+	public void findNearest(double px, double py, int k, int exclude,
+				SpatialGrid.Neighbors out) {
+		out.clear();
+		if(k <= 0) {
+			return;
+		}
+		int others = this.size
+			- (this.contains(exclude) ? 1 : 0);
+		int cx = this.cellCoord(px);
+		int cy = this.cellCoord(py);
+		// how far (px, py) is from the edges of its cell
+		double inX = Math.min(px - cx * this.cellSize,
+				      (cx + 1) * this.cellSize - px);
+		double inY = Math.min(py - cy * this.cellSize,
+				      (cy + 1) * this.cellSize - py);
+		double inCell = Math.max(0.0, Math.min(inX, inY));
+		int seen = 0;
+		long cellsVisited = 0;
+		for(int ring = 0; ; ++ring) {
+			if(ring == 0) {
+				seen += this.offerCell(cx, cy, px, py, k,
+						       exclude, out);
+				cellsVisited = 1;
+			} else {
+				for(int i = -ring; i < ring; ++i) {
+					seen += this.offerCell(cx + i,
+						cy - ring, px, py, k, exclude,
+						out);
+					seen += this.offerCell(cx + ring,
+						cy + i, px, py, k, exclude,
+						out);
+					seen += this.offerCell(cx - i,
+						cy + ring, px, py, k, exclude,
+						out);
+					seen += this.offerCell(cx - ring,
+						cy - i, px, py, k, exclude,
+						out);
+				}
+				cellsVisited += 8L * ring;
+			}
+			if(seen >= others) {
+				break;
+			}
+			// every cell not yet visited is at least this far away
+			double bound = inCell + ring * this.cellSize;
+			if(out.count == k && out.dist2[0] <= bound * bound) {
+				break;
+			}
+			// sparse points far away are quicker to find by
+			// looking at them all
+			if(cellsVisited > this.numCells) {
+				out.clear();
+				for(int id = 0; id < this.numIds; ++id) {
+					if(this.live[id] && id != exclude) {
+						this.offerNearest(id, px, py,
+								  k, out);
+					}
+				}
+				break;
+			}
+		}
+		out.sortNearestFirst();
+	}
+
+	// Offers the points of a cell to out, returning how many there were
+	private int offerCell(int cx, int cy, double px, double py, int k,
+			      int exclude, SpatialGrid.Neighbors out) {
+		int n = 0;
+		int id = this.getHead(SpatialGrid.key(cx, cy));
+		for(; id >= 0; id = this.next[id]) {
+			if(id != exclude) {
+				this.offerNearest(id, px, py, k, out);
+				++n;
+			}
+		}
+		return n;
+	}
+
+	private void offerNearest(int id, double px, double py, int k,
+				  SpatialGrid.Neighbors out) {
+		double dx = this.x[id] - px;
+		double dy = this.y[id] - py;
+		out.offer(id, dx * dx + dy * dy, k);
+	}
+
+	private void checkLive(int id) {
+		if(!this.contains(id)) {
+			throw new IllegalArgumentException(
+				"No point has id " + id + ".");
+		}
+	}
+
+	// Integer.MIN_VALUE is left out, for emptyKey
+	private int cellCoord(double v) {
+		return Math.max((int) Math.floor(v * this.inverseCellSize),
+				Integer.MIN_VALUE + 1);
+	}
+
+	private long cellKey(double px, double py) {
+		return SpatialGrid.key(this.cellCoord(px), this.cellCoord(py));
+	}
+
+	private static long key(int cx, int cy) {
+		return ((long) cx << 32) | (cy & 0xffffffffL);
+	}
+
+	private int slotOf(long key) {
+		long h = key * 0x9e3779b97f4a7c15L;
+		return (int) (h ^ (h >>> 32)) & this.tableMask;
+	}
+
+	// The first point in the cell of the given key, or -1
+	private int getHead(long key) {
+		for(int s = this.slotOf(key); ; s = (s + 1) & this.tableMask) {
+			long k = this.cellKeys[s];
+			if(k == key) {
+				return this.cellHeads[s];
+			}
+			if(k == SpatialGrid.emptyKey) {
+				return -1;
+			}
+		}
+	}
+
+	// Puts id at the front of its cell's list, occupying the cell if need
+	// be
+	private void link(int id, long key) {
+		this.cellOf[id] = key;
+		this.prev[id] = -1;
+		int s = this.slotOf(key);
+		for(; this.cellKeys[s] != SpatialGrid.emptyKey;
+		    s = (s + 1) & this.tableMask) {
+			if(this.cellKeys[s] == key) {
+				int head = this.cellHeads[s];
+				this.next[id] = head;
+				this.prev[head] = id;
+				this.cellHeads[s] = id;
+				return;
+			}
+		}
+		this.cellKeys[s] = key;
+		this.cellHeads[s] = id;
+		this.next[id] = -1;
+		if(++this.numCells * 2 > this.tableMask + 1) {
+			this.rehash((this.tableMask + 1) * 2);
+		}
+	}
+
+	// Takes id out of its cell's list, freeing the cell if it empties
+	private void unlink(int id) {
+		int p = this.prev[id];
+		int n = this.next[id];
+		if(n >= 0) {
+			this.prev[n] = p;
+		}
+		if(p >= 0) {
+			this.next[p] = n;
+			return;
+		}
+		long key = this.cellOf[id];
+		int s = this.slotOf(key);
+		while(this.cellKeys[s] != key) {
+			s = (s + 1) & this.tableMask;
+		}
+		if(n >= 0) {
+			this.cellHeads[s] = n;
+			return;
+		}
+		this.freeSlot(s);
+		--this.numCells;
+	}
+
+	// Empties a table slot, shifting later entries of its probe run back
+	// so that no lookup passes over a hole
+	private void freeSlot(int s) {
+		int hole = s;
+		for(int i = (s + 1) & this.tableMask;
+		    this.cellKeys[i] != SpatialGrid.emptyKey;
+		    i = (i + 1) & this.tableMask) {
+			int home = this.slotOf(this.cellKeys[i]);
+			// move i into the hole unless its home lies in
+			// (hole, i], cyclically
+			if(((i - home) & this.tableMask)
+			   >= ((i - hole) & this.tableMask)) {
+				this.cellKeys[hole] = this.cellKeys[i];
+				this.cellHeads[hole] = this.cellHeads[i];
+				hole = i;
+			}
+		}
+		this.cellKeys[hole] = SpatialGrid.emptyKey;
+	}
+
+	private void rehash(int slots) {
+		long keys[] = this.cellKeys;
+		int heads[] = this.cellHeads;
+		this.cellKeys = new long[slots];
+		Arrays.fill(this.cellKeys, SpatialGrid.emptyKey);
+		this.cellHeads = new int[slots];
+		this.tableMask = slots - 1;
+		for(int i = 0; i < keys.length; ++i) {
+			if(keys[i] == SpatialGrid.emptyKey) {
+				continue;
+			}
+			int s = this.slotOf(keys[i]);
+			while(this.cellKeys[s] != SpatialGrid.emptyKey) {
+				s = (s + 1) & this.tableMask;
+			}
+			this.cellKeys[s] = keys[i];
+			this.cellHeads[s] = heads[i];
+		}
+	}
+
+	private void grow() {
+		int newCapacity = this.capacity * 2;
+		this.freeIds = Arrays.copyOf(this.freeIds, newCapacity);
+		this.x = Arrays.copyOf(this.x, newCapacity);
+		this.y = Arrays.copyOf(this.y, newCapacity);
+		this.cellOf = Arrays.copyOf(this.cellOf, newCapacity);
+		this.live = Arrays.copyOf(this.live, newCapacity);
+		this.next = Arrays.copyOf(this.next, newCapacity);
+		this.prev = Arrays.copyOf(this.prev, newCapacity);
+		this.capacity = newCapacity;
+	}
+
+	// The answer to a query: ids and squared distances, count of them. A
+	// query overwrites the last one's answer, so each thread querying
+	// needs one of its own; reusing it saves allocating.
+	public static class Neighbors {
+		private int ids[];
+		private double dist2[];
+		private int count;
+
+		public Neighbors() {
+			this.ids = new int[16];
+			this.dist2 = new double[16];
+		}
+
+		public int getCount() {
+			return this.count;
+		}
+
+		public int getId(int i) {
+			return this.ids[i];
+		}
+
+		public double getDistance(int i) {
+			return Math.sqrt(this.dist2[i]);
+		}
+
+		public double getSquaredDistance(int i) {
+			return this.dist2[i];
+		}
+
+		private void clear() {
+			this.count = 0;
+		}
+
+		private void add(int id, double d2) {
+			if(this.count == this.ids.length) {
+				this.ids = Arrays.copyOf(this.ids,
+							 this.count * 2);
+				this.dist2 = Arrays.copyOf(this.dist2,
+							   this.count * 2);
+			}
+			this.ids[this.count] = id;
+			this.dist2[this.count++] = d2;
+		}
+
+		// Keeps the k nearest offered so far in a max-heap on squared
+		// distance, the farthest at 0
+		private void offer(int id, double d2, int k) {
+			if(this.count < k) {
+				this.add(id, d2);
+				this.siftUp(this.count - 1);
+			} else if(d2 < this.dist2[0]) {
+				this.ids[0] = id;
+				this.dist2[0] = d2;
+				this.siftDown(0, this.count);
+			}
+		}
+
+		private void siftUp(int i) {
+			while(i > 0) {
+				int parent = (i - 1) >>> 1;
+				if(this.dist2[parent] >= this.dist2[i]) {
+					return;
+				}
+				this.swap(i, parent);
+				i = parent;
+			}
+		}
+
+		private void siftDown(int i, int n) {
+			for(;;) {
+				int largest = i;
+				int l = 2 * i + 1;
+				int r = l + 1;
+				double d2 = this.dist2[i];
+				if(l < n && this.dist2[l] > d2) {
+					largest = l;
+					d2 = this.dist2[l];
+				}
+				if(r < n && this.dist2[r] > d2) {
+					largest = r;
+				}
+				if(largest == i) {
+					return;
+				}
+				this.swap(i, largest);
+				i = largest;
+			}
+		}
+
+		// Heap sorts the heap into nearest first order
+		private void sortNearestFirst() {
+			for(int n = this.count - 1; n > 0; --n) {
+				this.swap(0, n);
+				this.siftDown(0, n);
+			}
+		}
+
+		private void swap(int i, int j) {
+			int id = this.ids[i];
+			this.ids[i] = this.ids[j];
+			this.ids[j] = id;
+			double d2 = this.dist2[i];
+			this.dist2[i] = this.dist2[j];
+			this.dist2[j] = d2;
+		}
+	}
+
+	// marks free table slots: the key of a cell no point is put in
+	private static final long emptyKey =
+		SpatialGrid.key(Integer.MIN_VALUE, Integer.MIN_VALUE);
+}
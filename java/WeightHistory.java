@@ -0,0 +1,309 @@
+package AstroAI.java;
+
+import java.nio.ByteBuffer;
+
+import AstroAI.java.Brain;
+import AstroAI.java.BrainArena;
+
+// The weight histories of all of a brain's connections, kept in flat
+// primitive storage indexed by each connection's slot. A history holds
+// exactly the last Brain.connectionHistoryDepth weights, in a ring, with
+// their running sum and a monotonic queue of ring positions for each of
+// the minimum and the maximum: the minimum queue holds the positions of
+// increasing weights, each the least of those recorded since it, so the
+// window's minimum is at its front, and likewise the maximum one. Recording
+// a weight then takes amortised constant time, as each position joins and
+// leaves a queue at most once, and querying the average and range over
+// the window takes constant time.
+//
+// The storage comes from a BrainArena, eg, off the heap with
+// BrainArena.offHeap(), which the history owns: close() frees it all at
+// once.
+public class WeightHistory {
+
+	private BrainArena arena;
+
+	private int capacity;
+	private int numSlots;
+	// released slots, to be handed out again
+	private BrainArena.Ints freeSlots;
+	private int numFree;
+
+	private BrainArena.Doubles current;
+
+	// ring of the last Brain.connectionHistoryDepth weights per slot
+	private BrainArena.Doubles window;
+	// position the next weight goes in, and how many the ring holds
+	private BrainArena.Ints next;
+	private BrainArena.Ints count;
+	private BrainArena.Doubles sum;
+
+	// rings of window positions, Brain.connectionHistoryDepth per slot,
+	// with where each queue starts and how long it is
+	private BrainArena.Ints minQueue;
+	private BrainArena.Ints minFirst;
+	private BrainArena.Ints minLength;
+	private BrainArena.Ints maxQueue;
+	private BrainArena.Ints maxFirst;
+	private BrainArena.Ints maxLength;
+
+	public WeightHistory(int initialCapacity) {
+		this(initialCapacity, BrainArena.heap());
+	}
+
+	public WeightHistory(int initialCapacity, BrainArena arena) {
+		int depth = Brain.connectionHistoryDepth;
+		this.arena = arena;
+		this.capacity = Math.max(initialCapacity, 1);
+		this.numSlots = 0;
+		this.freeSlots = arena.newInts(this.capacity);
+		this.numFree = 0;
+		this.current = arena.newDoubles(this.capacity);
+		this.window = arena.newDoubles(this.capacity * depth);
+		this.next = arena.newInts(this.capacity);
+		this.count = arena.newInts(this.capacity);
+		this.sum = arena.newDoubles(this.capacity);
+		this.minQueue = arena.newInts(this.capacity * depth);
+		this.minFirst = arena.newInts(this.capacity);
+		this.minLength = arena.newInts(this.capacity);
+		this.maxQueue = arena.newInts(this.capacity * depth);
+		this.maxFirst = arena.newInts(this.capacity);
+		this.maxLength = arena.newInts(this.capacity);
+	}
+
+	private WeightHistory() {
+	}
+
+	// An independent copy holding every slot's history, with the same
+	// slots in use, eg, for a forked brain, in a new arena of the same
+	// kind. It has room for just those slots.
+	public WeightHistory copy() {
+		return this.copy(this.arena.newArena());
+	}
+
+	public WeightHistory copy(BrainArena arena) {
+		WeightHistory h = new WeightHistory();
+		h.arena = arena;
+		h.numSlots = this.numSlots;
+		h.numFree = this.numFree;
+		h.copyBlocks(this, Math.max(this.numSlots, 1));
+		return h;
+	}
+
+	// Moves every slot's history into arena, releasing the blocks it was
+	// in and the arena that held them
+	public void moveTo(BrainArena arena) {
+		BrainArena old = this.arena;
+		this.arena = arena;
+		this.copyBlocks(this, this.capacity);
+		old.close();
+	}
+
+	// Frees the blocks, all at once. The history must not be used
+	// afterwards.
+	public void close() {
+		this.arena.close();
+	}
+
+	public BrainArena getArena() {
+		return this.arena;
+	}
+
+	// Hands out a slot whose history holds just the given weight
+	public int allocate(double weight) {
+		int slot;
+		if(this.numFree > 0) {
+			slot = this.freeSlots.get(--this.numFree);
+		} else {
+			if(this.numSlots == this.capacity) {
+				this.grow();
+			}
+			slot = this.numSlots++;
+		}
+		this.reset(slot, weight);
+		return slot;
+	}
+
+	public void release(int slot) {
+		this.freeSlots.set(this.numFree++, slot);
+	}
+
+	public double getCurrentWeight(int slot) {
+		return this.current.get(slot);
+	}
+
+	// Makes weight the current weight and adds it to the history,
+	// evicting the oldest weight once the window is full
+	public void record(int slot, double weight) {
+		int depth = Brain.connectionHistoryDepth;
+		int base = slot * depth;
+		int p = this.next.get(slot);
+		int n = this.count.get(slot);
+		double s = this.sum.get(slot);
+		this.current.set(slot, weight);
+
+		if(n == depth) {
+			s -= this.window.get(base + p);
+			if(this.minQueue.get(base + this.minFirst.get(slot))
+			   == p) {
+				this.popFirst(this.minFirst,
+					      this.minLength, slot);
+			}
+			if(this.maxQueue.get(base + this.maxFirst.get(slot))
+			   == p) {
+				this.popFirst(this.maxFirst,
+					      this.maxLength, slot);
+			}
+		} else {
+			this.count.set(slot, ++n);
+		}
+		this.window.set(base + p, weight);
+
+		// a weight no less than the new one can never again be the
+		// minimum, as it leaves the window first, and likewise for
+		// the maximum
+		int first = this.minFirst.get(slot);
+		int length = this.minLength.get(slot);
+		while(length > 0 && this.window.get(base + this.minQueue.get(
+			      base + (first + length - 1) % depth)) >= weight) {
+			--length;
+		}
+		this.minQueue.set(base + (first + length) % depth, p);
+		this.minLength.set(slot, length + 1);
+		first = this.maxFirst.get(slot);
+		length = this.maxLength.get(slot);
+		while(length > 0 && this.window.get(base + this.maxQueue.get(
+			      base + (first + length - 1) % depth)) <= weight) {
+			--length;
+		}
+		this.maxQueue.set(base + (first + length) % depth, p);
+		this.maxLength.set(slot, length + 1);
+
+		p = (p + 1) % depth;
+		this.next.set(slot, p);
+		if(p == 0) {
+			// rebuild the sum from the ring once a lap rather than
+			// just updating it, so that it cannot drift
+			s = 0.0;
+			for(int i = base; i < base + n; ++i) {
+				s += this.window.get(i);
+			}
+		} else {
+			s += weight;
+		}
+		this.sum.set(slot, s);
+	}
+
+	public double getAverageWeight(int slot) {
+		return this.sum.get(slot) / this.count.get(slot);
+	}
+
+	// Returns the difference between the maximum and the minimum weight
+	// over the window
+	public double getWeightRange(int slot) {
+		int base = slot * Brain.connectionHistoryDepth;
+		return this.window.get(base + this.maxQueue.get(
+				base + this.maxFirst.get(slot)))
+			- this.window.get(base + this.minQueue.get(
+				base + this.minFirst.get(slot)));
+	}
+
+	// Forgets everything but the given weight
+	public void reset(int slot, double weight) {
+		this.next.set(slot, 0);
+		this.count.set(slot, 0);
+		this.sum.set(slot, 0.0);
+		this.minFirst.set(slot, 0);
+		this.minLength.set(slot, 0);
+		this.maxFirst.set(slot, 0);
+		this.maxLength.set(slot, 0);
+		this.record(slot, weight);
+	}
+
+	// Writes everything the slot's history holds, in slotBytes bytes
+	public void writeSlot(int slot, ByteBuffer buf) {
+		int base = slot * Brain.connectionHistoryDepth;
+		buf.putDouble(this.current.get(slot));
+		buf.putDouble(this.sum.get(slot));
+		buf.putInt(this.next.get(slot));
+		buf.putInt(this.count.get(slot));
+		buf.putInt(this.minFirst.get(slot));
+		buf.putInt(this.minLength.get(slot));
+		buf.putInt(this.maxFirst.get(slot));
+		buf.putInt(this.maxLength.get(slot));
+		for(int i = base; i < base + Brain.connectionHistoryDepth;
+		    ++i) {
+			buf.putDouble(this.window.get(i));
+			buf.putInt(this.minQueue.get(i));
+			buf.putInt(this.maxQueue.get(i));
+		}
+	}
+
+	// Hands out a slot holding the history writeSlot() wrote
+	public int readSlot(ByteBuffer buf) {
+		int slot = this.allocate(0.0);
+		int base = slot * Brain.connectionHistoryDepth;
+		this.current.set(slot, buf.getDouble());
+		this.sum.set(slot, buf.getDouble());
+		this.next.set(slot, buf.getInt());
+		this.count.set(slot, buf.getInt());
+		this.minFirst.set(slot, buf.getInt());
+		this.minLength.set(slot, buf.getInt());
+		this.maxFirst.set(slot, buf.getInt());
+		this.maxLength.set(slot, buf.getInt());
+		for(int i = base; i < base + Brain.connectionHistoryDepth;
+		    ++i) {
+			this.window.set(i, buf.getDouble());
+			this.minQueue.set(i, buf.getInt());
+			this.maxQueue.set(i, buf.getInt());
+		}
+		return slot;
+	}
+
+	private void popFirst(BrainArena.Ints first, BrainArena.Ints length,
+			      int slot) {
+		first.set(slot, (first.get(slot) + 1)
+			  % Brain.connectionHistoryDepth);
+		length.set(slot, length.get(slot) - 1);
+	}
+
+	private void grow() {
+		BrainArena.Block old[] = this.getBlocks();
+		this.copyBlocks(this, this.capacity * 2);
+		for(BrainArena.Block b : old) {
+			this.arena.free(b);
+		}
+	}
+
+	// Replaces the blocks with ones in this history's arena with room for
+	// n slots, holding from's history of the first n
+	private void copyBlocks(WeightHistory from, int n) {
+		int rings = n * Brain.connectionHistoryDepth;
+		this.freeSlots = this.arena.copyOf(from.freeSlots, n);
+		this.current = this.arena.copyOf(from.current, n);
+		this.window = this.arena.copyOf(from.window, rings);
+		this.next = this.arena.copyOf(from.next, n);
+		this.count = this.arena.copyOf(from.count, n);
+		this.sum = this.arena.copyOf(from.sum, n);
+		this.minQueue = this.arena.copyOf(from.minQueue, rings);
+		this.minFirst = this.arena.copyOf(from.minFirst, n);
+		this.minLength = this.arena.copyOf(from.minLength, n);
+		this.maxQueue = this.arena.copyOf(from.maxQueue, rings);
+		this.maxFirst = this.arena.copyOf(from.maxFirst, n);
+		this.maxLength = this.arena.copyOf(from.maxLength, n);
+		this.capacity = n;
+	}
+
+	private BrainArena.Block[] getBlocks() {
+		return new BrainArena.Block[] {
+			this.freeSlots, this.current, this.window, this.next,
+			this.count, this.sum, this.minQueue, this.minFirst,
+			this.minLength, this.maxQueue, this.maxFirst,
+			this.maxLength
+		};
+	}
+
+	// bytes writeSlot() takes
+	public static final int slotBytes =
+		8 * 2 + 4 * 6 + (8 + 4 * 2) * Brain.connectionHistoryDepth;
+}
@@ -0,0 +1,112 @@
+package AstroAI.java.bench;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import AstroAI.java.Brain;
+import AstroAI.java.BrainArena;
+import AstroAI.java.BrainRandom;
+import AstroAI.java.Creature;
+import AstroAI.java.Environment;
+import AstroAI.java.bench.BrainBenchmarks;
+
+// What keeping brains' weight histories off the heap saves. A population of
+// forks of one warm compiled brain, on the heap or in BrainArena.offHeap()
+// arenas, ticks for a while, and this prints the heap each brain takes
+// and the bytes its arena holds, the garbage collections the ticks set
+// off and the time they took, and the time per brain per tick. Off the
+// heap needs --add-modules jdk.incubator.foreign; without it the off-heap
+// rows run on the heap too.
+//
+//     java -cp <classes> AstroAI.java.bench.ArenaBench [ticks]
+public class ArenaBench {
+
+	public static void main(String args[]) {
+		int ticks = args.length > 0 ? Integer.parseInt(args[0])
+			: ArenaBench.defaultTicks;
+		System.out.println(String.format(
+			"%-8s %8s %10s %10s %8s %8s %10s", "arena", "brains",
+			"heap KB", "arena KB", "GCs", "GC ms", "us/tick"));
+		for(int n : ArenaBench.sizes) {
+			ArenaBench.run(false, n, ticks);
+			ArenaBench.run(true, n, ticks);
+		}
+	}
+
+	private static void run(boolean offHeap, int n, int ticks) {
+		long baseHeap = ArenaBench.usedHeap();
+		Environment env = new Environment();
+		Creature parent = BrainBenchmarks.makeWarmCreature(env, true);
+		if(offHeap) {
+			parent.getBrain().setArena(BrainArena.offHeap());
+		}
+		List<Brain> brains = new ArrayList<Brain>();
+		for(int i = 0; i < n; ++i) {
+			brains.add(new Creature(env, parent,
+						BrainBenchmarks.makeSenses(env),
+						new BrainRandom(i)).getBrain());
+		}
+		long heap = ArenaBench.usedHeap() - baseHeap;
+		long bytes = 0;
+		for(Brain b : brains) {
+			bytes += b.getArena().getBytes();
+		}
+
+		long gcs = ArenaBench.gcCount();
+		long gcMillis = ArenaBench.gcMillis();
+		long start = System.nanoTime();
+		for(int t = 0; t < ticks; ++t) {
+			for(Brain b : brains) {
+				b.think();
+				b.learn();
+			}
+			env.advanceTime();
+		}
+		long nanos = System.nanoTime() - start;
+		gcs = ArenaBench.gcCount() - gcs;
+		gcMillis = ArenaBench.gcMillis() - gcMillis;
+
+		for(Brain b : brains) {
+			b.release();
+		}
+		parent.getBrain().release();
+		System.out.println(String.format(
+			"%-8s %8d %10.1f %10.1f %8d %8d %10.1f",
+			brains.get(0).getArena().getClass().getSimpleName()
+			.startsWith("Foreign") ? "off-heap" : "heap", n,
+			heap / 1024.0 / n, bytes / 1024.0 / n, gcs, gcMillis,
+			nanos / 1e3 / ticks / n));
+	}
+
+	// Heap in use once the garbage is collected
+	private static long usedHeap() {
+		Runtime rt = Runtime.getRuntime();
+		for(int i = 0; i < 3; ++i) {
+			System.gc();
+		}
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	private static long gcCount() {
+		long count = 0;
+		for(GarbageCollectorMXBean gc
+			    : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += gc.getCollectionCount();
+		}
+		return count;
+	}
+
+	private static long gcMillis() {
+		long millis = 0;
+		for(GarbageCollectorMXBean gc
+			    : ManagementFactory.getGarbageCollectorMXBeans()) {
+			millis += gc.getCollectionTime();
+		}
+		return millis;
+	}
+
+	public static final int sizes[] = {10, 30};
+	public static final int defaultTicks = 20;
+}
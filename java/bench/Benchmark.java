@@ -0,0 +1,201 @@
+package AstroAI.java.bench;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+
+// A single benchmarked operation, and a small harness to measure it in
+// the manner of JMH: warmup iterations, then timed iterations, each
+// running the operation until the iteration's time is up. Besides the time
+// per operation, it reports what JMH's gc profiler would: bytes allocated
+// per operation, the allocation rate, and the collections during the
+// timed iterations.
+public abstract class Benchmark {
+
+	private String name;
+
+	public Benchmark(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	// Builds whatever the operation runs on, before any iteration
+	public void setUp() {
+	}
+
+	// Runs the operation once. The result is consumed, so that the JIT
+	// cannot drop the work that produced it.
+	public abstract double run();
+
+	public Benchmark.Result measure(int warmupIterations, int iterations,
+					long iterationMillis) {
+		this.setUp();
+		for(int i = 0; i < warmupIterations; ++i) {
+			this.iterate(iterationMillis);
+		}
+
+		long gcCount = Benchmark.getGcCount();
+		long gcMillis = Benchmark.getGcMillis();
+		long allocated = Benchmark.getAllocatedBytes();
+		double nsPerOp[] = new double[iterations];
+		long ops = 0;
+		long nanos = 0;
+		for(int i = 0; i < iterations; ++i) {
+			long start = System.nanoTime();
+			long n = this.iterate(iterationMillis);
+			long elapsed = System.nanoTime() - start;
+			nsPerOp[i] = elapsed / (double) n;
+			ops += n;
+			nanos += elapsed;
+		}
+		long bytes = Benchmark.getAllocatedBytes() - allocated;
+		return new Benchmark.Result(this.name, nsPerOp,
+			allocated < 0 ? -1.0 : bytes / (double) ops,
+			allocated < 0 ? -1.0 : bytes / (nanos / 1e9),
+			Benchmark.getGcCount() - gcCount,
+			Benchmark.getGcMillis() - gcMillis);
+	}
+
+	// Runs the operation until iterationMillis have passed, returning the
+	// number of runs. The clock is read once per batch, and batches grow
+	// until they take a good part of a millisecond, so that reading it
+	// does not swamp short operations.
+	private long iterate(long iterationMillis) {
+		long deadline = System.nanoTime() + iterationMillis * 1000000L;
+		long n = 0;
+		int batch = 1;
+		double sink = 0.0;
+		long now;
+		do {
+			long start = System.nanoTime();
+			for(int i = 0; i < batch; ++i) {
+				sink += this.run();
+			}
+			n += batch;
+			now = System.nanoTime();
+			if(now - start < 100000L && batch < (1 << 20)) {
+				batch *= 2;
+			}
+		} while(now < deadline);
+		Benchmark.sink = sink;
+		return n;
+	}
+
+	// bytes allocated by this thread so far, or -1 if the JVM does not
+	// say
+	private static long getAllocatedBytes() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if(!(threads instanceof com.sun.management.ThreadMXBean)) {
+			return -1;
+		}
+		return ((com.sun.management.ThreadMXBean) threads)
+			.getThreadAllocatedBytes(
+				Thread.currentThread().getId());
+	}
+
+	private static long getGcCount() {
+		long count = 0;
+		for(GarbageCollectorMXBean gc : Benchmark.collectors) {
+			count += Math.max(gc.getCollectionCount(), 0);
+		}
+		return count;
+	}
+
+	private static long getGcMillis() {
+		long millis = 0;
+		for(GarbageCollectorMXBean gc : Benchmark.collectors) {
+			millis += Math.max(gc.getCollectionTime(), 0);
+		}
+		return millis;
+	}
+
+	private static final List<GarbageCollectorMXBean> collectors =
+		ManagementFactory.getGarbageCollectorMXBeans();
+	// where results of run() end up
+	public static volatile double sink;
+
+	public static class Result {
+		private String name;
+		private double nsPerOp[];
+		private double bytesPerOp;
+		private double bytesPerSecond;
+		private long gcCount;
+		private long gcMillis;
+
+		public Result(String name, double nsPerOp[], double bytesPerOp,
+			      double bytesPerSecond, long gcCount,
+			      long gcMillis) {
+			this.name = name;
+			this.nsPerOp = nsPerOp;
+			this.bytesPerOp = bytesPerOp;
+			this.bytesPerSecond = bytesPerSecond;
+			this.gcCount = gcCount;
+			this.gcMillis = gcMillis;
+		}
+
+		public String getName() {
+			return this.name;
+		}
+
+		// mean over the timed iterations
+		public double getNsPerOp() {
+			double sum = 0.0;
+			for(double ns : this.nsPerOp) {
+				sum += ns;
+			}
+			return sum / this.nsPerOp.length;
+		}
+
+		// sample standard deviation over the timed iterations
+		public double getNsPerOpDeviation() {
+			if(this.nsPerOp.length < 2) {
+				return 0.0;
+			}
+			double mean = this.getNsPerOp();
+			double sum = 0.0;
+			for(double ns : this.nsPerOp) {
+				sum += (ns - mean) * (ns - mean);
+			}
+			return Math.sqrt(sum / (this.nsPerOp.length - 1));
+		}
+
+		// gc.alloc.rate.norm, or -1 if unknown
+		public double getBytesPerOp() {
+			return this.bytesPerOp;
+		}
+
+		// gc.alloc.rate, or -1 if unknown
+		public double getBytesPerSecond() {
+			return this.bytesPerSecond;
+		}
+
+		public long getGcCount() {
+			return this.gcCount;
+		}
+
+		public long getGcMillis() {
+			return this.gcMillis;
+		}
+
+		public static String getHeader() {
+			return String.format(
+				"%-36s %14s %10s %12s %10s %6s %6s",
+				"Benchmark", "ns/op", "+-", "B/op", "MB/s",
+				"gc", "gc ms");
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+				"%-36s %14.1f %10.1f %12.1f %10.1f %6d %6d",
+				this.name, this.getNsPerOp(),
+				this.getNsPerOpDeviation(), this.bytesPerOp,
+				this.bytesPerSecond / 1e6, this.gcCount,
+				this.gcMillis);
+		}
+	}
+}
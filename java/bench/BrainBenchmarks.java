@@ -0,0 +1,512 @@
+package AstroAI.java.bench;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import AstroAI.java.Brain;
+import AstroAI.java.BrainArena;
+import AstroAI.java.BrainStore;
+import AstroAI.java.Connection;
+import AstroAI.java.Creature;
+import AstroAI.java.Environment;
+import AstroAI.java.Feeler;
+import AstroAI.java.BrainRandom;
+import AstroAI.java.WeightHistory;
+import AstroAI.java.bench.Benchmark;
+
+// Benchmarks of the brain's hot paths: construction at several sizes,
+// forking a warm brain, think(), learn() and shuffleConnections() on both
+// the object graph and the compiled brain, snapshots, recording weights in
+// heap and off-heap arenas and in plain arrays, the weight history
+// queries, and Gaussian draws by the brains' generator and by
+// java.util.Random.
+//
+//     java -cp <classes> AstroAI.java.bench.BrainBenchmarks [filter]
+//
+// runs every benchmark whose name contains filter, or all of them.
+public class BrainBenchmarks {
+
+	public static void main(String args[]) {
+		String filter = args.length > 0 ? args[0] : "";
+		System.out.println(Benchmark.Result.getHeader());
+		for(Benchmark b : BrainBenchmarks.getBenchmarks()) {
+			if(!b.getName().contains(filter)) {
+				continue;
+			}
+			System.out.println(b.measure(
+				BrainBenchmarks.warmupIterations,
+				BrainBenchmarks.iterations,
+				BrainBenchmarks.iterationMillis));
+		}
+	}
+
+	public static List<Benchmark> getBenchmarks() {
+		ArrayList<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		for(int size[] : BrainBenchmarks.sizes) {
+			benchmarks.add(new BrainBenchmarks.Construct(
+				size[0], size[1]));
+		}
+		benchmarks.add(new BrainBenchmarks.Fork(false));
+		benchmarks.add(new BrainBenchmarks.Fork(true));
+		for(boolean compiled : new boolean[] {false, true}) {
+			benchmarks.add(new BrainBenchmarks.Think(compiled));
+			benchmarks.add(new BrainBenchmarks.Learn(compiled));
+			benchmarks.add(new BrainBenchmarks.Shuffle(compiled));
+		}
+		benchmarks.add(new BrainBenchmarks.Store(false));
+		benchmarks.add(new BrainBenchmarks.Store(true));
+		benchmarks.add(new BrainBenchmarks.Record("heap"));
+		benchmarks.add(new BrainBenchmarks.Record("off-heap"));
+		benchmarks.add(new BrainBenchmarks.Record("arrays"));
+		benchmarks.add(new BrainBenchmarks.WeightStats(false));
+		benchmarks.add(new BrainBenchmarks.WeightStats(true));
+		benchmarks.add(new BrainBenchmarks.Gaussian(
+			new BrainRandom(1)));
+		benchmarks.add(new BrainBenchmarks.Gaussian(new Random(1)));
+		return benchmarks;
+	}
+
+	// A creature with BrainBenchmarks.numSenses senses and
+	// BrainBenchmarks.numActions actions
+	public static Creature makeCreature(Environment env,
+					    int numInterNeurons,
+					    int numConnections) {
+		return new Creature(env, BrainBenchmarks.makeSenses(env),
+				    BrainBenchmarks.makeActions(),
+				    0.05, 0.1, 0.2,
+				    numInterNeurons, numConnections);
+	}
+
+	public static Map<String, Feeler> makeSenses(Environment env) {
+		Map<String, Feeler> senses =
+			new LinkedHashMap<String, Feeler>();
+		for(int i = 0; i < BrainBenchmarks.numSenses; ++i) {
+			senses.put("sense" + i,
+				   new BrainBenchmarks.WaveFeeler(env, i));
+		}
+		return senses;
+	}
+
+	public static List<String> makeActions() {
+		List<String> actions = new ArrayList<String>();
+		for(int i = 0; i < BrainBenchmarks.numActions; ++i) {
+			actions.add("action" + i);
+		}
+		return actions;
+	}
+
+	// A brain of the default size, ticked for a while so that its
+	// weights and predictions are past their initial values
+	public static Brain makeWarmBrain(Environment env, boolean compiled) {
+		return BrainBenchmarks.makeWarmCreature(env, compiled)
+			.getBrain();
+	}
+
+	public static Creature makeWarmCreature(Environment env,
+						boolean compiled) {
+		Creature c = BrainBenchmarks.makeCreature(env,
+			Brain.numInterNeurons, Brain.numConnections);
+		Brain b = c.getBrain();
+		b.setCompiled(compiled);
+		for(int t = 0; t < BrainBenchmarks.warmTicks; ++t) {
+			b.think();
+			b.learn();
+			env.advanceTime();
+		}
+		return c;
+	}
+
+	private static String mode(boolean compiled) {
+		return compiled ? "[compiled]" : "[object]";
+	}
+
+	// Senses a sine wave of its own frequency
+	public static class WaveFeeler extends Feeler {
+		private Environment env;
+		private double frequency;
+
+		public WaveFeeler(Environment env, int i) {
+			super(1.0 + i);
+			this.env = env;
+			this.frequency = 0.1 * (i + 1);
+		}
+
+		@Override
+		public double decodeSense() {
+			return Math.sin(this.env.getTime() * this.frequency);
+		}
+	}
+
+	public static class Construct extends Benchmark {
+		private int numInterNeurons;
+		private int numConnections;
+		private Environment env;
+
+		public Construct(int numInterNeurons, int numConnections) {
+			super("Brain.new[" + numInterNeurons + "/"
+			      + numConnections + "]");
+			this.numInterNeurons = numInterNeurons;
+			this.numConnections = numConnections;
+			this.env = new Environment();
+		}
+
+		@Override
+		public double run() {
+			return BrainBenchmarks.makeCreature(this.env,
+				this.numInterNeurons, this.numConnections)
+				.getBrain().getConnections().size();
+		}
+	}
+
+	// Forking a warm brain of the default size, to compare with
+	// constructing one
+	public static class Fork extends Benchmark {
+		private boolean compiled;
+		private Environment env;
+		private Creature parent;
+		private Map<String, Feeler> senses;
+		private BrainRandom random;
+
+		public Fork(boolean compiled) {
+			super("Brain.fork" + BrainBenchmarks.mode(compiled));
+			this.compiled = compiled;
+		}
+
+		@Override
+		public void setUp() {
+			this.env = new Environment();
+			this.parent = BrainBenchmarks.makeWarmCreature(
+				this.env, this.compiled);
+			this.senses = BrainBenchmarks.makeSenses(this.env);
+			this.random = new BrainRandom(1);
+		}
+
+		@Override
+		public double run() {
+			return new Creature(this.env, this.parent, this.senses,
+					    this.random.split()).getBrain()
+				.getActionValue("action0");
+		}
+	}
+
+	// One think() per tick
+	public static class Think extends Benchmark {
+		private boolean compiled;
+		private Environment env;
+		private Brain brain;
+
+		public Think(boolean compiled) {
+			super("Brain.think" + BrainBenchmarks.mode(compiled));
+			this.compiled = compiled;
+		}
+
+		@Override
+		public void setUp() {
+			this.env = new Environment();
+			this.brain = BrainBenchmarks.makeWarmBrain(
+				this.env, this.compiled);
+		}
+
+		@Override
+		public double run() {
+			this.brain.think();
+			this.env.advanceTime();
+			return this.env.getTime();
+		}
+	}
+
+	// One learn() per tick, without thinking in between
+	public static class Learn extends Benchmark {
+		private boolean compiled;
+		private Environment env;
+		private Brain brain;
+
+		public Learn(boolean compiled) {
+			super("Brain.learn" + BrainBenchmarks.mode(compiled));
+			this.compiled = compiled;
+		}
+
+		@Override
+		public void setUp() {
+			this.env = new Environment();
+			this.brain = BrainBenchmarks.makeWarmBrain(
+				this.env, this.compiled);
+		}
+
+		@Override
+		public double run() {
+			this.brain.learn();
+			this.env.advanceTime();
+			return this.env.getTime();
+		}
+	}
+
+	public static class Shuffle extends Benchmark {
+		private boolean compiled;
+		private Brain brain;
+
+		public Shuffle(boolean compiled) {
+			super("Brain.shuffleConnections"
+			      + BrainBenchmarks.mode(compiled));
+			this.compiled = compiled;
+		}
+
+		@Override
+		public void setUp() {
+			this.brain = BrainBenchmarks.makeWarmBrain(
+				new Environment(), this.compiled);
+		}
+
+		@Override
+		public double run() {
+			this.brain.shuffleConnections();
+			return this.brain.getConnections().size();
+		}
+	}
+
+	// Writing a snapshot of a warm brain of the default size, or
+	// restoring one
+	public static class Store extends Benchmark {
+		private boolean read;
+		private Environment env;
+		private Brain brain;
+		private Path path;
+
+		public Store(boolean read) {
+			super(read ? "BrainStore.read" : "BrainStore.write");
+			this.read = read;
+		}
+
+		@Override
+		public void setUp() {
+			this.env = new Environment();
+			this.brain = BrainBenchmarks.makeWarmBrain(
+				this.env, false);
+			try {
+				this.path = Files.createTempFile(
+					"brain", ".snap");
+				this.path.toFile().deleteOnExit();
+				BrainStore.write(this.brain, this.path);
+			} catch(IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public double run() {
+			try {
+				if(!this.read) {
+					BrainStore.write(this.brain, this.path);
+					return 0.0;
+				}
+				return new Creature(this.env, this.path,
+					BrainBenchmarks.makeSenses(this.env),
+					BrainBenchmarks.makeActions())
+					.getBrain().getConnections().size();
+			} catch(IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	// WeightHistory.record() on each of Brain.numConnections slots in
+	// turn, in a heap or an off-heap arena, or the same window on plain
+	// arrays, as it was kept before the arenas, to show what going
+	// through their blocks costs
+	public static class Record extends Benchmark {
+		private String kind;
+		private WeightHistory history;
+		private BrainBenchmarks.ArrayHistory arrays;
+		private double weights[];
+		private int next;
+
+		public Record(String kind) {
+			super("WeightHistory.record[" + kind + "]");
+			this.kind = kind;
+		}
+
+		@Override
+		public void setUp() {
+			BrainRandom random = new BrainRandom(1);
+			this.weights = new double[Brain.numConnections * 7];
+			for(int i = 0; i < this.weights.length; ++i) {
+				this.weights[i] = random.nextGaussian();
+			}
+			if(this.kind.equals("arrays")) {
+				this.arrays = new BrainBenchmarks.ArrayHistory(
+					Brain.numConnections);
+			} else {
+				this.history = new WeightHistory(
+					Brain.numConnections,
+					this.kind.equals("heap")
+					? BrainArena.heap()
+					: BrainArena.offHeap());
+				for(int i = 0; i < Brain.numConnections; ++i) {
+					this.history.allocate(0.0);
+				}
+			}
+			this.next = 0;
+		}
+
+		@Override
+		public double run() {
+			int slot = this.next % Brain.numConnections;
+			double w = this.weights[this.next];
+			this.next = (this.next + 1) % this.weights.length;
+			if(this.arrays != null) {
+				this.arrays.record(slot, w);
+				return this.arrays.sum[slot];
+			}
+			this.history.record(slot, w);
+			return this.history.getAverageWeight(slot);
+		}
+	}
+
+	// WeightHistory's window, with its running sum and min and max
+	// queues, in arrays of its own
+	private static class ArrayHistory {
+		private double window[];
+		private int next[];
+		private int count[];
+		private double sum[];
+		private int minQueue[];
+		private int minFirst[];
+		private int minLength[];
+		private int maxQueue[];
+		private int maxFirst[];
+		private int maxLength[];
+
+		public ArrayHistory(int slots) {
+			int depth = Brain.connectionHistoryDepth;
+			this.window = new double[slots * depth];
+			this.next = new int[slots];
+			this.count = new int[slots];
+			this.sum = new double[slots];
+			this.minQueue = new int[slots * depth];
+			this.minFirst = new int[slots];
+			this.minLength = new int[slots];
+			this.maxQueue = new int[slots * depth];
+			this.maxFirst = new int[slots];
+			this.maxLength = new int[slots];
+		}
+
+		public void record(int slot, double weight) {
+			int depth = Brain.connectionHistoryDepth;
+			int base = slot * depth;
+			int p = this.next[slot];
+			int n = this.count[slot];
+			double s = this.sum[slot];
+			if(n == depth) {
+				s -= this.window[base + p];
+				int f = this.minFirst[slot];
+				if(this.minQueue[base + f] == p) {
+					this.minFirst[slot] = (f + 1) % depth;
+					--this.minLength[slot];
+				}
+				f = this.maxFirst[slot];
+				if(this.maxQueue[base + f] == p) {
+					this.maxFirst[slot] = (f + 1) % depth;
+					--this.maxLength[slot];
+				}
+			} else {
+				this.count[slot] = ++n;
+			}
+			this.window[base + p] = weight;
+
+			int first = this.minFirst[slot];
+			int length = this.minLength[slot];
+			while(length > 0 && this.window[base + this.minQueue[
+				      base + (first + length - 1) % depth]]
+			      >= weight) {
+				--length;
+			}
+			this.minQueue[base + (first + length) % depth] = p;
+			this.minLength[slot] = length + 1;
+			first = this.maxFirst[slot];
+			length = this.maxLength[slot];
+			while(length > 0 && this.window[base + this.maxQueue[
+				      base + (first + length - 1) % depth]]
+			      <= weight) {
+				--length;
+			}
+			this.maxQueue[base + (first + length) % depth] = p;
+			this.maxLength[slot] = length + 1;
+
+			p = (p + 1) % depth;
+			this.next[slot] = p;
+			if(p == 0) {
+				s = 0.0;
+				for(int i = base; i < base + n; ++i) {
+					s += this.window[i];
+				}
+			} else {
+				s += weight;
+			}
+			this.sum[slot] = s;
+		}
+	}
+
+	// getAverageWeight() or getWeightRange() on each connection in turn
+	public static class WeightStats extends Benchmark {
+		private boolean range;
+		private Connection connections[];
+		private int next;
+
+		public WeightStats(boolean range) {
+			super(range ? "Connection.getWeightRange"
+			      : "Connection.getAverageWeight");
+			this.range = range;
+		}
+
+		@Override
+		public void setUp() {
+			this.connections = BrainBenchmarks.makeWarmBrain(
+				new Environment(), true).getConnections()
+				.toArray(new Connection[0]);
+			this.next = 0;
+		}
+
+		@Override
+		public double run() {
+			Connection c = this.connections[this.next];
+			this.next = (this.next + 1) % this.connections.length;
+			return this.range
+				? c.getWeightRange() : c.getAverageWeight();
+		}
+	}
+
+	public static class Gaussian extends Benchmark {
+		private Random random;
+
+		public Gaussian(Random random) {
+			super(random.getClass().getSimpleName()
+			      + ".nextGaussian");
+			this.random = random;
+		}
+
+		@Override
+		public double run() {
+			return this.random.nextGaussian();
+		}
+	}
+
+	// numInterNeurons and numConnections of the brains constructed
+	public static final List<int[]> sizes = Arrays.asList(
+		new int[] {50, 500},
+		new int[] {Brain.numInterNeurons, Brain.numConnections},
+		new int[] {400, 8000});
+	public static final int numSenses = 5;
+	public static final int numActions = 3;
+	public static final int warmTicks = 200;
+	public static final int warmupIterations = 3;
+	public static final int iterations = 5;
+	public static final long iterationMillis = 1000;
+}
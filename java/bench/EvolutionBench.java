@@ -0,0 +1,119 @@
+package AstroAI.java.bench;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import AstroAI.java.Brain;
+import AstroAI.java.BrainRandom;
+import AstroAI.java.Creature;
+import AstroAI.java.Environment;
+import AstroAI.java.Evolution;
+import AstroAI.java.Feeler;
+import AstroAI.java.Genes;
+import AstroAI.java.bench.BrainBenchmarks;
+
+// Evolves genes for a tracking task over every core. A creature senses a
+// wave and a reward, the closer its first action is to the wave the
+// higher, and is as fit as its mean reward over the second half of its
+// run. This prints each generation's best and mean fitness and how many
+// evaluations a second the pool got through, then the best genes.
+//
+//     java -cp <classes> AstroAI.java.bench.EvolutionBench
+//         [generations] [size] [ticks]
+public class EvolutionBench {
+
+	public static void main(String args[]) {
+		int generations = args.length > 0 ? Integer.parseInt(args[0])
+			: EvolutionBench.defaultGenerations;
+		int size = args.length > 1 ? Integer.parseInt(args[1])
+			: EvolutionBench.defaultSize;
+		final int ticks = args.length > 2 ? Integer.parseInt(args[2])
+			: EvolutionBench.defaultTicks;
+		ForkJoinPool pool = new ForkJoinPool(
+			Runtime.getRuntime().availableProcessors());
+		Evolution evolution = new Evolution(size,
+			new Evolution.Fitness() {
+				@Override
+				public double evaluate(Genes genes,
+						       BrainRandom random) {
+					return EvolutionBench.track(genes,
+						random, ticks);
+				}
+			}, pool, new BrainRandom(EvolutionBench.seed));
+
+		System.out.println(String.format("%-10s %12s %12s %10s",
+			"generation", "best", "mean", "evals/s"));
+		for(int g = 0; g <= generations; ++g) {
+			if(g > 0) {
+				evolution.step();
+			}
+			evolution.evaluate();
+			System.out.println(String.format(
+				"%-10d %12.5f %12.5f %10.2f", g,
+				evolution.getBestFitness(),
+				evolution.getMeanFitness(),
+				evolution.getEvaluationsPerSecond()));
+		}
+		System.out.println(evolution.getBest());
+		pool.shutdown();
+	}
+
+	// The mean reward over the second half of ticks ticks of a creature
+	// of the given genes
+	public static double track(Genes genes, BrainRandom random,
+				   int ticks) {
+		Environment env = new Environment();
+		EvolutionBench.RewardFeeler reward =
+			new EvolutionBench.RewardFeeler(env);
+		Map<String, Feeler> senses =
+			new LinkedHashMap<String, Feeler>();
+		senses.put("wave", new BrainBenchmarks.WaveFeeler(env, 0));
+		senses.put("reward", reward);
+		List<String> actions = BrainBenchmarks.makeActions();
+		Brain b = new Creature(env, genes, senses, actions, random)
+			.getBrain();
+		b.setCompiled(true);
+		double sum = 0.0;
+		for(int t = 0; t < ticks; ++t) {
+			b.think();
+			reward.setAction(b.getActionValue(actions.get(0)));
+			b.learn();
+			if(2 * t >= ticks) {
+				sum += reward.decodeSense();
+			}
+			env.advanceTime();
+		}
+		return sum / (ticks - ticks / 2);
+	}
+
+	// Senses how close the action it is handed each tick is to a wave
+	// between 0.1 and 0.9
+	public static class RewardFeeler extends Feeler {
+		private Environment env;
+		private double action;
+
+		public RewardFeeler(Environment env) {
+			super(1.0);
+			this.env = env;
+		}
+
+		public void setAction(double action) {
+			this.action = action;
+		}
+
+		@Override
+		public double decodeSense() {
+			double target = 0.5 + 0.4 * Math.sin(this.env.getTime()
+							     * 0.1);
+			double d = this.action - target;
+			return -d * d;
+		}
+	}
+
+	public static final int defaultGenerations = 5;
+	public static final int defaultSize = 16;
+	public static final int defaultTicks = 300;
+	public static final long seed = 1;
+}
@@ -0,0 +1,119 @@
+package AstroAI.java.bench;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import AstroAI.java.Brain;
+import AstroAI.java.Creature;
+import AstroAI.java.Environment;
+import AstroAI.java.Feeler;
+import AstroAI.java.IngestFeeler;
+import AstroAI.java.bench.BrainBenchmarks;
+
+// What taking sensor decoding off the brain's thread saves. Brains sense
+// through feelers whose decoding takes a while, either decoded in
+// decodeSense() on the brain's thread or by IngestFeeler producers under
+// each policy, and this prints the time per think() and learn() and, for
+// the IngestFeelers, how many frames were published, dropped and missed.
+// The producers need cores of their own to save anything.
+//
+//     java -cp <classes> AstroAI.java.bench.IngestBench [ticks]
+public class IngestBench {
+
+	public static void main(String args[]) throws InterruptedException {
+		int ticks = args.length > 0 ? Integer.parseInt(args[0])
+			: IngestBench.defaultTicks;
+		System.out.println(String.format(
+			"%-8s %10s %10s %10s %10s", "feelers", "us/tick",
+			"published", "dropped", "stalls"));
+		Environment env = new Environment();
+		Map<String, Feeler> senses =
+			new LinkedHashMap<String, Feeler>();
+		for(int i = 0; i < BrainBenchmarks.numSenses; ++i) {
+			senses.put("sense" + i,
+				   new IngestBench.SlowFeeler(env, i));
+		}
+		long inline = IngestBench.run(env, senses, ticks);
+		System.out.println(String.format("%-8s %10.1f", "inline",
+						 inline / 1e3 / ticks));
+
+		String names[] = {"block", "drop", "latest"};
+		for(int policy = IngestFeeler.BLOCK;
+		    policy <= IngestFeeler.LATEST; ++policy) {
+			senses = new LinkedHashMap<String, Feeler>();
+			for(int i = 0; i < BrainBenchmarks.numSenses; ++i) {
+				IngestFeeler f = new IngestFeeler(1.0 + i,
+					IngestBench.capacity, policy);
+				f.start(new IngestBench.SlowFeeler(env, i));
+				senses.put("sense" + i, f);
+			}
+			long nanos = IngestBench.run(env, senses, ticks);
+			long published = 0;
+			long dropped = 0;
+			long stalls = 0;
+			for(Feeler f : senses.values()) {
+				IngestFeeler ingest = (IngestFeeler) f;
+				ingest.stop();
+				published += ingest.getPublished();
+				dropped += ingest.getDropped();
+				stalls += ingest.getStalls();
+			}
+			System.out.println(String.format(
+				"%-8s %10.1f %10d %10d %10d", names[policy],
+				nanos / 1e3 / ticks, published, dropped,
+				stalls));
+		}
+	}
+
+	// Nanoseconds to think() and learn() for ticks ticks
+	private static long run(Environment env, Map<String, Feeler> senses,
+				int ticks) {
+		Brain b = new Creature(env, senses,
+				       BrainBenchmarks.makeActions(), 0.05, 0.1,
+				       0.2, Brain.numInterNeurons,
+				       Brain.numConnections).getBrain();
+		b.setCompiled(true);
+		long start = System.nanoTime();
+		for(int t = 0; t < ticks; ++t) {
+			b.think();
+			b.learn();
+			env.advanceTime();
+		}
+		return System.nanoTime() - start;
+	}
+
+	// A WaveFeeler that filters IngestBench.decodeSamples samples of its
+	// wave for every sense it decodes
+	public static class SlowFeeler extends BrainBenchmarks.WaveFeeler
+		implements IngestFeeler.Decoder {
+
+		private Environment env;
+		private int i;
+
+		public SlowFeeler(Environment env, int i) {
+			super(env, i);
+			this.env = env;
+			this.i = i;
+		}
+
+		@Override
+		public double decodeSense() {
+			double frequency = 0.1 * (this.i + 1);
+			double sum = 0.0;
+			for(int k = 0; k < IngestBench.decodeSamples; ++k) {
+				sum += Math.sin((this.env.getTime() + 1e-3 * k)
+						* frequency);
+			}
+			return sum / IngestBench.decodeSamples;
+		}
+
+		@Override
+		public double decode() {
+			return this.decodeSense();
+		}
+	}
+
+	public static final int defaultTicks = 2000;
+	public static final int decodeSamples = 2000;
+	public static final int capacity = 16;
+}
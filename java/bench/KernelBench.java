@@ -0,0 +1,124 @@
+package AstroAI.java.bench;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import AstroAI.java.NeuronKernels;
+import AstroAI.java.bench.Benchmark;
+
+// What the widest NeuronKernels save over the scalar ones on one neuron's
+// row of inputs, at rows of 16 to 512 inputs gathered from 1024 source
+// neurons: the weighted sum of a single brain's pass, and the batched one
+// of BrainBenchmarks.numLanes exploration candidates at once. This prints
+// the time per row of each and the scalar time over the widest.
+//
+// The widest kernels are the Vector API ones when the jdk.incubator.vector
+// module is added and they were compiled in, and the scalar ones otherwise,
+// when the ratio is 1. Single rows narrower than
+// VectorNeuronKernels.minVectorRow go to the scalar kernels even then,
+// since a gather costs more than it saves on them.
+//
+//     java --add-modules jdk.incubator.vector -cp <classes> \
+//         AstroAI.java.bench.KernelBench
+public class KernelBench {
+
+	public static void main(String args[]) {
+		NeuronKernels scalar = NeuronKernels.scalar();
+		NeuronKernels widest = NeuronKernels.widest();
+		System.out.println("widest: " + widest.getName());
+		// runs on the widest rows first warm up the kernels' vector
+		// paths, which the narrow rows alone would leave cold
+		int widestRow = KernelBench.rowSizes[
+			KernelBench.rowSizes.length - 1];
+		for(boolean batched : new boolean[] {false, true}) {
+			KernelBench.measure(scalar, widestRow, batched);
+			KernelBench.measure(widest, widestRow, batched);
+		}
+		System.out.println(String.format(
+			"%-10s %-8s %12s %12s %8s", "kernel", "inputs",
+			"scalar ns", "widest ns", "ratio"));
+		for(boolean batched : new boolean[] {false, true}) {
+			for(int n : KernelBench.rowSizes) {
+				double s = KernelBench.measure(scalar, n,
+							       batched);
+				double w = KernelBench.measure(widest, n,
+							       batched);
+				System.out.println(String.format(
+					"%-10s %-8d %12.1f %12.1f %8.2f",
+					batched ? "batched" : "single", n, s, w,
+					s / w));
+			}
+		}
+	}
+
+	private static double measure(NeuronKernels kernels, int n,
+				      boolean batched) {
+		return new KernelBench.Row(kernels, n, batched).measure(
+			KernelBench.warmupIterations, KernelBench.iterations,
+			KernelBench.iterationMillis).getNsPerOp();
+	}
+
+	// One row of n inputs from distinct random sources, in source order
+	// as the compiled passes lay them out
+	private static class Row extends Benchmark {
+		private NeuronKernels kernels;
+		private boolean batched;
+		private double weight[];
+		private int srcIndex[];
+		private double activation[];
+		private double out[];
+
+		public Row(NeuronKernels kernels, int n, boolean batched) {
+			super(kernels.getName() + " " + n);
+			this.kernels = kernels;
+			this.batched = batched;
+			Random random = new Random(KernelBench.seed);
+			int sources[] = new int[KernelBench.numSources];
+			for(int i = 0; i < sources.length; ++i) {
+				sources[i] = i;
+			}
+			for(int i = 0; i < n; ++i) {
+				int j = i + random.nextInt(sources.length - i);
+				int t = sources[i];
+				sources[i] = sources[j];
+				sources[j] = t;
+			}
+			this.srcIndex = Arrays.copyOf(sources, n);
+			Arrays.sort(this.srcIndex);
+			this.weight = new double[n];
+			for(int k = 0; k < n; ++k) {
+				this.weight[k] = random.nextGaussian();
+			}
+			int lanes = batched ? KernelBench.numLanes : 1;
+			this.activation = new double[sources.length * lanes];
+			for(int i = 0; i < this.activation.length; ++i) {
+				this.activation[i] =
+					2.0 * random.nextDouble() - 1.0;
+			}
+			this.out = new double[lanes];
+		}
+
+		@Override
+		public double run() {
+			if(this.batched) {
+				this.kernels.batchedWeightedSum(0.5,
+					this.weight, this.srcIndex,
+					this.activation,
+					KernelBench.numLanes, 0,
+					this.weight.length, this.out);
+				return this.out[0];
+			}
+			return this.kernels.weightedSum(0.5, this.weight,
+				this.srcIndex, this.activation, 0,
+				this.weight.length);
+		}
+	}
+
+	public static final int rowSizes[] = {16, 32, 64, 128, 256, 512};
+	public static final int numSources = 1024;
+	public static final int numLanes = 8;
+	public static final int warmupIterations = 3;
+	public static final int iterations = 5;
+	public static final long iterationMillis = 200;
+	public static final long seed = 1;
+}
@@ -0,0 +1,108 @@
+package AstroAI.java.bench;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import AstroAI.java.Brain;
+import AstroAI.java.BrainMonitor;
+import AstroAI.java.Environment;
+import AstroAI.java.bench.BrainBenchmarks;
+
+// What watching a running brain costs it. A warm brain of the default size
+// ticks without a monitor, then publishing to a BrainMonitor every tick
+// while reader threads read snapshots as fast as they can, and this prints
+// the time per tick, what one publication takes on its own, and how many
+// snapshots the readers got and how often they had to read again. The
+// readers need cores of their own not to slow the ticks down by taking
+// turns with them.
+//
+//     java -cp <classes> AstroAI.java.bench.MonitorBench [ticks] [readers]
+public class MonitorBench {
+
+	public static void main(String args[]) throws InterruptedException {
+		int ticks = args.length > 0 ? Integer.parseInt(args[0])
+			: MonitorBench.defaultTicks;
+		int numReaders = args.length > 1 ? Integer.parseInt(args[1])
+			: MonitorBench.defaultReaders;
+		System.out.println(String.format(
+			"%-10s %10s %10s %10s %10s %10s", "mode", "us/tick",
+			"monitored", "publish us", "reads", "retries"));
+		for(boolean compiled : new boolean[] {false, true}) {
+			MonitorBench.run(compiled, ticks, numReaders);
+		}
+	}
+
+	private static void run(boolean compiled, int ticks, int numReaders)
+		throws InterruptedException {
+		Environment env = new Environment();
+		Brain brain = BrainBenchmarks.makeWarmBrain(env, compiled);
+		long plain = MonitorBench.tick(brain, env, ticks);
+
+		BrainMonitor monitor = new BrainMonitor(1);
+		brain.setMonitor(monitor);
+		AtomicBoolean running = new AtomicBoolean(true);
+		MonitorBench.Reader readers[] =
+			new MonitorBench.Reader[numReaders];
+		for(int i = 0; i < numReaders; ++i) {
+			readers[i] = new MonitorBench.Reader(monitor, running);
+			readers[i].start();
+		}
+		long monitored = MonitorBench.tick(brain, env, ticks);
+		running.set(false);
+		long reads = 0;
+		for(MonitorBench.Reader r : readers) {
+			r.join();
+			reads += r.reads;
+		}
+
+		long start = System.nanoTime();
+		for(int t = 0; t < ticks; ++t) {
+			monitor.publish(brain);
+		}
+		long publish = System.nanoTime() - start;
+		brain.setMonitor(null);
+
+		System.out.println(String.format(
+			"%-10s %10.1f %10.1f %10.2f %10d %10d",
+			compiled ? "compiled" : "object", plain / 1e3 / ticks,
+			monitored / 1e3 / ticks, publish / 1e3 / ticks, reads,
+			monitor.getRetries()));
+	}
+
+	private static long tick(Brain brain, Environment env, int ticks) {
+		long start = System.nanoTime();
+		for(int t = 0; t < ticks; ++t) {
+			brain.think();
+			brain.learn();
+			env.advanceTime();
+		}
+		return System.nanoTime() - start;
+	}
+
+	// Reads snapshots into the same one until told to stop
+	private static class Reader extends Thread {
+		private BrainMonitor monitor;
+		private AtomicBoolean running;
+		private long reads;
+		private double sink;
+
+		public Reader(BrainMonitor monitor, AtomicBoolean running) {
+			this.monitor = monitor;
+			this.running = running;
+			this.setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			BrainMonitor.Snapshot s = new BrainMonitor.Snapshot();
+			while(this.running.get()) {
+				if(this.monitor.read(s)) {
+					this.sink += s.getWeight(0);
+					++this.reads;
+				}
+			}
+		}
+	}
+
+	public static final int defaultTicks = 500;
+	public static final int defaultReaders = 2;
+}
@@ -0,0 +1,124 @@
+package AstroAI.java.bench;
+
+import java.util.Random;
+
+import AstroAI.java.Environment;
+import AstroAI.java.NeighborFeeler;
+
+// How sensing neighbors scales with the number of creatures. Places are
+// spread evenly over a square, one per unit of area on average, each with
+// a NeighborFeeler.Within and a NeighborFeeler.Nearest; every tick each
+// feeler senses and each place takes a random step, applied when the
+// environment advances. This prints the time per place per tick of the
+// sensing and of the moves, which stay flat as the population grows, and,
+// where it is quick enough to measure, of finding the same neighbors by
+// looking at every other place.
+//
+//     java -cp <classes> AstroAI.java.bench.NeighborBench [ticks]
+public class NeighborBench {
+
+	public static void main(String args[]) {
+		int ticks = args.length > 0 ? Integer.parseInt(args[0])
+			: NeighborBench.defaultTicks;
+		System.out.println(String.format("%-10s %14s %14s %14s",
+			"places", "sense ns", "move ns", "all-pairs ns"));
+		// a run at the smallest size warms up the JIT
+		NeighborBench.run(NeighborBench.sizes[0], ticks, false);
+		for(int n : NeighborBench.sizes) {
+			NeighborBench.run(n, ticks, true);
+		}
+	}
+
+	private static void run(int n, int ticks, boolean print) {
+		Random random = new Random(NeighborBench.seed);
+		double side = Math.sqrt(n);
+		Environment env = new Environment(NeighborBench.radius);
+		NeighborFeeler feelers[] = new NeighborFeeler[2 * n];
+		int places[] = new int[n];
+		for(int i = 0; i < n; ++i) {
+			places[i] = env.place(null, random.nextDouble() * side,
+					      random.nextDouble() * side);
+			feelers[2 * i] = new NeighborFeeler.Within(env,
+				places[i], NeighborBench.radius, 1.0);
+			feelers[2 * i + 1] = new NeighborFeeler.Nearest(env,
+				places[i], NeighborBench.k, 1.0, 1.0);
+		}
+
+		long senseNanos = 0;
+		long moveNanos = 0;
+		double sink = 0.0;
+		for(int t = 0; t < ticks; ++t) {
+			long start = System.nanoTime();
+			for(NeighborFeeler f : feelers) {
+				sink += f.decodeSense();
+			}
+			long sensed = System.nanoTime();
+			for(int place : places) {
+				double x = env.getX(place)
+					+ random.nextGaussian() * 0.1;
+				double y = env.getY(place)
+					+ random.nextGaussian() * 0.1;
+				env.move(place, NeighborBench.wrap(x, side),
+					 NeighborBench.wrap(y, side));
+			}
+			env.advanceTime();
+			long moved = System.nanoTime();
+			// the first ticks warm up
+			if(2 * t >= ticks) {
+				senseNanos += sensed - start;
+				moveNanos += moved - sensed;
+			}
+		}
+		int measured = ticks - ticks / 2;
+
+		String allPairs = "-";
+		if(n <= NeighborBench.maxAllPairs) {
+			sink += NeighborBench.allPairs(env, places);
+			long start = System.nanoTime();
+			for(int t = 0; t < measured; ++t) {
+				sink += NeighborBench.allPairs(env, places);
+			}
+			allPairs = String.format("%.1f",
+				(System.nanoTime() - start)
+				/ (double) measured / n);
+		}
+		if(print) {
+			System.out.println(String.format(
+				"%-10d %14.1f %14.1f %14s", n,
+				senseNanos / (double) measured / n,
+				moveNanos / (double) measured / n, allPairs));
+		}
+		if(sink == Double.MIN_VALUE) {
+			System.out.println(sink);
+		}
+	}
+
+	// Counts every place's neighbors within radius the naive way
+	private static double allPairs(Environment env, int places[]) {
+		double r2 = NeighborBench.radius * NeighborBench.radius;
+		double sum = 0.0;
+		for(int a : places) {
+			int count = 0;
+			for(int b : places) {
+				double dx = env.getX(a) - env.getX(b);
+				double dy = env.getY(a) - env.getY(b);
+				if(a != b && dx * dx + dy * dy <= r2) {
+					++count;
+				}
+			}
+			sum += count / (count + 1.0);
+		}
+		return sum;
+	}
+
+	private static double wrap(double v, double side) {
+		return v - side * Math.floor(v / side);
+	}
+
+	public static final int sizes[] = {1000, 10000, 100000};
+	public static final double radius = 2.0;
+	public static final int k = 8;
+	public static final int maxAllPairs = 10000;
+	public static final int defaultTicks = 20;
+	public static final long seed = 1;
+}
@@ -0,0 +1,96 @@
+package AstroAI.java.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import AstroAI.java.Brain;
+import AstroAI.java.BrainStore;
+import AstroAI.java.Creature;
+import AstroAI.java.Environment;
+import AstroAI.java.bench.BrainBenchmarks;
+
+// What sparse propagation saves and what it costs. A warm compiled brain
+// is snapshotted and restored once with dense passes and once for each
+// epsilon, and all of them then think and learn side by side. For each
+// epsilon this prints the fraction of neurons skipped, the time per tick,
+// and how far its actions drift from the dense brain's.
+//
+//     java -cp <classes> AstroAI.java.bench.PropagationSweep [ticks]
+public class PropagationSweep {
+
+	public static void main(String args[]) throws IOException {
+		int ticks = args.length > 0 ? Integer.parseInt(args[0])
+			: PropagationSweep.defaultTicks;
+		Environment env = new Environment();
+		Path path = Files.createTempFile("brain", ".snap");
+		path.toFile().deleteOnExit();
+		BrainStore.write(BrainBenchmarks.makeWarmBrain(env, true),
+				 path);
+
+		List<String> actions = BrainBenchmarks.makeActions();
+		int n = PropagationSweep.epsilons.length;
+		Brain dense = PropagationSweep.restore(env, path);
+		Brain brains[] = new Brain[n];
+		for(int e = 0; e < n; ++e) {
+			brains[e] = PropagationSweep.restore(env, path);
+			brains[e].setPropagationEpsilon(
+				PropagationSweep.epsilons[e]);
+		}
+
+		long denseNanos = 0;
+		long nanos[] = new long[n];
+		double sumDelta[] = new double[n];
+		double maxDelta[] = new double[n];
+		for(int t = 0; t < ticks; ++t) {
+			denseNanos += PropagationSweep.tick(dense);
+			for(int e = 0; e < n; ++e) {
+				nanos[e] += PropagationSweep.tick(brains[e]);
+				for(String action : actions) {
+					double delta = Math.abs(
+						brains[e].getActionValue(action)
+						- dense.getActionValue(action));
+					sumDelta[e] += delta;
+					maxDelta[e] = Math.max(maxDelta[e],
+							       delta);
+				}
+			}
+			env.advanceTime();
+		}
+
+		System.out.println(String.format("%-8s %8s %10s %16s %15s",
+			"epsilon", "skipped", "us/tick", "mean |d action|",
+			"max |d action|"));
+		System.out.println(String.format("%-8s %8s %10.1f %16s %15s",
+			"dense", "-", denseNanos / 1e3 / ticks, "-", "-"));
+		for(int e = 0; e < n; ++e) {
+			System.out.println(String.format(
+				"%-8.0e %7.1f%% %10.1f %16.3g %15.3g",
+				PropagationSweep.epsilons[e],
+				100.0 * brains[e].getSkippedFraction(),
+				nanos[e] / 1e3 / ticks,
+				sumDelta[e] / ((double) ticks * actions.size()),
+				maxDelta[e]));
+		}
+	}
+
+	private static Brain restore(Environment env, Path path)
+		throws IOException {
+		return new Creature(env, path, BrainBenchmarks.makeSenses(env),
+				    BrainBenchmarks.makeActions()).getBrain();
+	}
+
+	// One think() and learn(), in nanoseconds
+	private static long tick(Brain b) {
+		long start = System.nanoTime();
+		b.think();
+		b.learn();
+		return System.nanoTime() - start;
+	}
+
+	public static final double epsilons[] = {
+		0.0, 1e-4, 1e-3, 1e-2, 1e-1
+	};
+	public static final int defaultTicks = 500;
+}
@@ -0,0 +1,102 @@
+package AstroAI.java.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import AstroAI.java.Brain;
+import AstroAI.java.BrainRandom;
+import AstroAI.java.Creature;
+import AstroAI.java.Environment;
+import AstroAI.java.Feeler;
+import AstroAI.java.SenseRecorder;
+import AstroAI.java.SenseReplay;
+import AstroAI.java.bench.BrainBenchmarks;
+import AstroAI.java.bench.IngestBench;
+
+// Training on a recorded sense log instead of live senses. A brain senses
+// IngestBench.SlowFeelers live while a SenseRecorder logs it, and a brain
+// with the same seed is then trained on the log through a SenseReplay.
+// This prints the time per tick of each, the size of the log, and how far
+// the replayed brain's actions strayed from the recorded ones.
+//
+//     java -cp <classes> AstroAI.java.bench.ReplayBench [ticks]
+public class ReplayBench {
+
+	public static void main(String args[]) throws IOException {
+		int ticks = args.length > 0 ? Integer.parseInt(args[0])
+			: ReplayBench.defaultTicks;
+		Path path = Files.createTempFile("senses", ".log");
+		path.toFile().deleteOnExit();
+
+		Environment env = new Environment();
+		Map<String, Feeler> senses =
+			new LinkedHashMap<String, Feeler>();
+		for(int i = 0; i < BrainBenchmarks.numSenses; ++i) {
+			senses.put("sense" + i,
+				   new IngestBench.SlowFeeler(env, i));
+		}
+		Brain live = ReplayBench.makeBrain(env, senses);
+		long liveNanos;
+		try(SenseRecorder recorder = new SenseRecorder(path, senses,
+				BrainBenchmarks.makeActions())) {
+			long start = System.nanoTime();
+			for(int t = 0; t < ticks; ++t) {
+				live.think();
+				live.learn();
+				recorder.append(live);
+				env.advanceTime();
+			}
+			liveNanos = System.nanoTime() - start;
+		}
+
+		double maxDelta = 0.0;
+		long replayNanos;
+		env = new Environment();
+		try(SenseReplay replay = new SenseReplay(path, env)) {
+			Brain b = ReplayBench.makeBrain(env,
+							replay.getSenseList());
+			List<String> actions = replay.getActionList();
+			long start = System.nanoTime();
+			while(!replay.isFinished()) {
+				b.think();
+				b.learn();
+				for(String action : actions) {
+					double delta = b.getActionValue(action)
+						- replay.getActionValue(action);
+					maxDelta = Math.max(maxDelta,
+							    Math.abs(delta));
+				}
+				env.advanceTime();
+			}
+			replayNanos = System.nanoTime() - start;
+		}
+
+		System.out.println(String.format(
+			"live   %10.1f us/tick", liveNanos / 1e3 / ticks));
+		System.out.println(String.format(
+			"replay %10.1f us/tick", replayNanos / 1e3 / ticks));
+		System.out.println(String.format("log    %10d bytes",
+						 Files.size(path)));
+		System.out.println(String.format("max |d action| %g",
+						 maxDelta));
+	}
+
+	private static Brain makeBrain(Environment env,
+				       Map<String, Feeler> senses) {
+		Brain b = new Creature(env, senses,
+				       BrainBenchmarks.makeActions(), 0.05, 0.1,
+				       0.2, Brain.numInterNeurons,
+				       Brain.numConnections,
+				       new BrainRandom(ReplayBench.seed))
+			.getBrain();
+		b.setCompiled(true);
+		return b;
+	}
+
+	public static final int defaultTicks = 3000;
+	public static final long seed = 1;
+}
@@ -0,0 +1,180 @@
+package AstroAI.java.foreign;
+
+import java.lang.ref.Cleaner;
+import java.util.ArrayList;
+
+import jdk.incubator.foreign.MemoryAccess;
+import jdk.incubator.foreign.MemorySegment;
+import jdk.incubator.foreign.ResourceScope;
+
+import AstroAI.java.BrainArena;
+
+// A BrainArena in native memory, through the foreign memory API: each block
+// is a MemorySegment with a resource scope of its own, so that it can be
+// freed on its own, eg, when a WeightHistory grows, and close() closes
+// every scope still open. The scopes are shared, since a brain may tick on
+// any thread of a pool, and registered with a Cleaner, so that the memory
+// of a brain that is collected without being released is freed too,
+// eventually. Accessing a freed block throws IllegalStateException rather
+// than reading freed memory.
+//
+// Needs the incubating jdk.incubator.foreign module, both to compile
+// (javac --add-modules jdk.incubator.foreign) and to run; without it
+// BrainArena.offHeap() falls back to a heap arena.
+public class ForeignBrainArena extends BrainArena {
+
+	private final ArrayList<ResourceScope> scopes;
+	private long bytes;
+	private boolean closed;
+
+	public ForeignBrainArena() {
+		this.scopes = new ArrayList<ResourceScope>();
+		this.bytes = 0;
+		this.closed = false;
+	}
+
+	@Override
+	public BrainArena.Doubles newDoubles(int n) {
+		return new ForeignBrainArena.Doubles(this.allocate(n, 8), n);
+	}
+
+	@Override
+	public BrainArena.Ints newInts(int n) {
+		return new ForeignBrainArena.Ints(this.allocate(n, 4), n);
+	}
+
+	@Override
+	public void free(BrainArena.Block block) {
+		MemorySegment segment = ForeignBrainArena.segmentOf(block);
+		this.bytes -= segment.byteSize();
+		this.scopes.remove(segment.scope());
+		segment.scope().close();
+	}
+
+	@Override
+	public void close() {
+		for(ResourceScope scope : this.scopes) {
+			scope.close();
+		}
+		this.scopes.clear();
+		this.bytes = 0;
+		this.closed = true;
+	}
+
+	@Override
+	public boolean isClosed() {
+		return this.closed;
+	}
+
+	@Override
+	public BrainArena newArena() {
+		return new ForeignBrainArena();
+	}
+
+	@Override
+	public long getBytes() {
+		return this.bytes;
+	}
+
+	@Override
+	public BrainArena.Doubles copyOf(BrainArena.Doubles d, int n) {
+		if(!(d instanceof ForeignBrainArena.Doubles)) {
+			return super.copyOf(d, n);
+		}
+		BrainArena.Doubles c = this.newDoubles(n);
+		ForeignBrainArena.copy(d, c, 8L * Math.min(n, d.length()));
+		return c;
+	}
+
+	@Override
+	public BrainArena.Ints copyOf(BrainArena.Ints d, int n) {
+		if(!(d instanceof ForeignBrainArena.Ints)) {
+			return super.copyOf(d, n);
+		}
+		BrainArena.Ints c = this.newInts(n);
+		ForeignBrainArena.copy(d, c, 4L * Math.min(n, d.length()));
+		return c;
+	}
+
+	// A zeroed segment for n elements of the given size; at least one,
+	// as native segments may not be empty
+	private MemorySegment allocate(int n, int size) {
+		if(this.closed) {
+			throw new BrainArena.ArenaClosedException(
+				"The arena has been closed.");
+		}
+		ResourceScope scope = ResourceScope.newSharedScope(
+			ForeignBrainArena.cleaner);
+		MemorySegment segment = MemorySegment.allocateNative(
+			(long) Math.max(n, 1) * size, size, scope);
+		segment.fill((byte) 0);
+		this.scopes.add(scope);
+		this.bytes += segment.byteSize();
+		return segment;
+	}
+
+	private static void copy(BrainArena.Block from, BrainArena.Block to,
+				 long bytes) {
+		ForeignBrainArena.segmentOf(to).asSlice(0, bytes).copyFrom(
+			ForeignBrainArena.segmentOf(from).asSlice(0, bytes));
+	}
+
+	private static MemorySegment segmentOf(BrainArena.Block block) {
+		if(block instanceof ForeignBrainArena.Doubles) {
+			return ((ForeignBrainArena.Doubles) block).segment;
+		}
+		return ((ForeignBrainArena.Ints) block).segment;
+	}
+
+	private static final Cleaner cleaner = Cleaner.create();
+
+	private static class Doubles extends BrainArena.Doubles {
+		private final MemorySegment segment;
+		private final int length;
+
+		public Doubles(MemorySegment segment, int length) {
+			this.segment = segment;
+			this.length = length;
+		}
+
+		@Override
+		public int length() {
+			return this.length;
+		}
+
+		@Override
+		public double get(int i) {
+			return MemoryAccess.getDoubleAtIndex(this.segment, i);
+		}
+
+		@Override
+		public void set(int i, double value) {
+			MemoryAccess.setDoubleAtIndex(this.segment, i, value);
+		}
+	}
+
+	private static class Ints extends BrainArena.Ints {
+		private final MemorySegment segment;
+		private final int length;
+
+		public Ints(MemorySegment segment, int length) {
+			this.segment = segment;
+			this.length = length;
+		}
+
+		@Override
+		public int length() {
+			return this.length;
+		}
+
+		@Override
+		public int get(int i) {
+			return MemoryAccess.getIntAtIndex(this.segment, i);
+		}
+
+		@Override
+		public void set(int i, int value) {
+			MemoryAccess.setIntAtIndex(this.segment, i, value);
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package AstroAI.java.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import AstroAI.java.Brain;
+import AstroAI.java.BrainRandom;
+import AstroAI.java.Connection;
+import AstroAI.java.Environment;
+import AstroAI.java.bench.BrainBenchmarks;
+
+// The brain's hot paths as JMH benchmarks: the ones BrainBenchmarks runs on
+// its own harness, on the same brains, built by its helpers. Built by the
+// jmh profile into target/benchmarks.jar, eg,
+//
+//     mvn -B -P jmh package
+//     java -jar target/benchmarks.jar BrainJmh -prof gc
+//
+// The forks get the incubating modules, so that the compiled brains use
+// the Vector API kernels.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {
+		"--add-modules", "jdk.incubator.vector,jdk.incubator.foreign"})
+public class BrainJmh {
+
+	// numInterNeurons/numConnections of the brains constructed
+	@State(Scope.Thread)
+	public static class Sizes {
+		@Param({"50/500", "150/2000", "400/8000"})
+		public String size;
+
+		public Environment env;
+		public int numInterNeurons;
+		public int numConnections;
+
+		@Setup
+		public void setUp() {
+			String parts[] = this.size.split("/");
+			this.env = new Environment();
+			this.numInterNeurons = Integer.parseInt(parts[0]);
+			this.numConnections = Integer.parseInt(parts[1]);
+		}
+	}
+
+	// A warm brain of the default size, as an object graph or compiled
+	@State(Scope.Thread)
+	public static class Warm {
+		@Param({"false", "true"})
+		public boolean compiled;
+
+		public Environment env;
+		public Brain brain;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			this.env = new Environment();
+			this.brain = BrainBenchmarks.makeWarmBrain(
+				this.env, this.compiled);
+		}
+	}
+
+	// The connections of a warm compiled brain, visited in turn
+	@State(Scope.Thread)
+	public static class Connections {
+		public Connection connections[];
+		public int next;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			this.connections = BrainBenchmarks.makeWarmBrain(
+				new Environment(), true).getConnections()
+				.toArray(new Connection[0]);
+			this.next = 0;
+		}
+
+		public Connection nextConnection() {
+			Connection c = this.connections[this.next];
+			this.next = (this.next + 1) % this.connections.length;
+			return c;
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Gaussian {
+		public BrainRandom random = new BrainRandom(1);
+	}
+
+	@Benchmark
+	public Brain construct(BrainJmh.Sizes s) {
+		return BrainBenchmarks.makeCreature(s.env,
+			s.numInterNeurons, s.numConnections).getBrain();
+	}
+
+	// One think() per tick
+	@Benchmark
+	public int think(BrainJmh.Warm w) {
+		w.brain.think();
+		w.env.advanceTime();
+		return w.env.getTime();
+	}
+
+	// One learn() per tick, without thinking in between
+	@Benchmark
+	public int learn(BrainJmh.Warm w) {
+		w.brain.learn();
+		w.env.advanceTime();
+		return w.env.getTime();
+	}
+
+	@Benchmark
+	public int shuffleConnections(BrainJmh.Warm w) {
+		w.brain.shuffleConnections();
+		return w.brain.getConnections().size();
+	}
+
+	@Benchmark
+	public double getAverageWeight(BrainJmh.Connections c) {
+		return c.nextConnection().getAverageWeight();
+	}
+
+	@Benchmark
+	public double getWeightRange(BrainJmh.Connections c) {
+		return c.nextConnection().getWeightRange();
+	}
+
+	@Benchmark
+	public double nextGaussian(BrainJmh.Gaussian g) {
+		return g.random.nextGaussian();
+	}
+}
@@ -0,0 +1,144 @@
+package AstroAI.java.vector;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import AstroAI.java.NeuronKernels;
+
+// NeuronKernels on the Vector API: the inputs of a row are gathered a
+// vector at a time through srcIndex and combined with fused multiply-adds.
+// Needs the incubating jdk.incubator.vector module, both to compile
+// (javac --add-modules jdk.incubator.vector) and to run; without it
+// NeuronKernels.widest() falls back to the scalar kernels.
+public class VectorNeuronKernels extends NeuronKernels {
+
+	private static final VectorSpecies<Double> species =
+		DoubleVector.SPECIES_PREFERRED;
+	// Rows narrower than this go to the scalar kernels: a gather costs
+	// more than it saves until a row has well over a hundred inputs.
+	public static final int minVectorRow =
+		16 * VectorNeuronKernels.species.length();
+
+	private final NeuronKernels scalar = NeuronKernels.scalar();
+
+	@Override
+	public double weightedSum(double bias, double weight[],
+				  int srcIndex[], double activation[],
+				  int from, int to) {
+		if(to - from < VectorNeuronKernels.minVectorRow) {
+			return this.scalar.weightedSum(bias, weight, srcIndex,
+						       activation, from, to);
+		}
+		DoubleVector acc = DoubleVector.zero(
+			VectorNeuronKernels.species);
+		int k = from;
+		int upper = from
+			+ VectorNeuronKernels.species.loopBound(to - from);
+		for(; k < upper; k += VectorNeuronKernels.species.length()) {
+			DoubleVector w = DoubleVector.fromArray(
+				VectorNeuronKernels.species, weight, k);
+			DoubleVector x = DoubleVector.fromArray(
+				VectorNeuronKernels.species, activation, 0,
+				srcIndex, k);
+			acc = w.fma(x, acc);
+		}
+		double out = bias + acc.reduceLanes(VectorOperators.ADD);
+		for(; k < to; ++k) {
+			out += weight[k] * activation[srcIndex[k]];
+		}
+		return out;
+	}
+
+	// The lanes of a batch are contiguous, so a vector of them loads
+	// without a gather. Each lane still sums in entry order, by a
+	// multiply and then an add, so batches come out exactly as the scalar
+	// kernels have them.
+	@Override
+	public void batchedWeightedSum(double bias, double weight[],
+				       int srcIndex[], double activation[],
+				       int lanes, int from, int to,
+				       double out[]) {
+		int b = 0;
+		int upper = VectorNeuronKernels.species.loopBound(lanes);
+		for(; b < upper; b += VectorNeuronKernels.species.length()) {
+			DoubleVector acc = DoubleVector.broadcast(
+				VectorNeuronKernels.species, bias);
+			for(int k = from; k < to; ++k) {
+				DoubleVector x = DoubleVector.fromArray(
+					VectorNeuronKernels.species, activation,
+					srcIndex[k] * lanes + b);
+				acc = acc.add(x.mul(weight[k]));
+			}
+			acc.intoArray(out, b);
+		}
+		for(; b < lanes; ++b) {
+			double sum = bias;
+			for(int k = from; k < to; ++k) {
+				sum += weight[k]
+					* activation[srcIndex[k] * lanes + b];
+			}
+			out[b] = sum;
+		}
+	}
+
+	@Override
+	public double gradientMagnitudeSquared(int srcIndex[],
+					       double activation[],
+					       int from, int to) {
+		if(to - from < VectorNeuronKernels.minVectorRow) {
+			return this.scalar.gradientMagnitudeSquared(
+				srcIndex, activation, from, to);
+		}
+		DoubleVector acc = DoubleVector.zero(
+			VectorNeuronKernels.species);
+		int k = from;
+		int upper = from
+			+ VectorNeuronKernels.species.loopBound(to - from);
+		for(; k < upper; k += VectorNeuronKernels.species.length()) {
+			DoubleVector x = DoubleVector.fromArray(
+				VectorNeuronKernels.species, activation, 0,
+				srcIndex, k);
+			acc = x.fma(x, acc);
+		}
+		double grad_mag_squared =
+			1.0 + acc.reduceLanes(VectorOperators.ADD);
+		for(; k < to; ++k) {
+			double v = activation[srcIndex[k]];
+			grad_mag_squared += v*v;
+		}
+		return grad_mag_squared;
+	}
+
+	@Override
+	public void adjustWeights(double weight[], int srcIndex[],
+				  double activation[], double frac,
+				  int from, int to) {
+		if(to - from < VectorNeuronKernels.minVectorRow) {
+			this.scalar.adjustWeights(weight, srcIndex, activation,
+						  frac, from, to);
+			return;
+		}
+		DoubleVector f = DoubleVector.broadcast(
+			VectorNeuronKernels.species, frac);
+		int k = from;
+		int upper = from
+			+ VectorNeuronKernels.species.loopBound(to - from);
+		for(; k < upper; k += VectorNeuronKernels.species.length()) {
+			DoubleVector w = DoubleVector.fromArray(
+				VectorNeuronKernels.species, weight, k);
+			DoubleVector x = DoubleVector.fromArray(
+				VectorNeuronKernels.species, activation, 0,
+				srcIndex, k);
+			x.fma(f, w).intoArray(weight, k);
+		}
+		for(; k < to; ++k) {
+			weight[k] = weight[k] + frac * activation[srcIndex[k]];
+		}
+	}
+
+	@Override
+	public String getName() {
+		return "vector (" + VectorNeuronKernels.species + ")";
+	}
+}